@@ -0,0 +1,445 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/** Reachability bitmaps of a pack: for some of its commits, the set of objects of the
+ * pack reachable from each one, as a compressed bitset. The objects one repository must
+ * send another are then those reachable from the head being sent but from none of the
+ * heads the other repository has: a few bitmaps ORed together, then one AND-NOT, instead
+ * of a walk through every commit and Tree of both histories.
+ *
+ * Bitmap file layout ([name].bitmap, next to the pack it describes):
+ *      magic "GBMP", version, the SHA1 of the pack file, number of objects in the pack;
+ *      for each bit, the position in the pack of the object it stands for;
+ *      number of bitmaps, then for each one: the position of its commit in the pack, the
+ *      number of words of its bitmap, and the words, compressed as EWAH (see encode).
+ *
+ * Bits do not follow the pack, which sorts objects by SHA1, but the order a walk of the
+ * history meets objects in: oldest commit first, each commit followed by the Trees and
+ * Blobs it adds. The objects reachable from a commit then mostly form a prefix of that
+ * order, which compresses to a few words.
+ *
+ * repack -a (and so gc) writes bitmaps for the head of each branch, and for each commit
+ * whose generation is a multiple of SPACING. To find the objects reachable from other
+ * commits, the history is walked down to the nearest commits with bitmaps, their bitmaps
+ * are ORed, and only the Trees of the commits walked are visited, skipping those already
+ * set. Objects outside the pack (loose ones, or those of newer packs) are kept by SHA1.
+ */
+class BitmapIndex {
+
+    /** First int of a bitmap file: "GBMP". */
+    private static final int MAGIC = 0x47424d50;
+
+    /** Version of the layout above. */
+    private static final int VERSION = 1;
+
+    /** Length of a binary SHA1. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** Commits whose generation is a multiple of this get a bitmap, so that a walk from
+     * any commit meets one within about that many commits. */
+    private static final int SPACING = 64;
+
+    /** Largest number of clean words a marker word can count. */
+    private static final long MAX_RUN = 0xffffffffL;
+
+    /** Largest number of literal words a marker word can count. */
+    private static final int MAX_LITERALS = 0x7fffffff;
+
+    /** Directories of the repository's loose commits and Blobs. */
+    private final File commDir;
+    private final File blobDir;
+
+    /** The pack described. */
+    private final Pack pack;
+
+    /** Position in the pack of the object each bit stands for. */
+    private final int[] objectAt;
+
+    /** Bit standing for the object at each position of the pack, or -1 if none yet. */
+    private final int[] bitOf;
+
+    /** The compressed bitmaps, by position of their commit in the pack. */
+    private final HashMap<Integer, long[]> bitmaps = new HashMap<>();
+
+    /** A set of objects: those of the pack as bits, the others by SHA1. */
+    private static class Reachable {
+        /** The objects of the pack, as bits. */
+        final BitSet bits = new BitSet();
+        /** The objects outside the pack. */
+        final HashSet<String> others = new HashSet<>();
+    }
+
+    /** Creates an index of [pack], of the repository at [gitletDir], without any bit. */
+    private BitmapIndex(File gitletDir, Pack pack) {
+        this.commDir = Utils.join(gitletDir, "commits");
+        this.blobDir = Utils.join(gitletDir, "blobs");
+        this.pack = pack;
+        objectAt = new int[pack.size()];
+        bitOf = new int[pack.size()];
+        Arrays.fill(bitOf, -1);
+    }
+
+    /** Returns the bitmap file of [pack], inside [packDir]. */
+    private static File fileFor(File packDir, Pack pack) {
+        return Utils.join(packDir, pack.name().replace(".pack", ".bitmap"));
+    }
+
+    /** Returns the objects reachable from the commits [wants] but from none of [haves], of
+     * the repository at [gitletDir], which must store all of them. Returns null if none of
+     * the repository's packs has valid bitmaps. */
+    static Set<String> missing(File gitletDir, List<String> wants, List<String> haves) {
+        BitmapIndex index = load(gitletDir);
+        if (index == null) {
+            return null;
+        }
+        Reachable had = index.reach(haves, null);
+        Reachable wanted = index.reach(wants, had);
+        wanted.bits.andNot(had.bits);
+        Set<String> result = new HashSet<>(wanted.others);
+        for (int bit = wanted.bits.nextSetBit(0); bit >= 0;
+             bit = wanted.bits.nextSetBit(bit + 1)) {
+            result.add(index.pack.idAt(index.objectAt[bit]));
+        }
+        return result;
+    }
+
+    /** Returns the bit standing for the object with the given SHA1, or -1 if it is not in
+     * the pack. */
+    private int bitFor(String sha) {
+        int pos = pack.indexOf(Utils.fromHex(sha));
+        return pos < 0 ? -1 : bitOf[pos];
+    }
+
+    /** Returns true if SET holds the object with the given SHA1, whose bit is [bit]. */
+    private static boolean contains(Reachable set, int bit, String sha) {
+        return bit >= 0 ? set.bits.get(bit) : set.others.contains(sha);
+    }
+
+    /** Adds the object with the given SHA1, whose bit is [bit], to SET. Returns false if
+     * it was there already. */
+    private static boolean add(Reachable set, int bit, String sha) {
+        if (bit < 0) {
+            return set.others.add(sha);
+        }
+        if (set.bits.get(bit)) {
+            return false;
+        }
+        set.bits.set(bit);
+        return true;
+    }
+
+    /** Returns the objects reachable from the commits [tips], leaving out those reachable
+     * from the commits of EXCLUDED, unless it is null. Commits are walked down to those
+     * with a bitmap, whose bitmaps are ORed in; then the Trees of the commits walked are
+     * visited, skipping those already in the result with everything they hold. */
+    private Reachable reach(List<String> tips, Reachable excluded) {
+        Reachable result = new Reachable();
+        List<String> walked = new ArrayList<>();
+        ArrayDeque<String> pending = new ArrayDeque<>(tips);
+        while (!pending.isEmpty()) {
+            String sha = pending.pop();
+            int bit = bitFor(sha);
+            if (contains(result, bit, sha)
+                    || excluded != null && contains(excluded, bit, sha)) {
+                continue;
+            }
+            long[] bitmap = bit >= 0 ? bitmaps.get(objectAt[bit]) : null;
+            if (bitmap != null) {
+                result.bits.or(decode(bitmap));
+                continue;
+            }
+            add(result, bit, sha);
+            walked.add(sha);
+            for (String parent : Commit.getFromSHA(sha, commDir).getParentSHAs()) {
+                pending.push(parent);
+            }
+        }
+        for (String sha : walked) {
+            visitTree(Commit.getFromSHA(sha, commDir).getTreeSHA(), other -> {
+                int bit = bitFor(other);
+                return (excluded == null || !contains(excluded, bit, other))
+                        && add(result, bit, other);
+            });
+        }
+        return result;
+    }
+
+    /** Calls ADD for the Tree with the given SHA1, then for each Tree, Blob and chunk it
+     * holds. ADD returns false for objects already added, whose contents are then
+     * skipped. */
+    private void visitTree(String root, Predicate<String> add) {
+        if (root.equals(Tree.EMPTY) || !add.test(root)) {
+            return;
+        }
+        Tree.visit(root, "", blobDir, new Tree.Visitor() {
+            @Override
+            public boolean tree(String sha, String path) {
+                return add.test(sha);
+            }
+
+            @Override
+            public void file(String sha, String path) {
+                if (!add.test(sha)) {
+                    return;
+                }
+                List<Blob.Chunk> chunks = Blob.getFromSHA(sha, blobDir).chunks();
+                if (chunks != null) {
+                    for (Blob.Chunk chunk : chunks) {
+                        add.test(chunk.sha);
+                    }
+                }
+            }
+        });
+    }
+
+    /** Returns the bitmaps of the packs of the repository at [gitletDir], or null if no
+     * pack has a valid bitmap file. */
+    private static BitmapIndex load(File gitletDir) {
+        File packDir = Utils.join(gitletDir, "packs");
+        for (Pack pack : Pack.packsIn(packDir)) {
+            File file = fileFor(packDir, pack);
+            if (!file.isFile()) {
+                continue;
+            }
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+                BitmapIndex index = read(in, gitletDir, pack);
+                if (index != null) {
+                    return index;
+                }
+            } catch (IOException excp) {
+                // An unreadable bitmap file only means the pack has no bitmaps.
+            }
+        }
+        return null;
+    }
+
+    /** Reads the bitmaps of [pack] from IN. Returns null if they were written for another
+     * pack, or in another layout. */
+    private static BitmapIndex read(DataInputStream in, File gitletDir, Pack pack)
+            throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION
+                || !Arrays.equals(in.readNBytes(ID_LENGTH), pack.checksum())
+                || in.readInt() != pack.size()) {
+            return null;
+        }
+        BitmapIndex index = new BitmapIndex(gitletDir, pack);
+        for (int bit = 0; bit < pack.size(); bit++) {
+            int pos = in.readInt();
+            if (pos < 0 || pos >= pack.size()) {
+                return null;
+            }
+            index.objectAt[bit] = pos;
+            index.bitOf[pos] = bit;
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int pos = in.readInt();
+            long[] words = new long[in.readInt()];
+            for (int j = 0; j < words.length; j++) {
+                words[j] = in.readLong();
+            }
+            index.bitmaps.put(pos, words);
+        }
+        return index;
+    }
+
+    /** Writes the bitmaps of [packFile], the pack holding every object of the repository
+     * at [gitletDir], for the heads of its branches and for every commit reachable from
+     * them whose generation is a multiple of SPACING. */
+    static void write(File gitletDir, File packFile) {
+        File packDir = packFile.getParentFile();
+        Pack pack = null;
+        for (Pack candidate : Pack.packsIn(packDir)) {
+            if (candidate.name().equals(packFile.getName())) {
+                pack = candidate;
+            }
+        }
+        if (pack == null) {
+            return;
+        }
+        BitmapIndex index = new BitmapIndex(gitletDir, pack);
+        List<String> heads = new ArrayList<>();
+        for (String head : Branch.headSHAsIn(Utils.join(gitletDir, "heads"))) {
+            if (pack.indexOf(Utils.fromHex(head)) >= 0 && !heads.contains(head)) {
+                heads.add(head);
+            }
+        }
+        Map<String, Integer> generations = new HashMap<>();
+        List<String> commits = index.sortCommits(heads, generations);
+        index.numberObjects(commits);
+
+        Set<String> selected = new HashSet<>(heads);
+        for (String sha : commits) {
+            if (generations.get(sha) % SPACING == 0) {
+                selected.add(sha);
+            }
+        }
+        for (String sha : commits) {
+            if (selected.contains(sha)) {
+                Reachable reachable = index.reach(List.of(sha), null);
+                index.bitmaps.put(pack.indexOf(Utils.fromHex(sha)), encode(reachable.bits));
+            }
+        }
+        index.save(fileFor(packDir, pack));
+    }
+
+    /** Returns the commits reachable from [heads], each after its parents, and records
+     * the generation of each one in GENERATIONS: one more than its parents' largest. */
+    private List<String> sortCommits(List<String> heads, Map<String, Integer> generations) {
+        List<String> commits = new ArrayList<>();
+        ArrayDeque<String> pending = new ArrayDeque<>(heads);
+        while (!pending.isEmpty()) {
+            String sha = pending.peek();
+            if (generations.containsKey(sha)) {
+                pending.pop();
+                continue;
+            }
+            int generation = 1;
+            boolean ready = true;
+            for (String parent : Commit.getFromSHA(sha, commDir).getParentSHAs()) {
+                Integer known = generations.get(parent);
+                if (known == null) {
+                    pending.push(parent);
+                    ready = false;
+                } else {
+                    generation = Math.max(generation, known + 1);
+                }
+            }
+            if (ready) {
+                pending.pop();
+                generations.put(sha, generation);
+                commits.add(sha);
+            }
+        }
+        return commits;
+    }
+
+    /** Numbers the bits: each of COMMITS in order, followed by the Trees and Blobs its
+     * snapshot adds, then the objects of the pack that no commit reaches. */
+    private void numberObjects(List<String> commits) {
+        int[] next = {0};
+        Predicate<String> number = sha -> {
+            int pos = pack.indexOf(Utils.fromHex(sha));
+            if (pos < 0 || bitOf[pos] >= 0) {
+                return false;
+            }
+            objectAt[next[0]] = pos;
+            bitOf[pos] = next[0]++;
+            return true;
+        };
+        for (String sha : commits) {
+            number.test(sha);
+            visitTree(Commit.getFromSHA(sha, commDir).getTreeSHA(), number);
+        }
+        for (int pos = 0; pos < pack.size(); pos++) {
+            if (bitOf[pos] < 0) {
+                objectAt[next[0]] = pos;
+                bitOf[pos] = next[0]++;
+            }
+        }
+    }
+
+    /** Writes this index into [file], replacing it at once. */
+    private void save(File file) {
+        File temp = Utils.join(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(pack.checksum());
+                out.writeInt(pack.size());
+                for (int pos : objectAt) {
+                    out.writeInt(pos);
+                }
+                out.writeInt(bitmaps.size());
+                for (Map.Entry<Integer, long[]> bitmap : bitmaps.entrySet()) {
+                    out.writeInt(bitmap.getKey());
+                    out.writeInt(bitmap.getValue().length);
+                    for (long word : bitmap.getValue()) {
+                        out.writeLong(word);
+                    }
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns BITS compressed as EWAH: a sequence of marker words, each followed by the
+     * literal words it counts. A marker holds, from its lowest bit: the value of the
+     * clean words (all zeros or all ones) it stands for, their number on 32 bits, and the
+     * number of literal words after it on 31 bits. */
+    static long[] encode(BitSet bits) {
+        long[] words = bits.toLongArray();
+        long[] result = new long[2 * words.length + 1];
+        int length = 0;
+        int i = 0;
+        while (i < words.length) {
+            long clean = words[i];
+            long run = 0;
+            if (clean == 0 || clean == -1L) {
+                while (i < words.length && words[i] == clean && run < MAX_RUN) {
+                    run += 1;
+                    i += 1;
+                }
+            }
+            int literals = 0;
+            while (i + literals < words.length && words[i + literals] != 0
+                    && words[i + literals] != -1L && literals < MAX_LITERALS) {
+                literals += 1;
+            }
+            result[length++] = (run > 0 && clean == -1L ? 1 : 0) | run << 1
+                    | (long) literals << 33;
+            System.arraycopy(words, i, result, length, literals);
+            length += literals;
+            i += literals;
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    /** Returns the bits compressed as [ewah] (see encode). */
+    static BitSet decode(long[] ewah) {
+        int length = 0;
+        for (int i = 0; i < ewah.length; i += 1 + (int) (ewah[i] >>> 33)) {
+            length += (int) ((ewah[i] >>> 1) & MAX_RUN) + (int) (ewah[i] >>> 33);
+        }
+        long[] words = new long[length];
+        int next = 0;
+        int i = 0;
+        while (i < ewah.length) {
+            long marker = ewah[i++];
+            int run = (int) ((marker >>> 1) & MAX_RUN);
+            int literals = (int) (marker >>> 33);
+            if ((marker & 1) != 0) {
+                Arrays.fill(words, next, next + run, -1L);
+            }
+            next += run;
+            System.arraycopy(ewah, i, words, next, literals);
+            next += literals;
+            i += literals;
+        }
+        return BitSet.valueOf(words);
+    }
+}
@@ -1,8 +1,21 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
 
 /** Represents a Gitlet Blob object. Blobs are the saved contents of files.
  * Since Gitlet saves many versions of files, a single file might correspond to
@@ -10,9 +23,21 @@ import java.nio.charset.StandardCharsets;
  *
  * Each Blob object keeps track of:
  *      its SHA-1, which is used to reference and identify it,
- *      its contents - the contents of a file that was staged and committed.
+ *      where its contents can be read from - either a file in the working directory,
+ *      or a directory of saved Blobs.
+ *
+ * Blobs never hold their contents in memory: they are hashed, saved and restored by
+ * streaming them (see LooseObject).
+ *
+ * Files of at least chunk.threshold bytes, a setting read each time a file is saved (see
+ * Config), are saved as chunked Blobs: they are split into content-defined chunks of
+ * about chunk.averageSize bytes (see Chunker), each chunk is saved once, by its own SHA1,
+ * in the blobs directory, and the Blob itself only stores its list of chunks. A chunk list is a
+ * sequence of (20-byte chunk SHA1, chunk length as a varint) pairs. Since most chunks of
+ * a file survive an edit, versions of a large file share most of their chunks.
+ * Either way, the SHA1 of a Blob is the SHA1 of its whole contents.
  */
-public class Blob implements Serializable {
+public class Blob {
 
     /** The current working directory. */
     public static final File CWD = Paths.CWD;
@@ -20,12 +45,26 @@ public class Blob implements Serializable {
     /** Path to directory that stores all Blobs. */
     private static final File BLOB_DIR = Paths.BLOB_DIR;
 
+    /** Default of the setting chunk.threshold. */
+    private static final long CHUNK_THRESHOLD = 4L << 20;
+
+    /** Default of the setting chunk.averageSize. */
+    private static final long CHUNK_SIZE = 64L << 10;
+
+    /** Saved Blobs up to this long keep their contents cached once read (see readContents). */
+    private static final int CACHED_BLOB_BYTES = 1 << 20;
+
     /** The SHA1 of this Blob.
      * If two Blobs have the same SHA1, we assume their contents are the same. */
     private final String sha1;
 
-    /** The contents of the Blob. */
-    private final byte[] contents;
+    /** The working file this Blob was created from, or null if it was read from a
+     * directory of saved Blobs. */
+    private final File source;
+
+    /** The directory of saved Blobs this Blob was read from, or null if it was created
+     * from a working file. */
+    private final File blobDir;
 
     /** Returns the SHA1 of this Blob. */
     public String getSHA1() {
@@ -34,9 +73,65 @@ public class Blob implements Serializable {
 
     /** Creates a Blob of the given file inside the current working directory. */
     public Blob(String fileName) {
-        File target = Utils.join(CWD, fileName);
-        contents = Utils.readContents(target);
-        sha1 = Utils.sha1(contents);
+        source = Utils.join(CWD, fileName);
+        sha1 = Hasher.hash(source);
+        blobDir = null;
+    }
+
+    /** Creates a Blob with the given SHA1 and source. */
+    private Blob(String sha1, File source, File blobDir) {
+        this.sha1 = sha1;
+        this.source = source;
+        this.blobDir = blobDir;
+    }
+
+    /** Saves the given file inside the current working directory to [blobDir], hashing
+     * and compressing it in a single pass. Returns the resulting Blob. */
+    public static Blob saveFromFile(String fileName, File blobDir) {
+        File file = Utils.join(CWD, fileName);
+        return new Blob(store(file, blobDir), file, null);
+    }
+
+    /** Saves the contents of [file] to [blobDir], chunked if the file is large enough.
+     * A file that turns out to be a single chunk is saved as a plain Blob, since its chunk
+     * would have the SHA1 of the Blob itself. Returns their SHA1. */
+    static String store(File file, File blobDir) {
+        long threshold = Config.getLong("chunk.threshold", CHUNK_THRESHOLD);
+        if (threshold <= 0 || file.length() < threshold) {
+            return LooseObject.store(blobDir, Pack.BLOB, file);
+        }
+        File chunkDir = chunkDirFor(blobDir);
+        MessageDigest md = LooseObject.newDigest();
+        ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            Chunker chunker = new Chunker(in,
+                    (int) Config.getLong("chunk.averageSize", CHUNK_SIZE));
+            // The first chunk is only saved once a second one follows.
+            byte[] first = chunker.next();
+            byte[] chunk = first;
+            while (chunk != null) {
+                md.update(chunk);
+                byte[] next = chunker.next();
+                if (chunk == first && next == null) {
+                    return LooseObject.store(blobDir, Pack.BLOB, chunk);
+                }
+                String chunkSha = Utils.sha1((Object) chunk);
+                if (!exists(chunkSha, chunkDir)) {
+                    LooseObject.store(chunkDir, Pack.CHUNK, chunk);
+                }
+                chunks.write(Utils.fromHex(chunkSha));
+                Utils.writeVarint(chunks, chunk.length);
+                chunk = next;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String sha = Utils.toHex(md.digest(), 0, Utils.UID_LENGTH / 2);
+        File target = LooseObject.fileFor(blobDir, sha);
+        if (!target.isFile()) {
+            LooseObject.write(target, Pack.CHUNK_LIST, chunks.toByteArray());
+        }
+        return sha;
     }
 
     /** Saves this Blob to BLOB_DIR. For non-remote Blobs. */
@@ -44,10 +139,41 @@ public class Blob implements Serializable {
         this.saveBlob(BLOB_DIR);
     }
 
-    /** Saves this Blob to given directory. The name of this saved file is the SHA1 of the Blob. */
-    public void saveBlob(File blobDir) {
-        File newFile = Utils.join(blobDir, sha1);
-        Utils.writeObject(newFile, this);
+    /** Saves this Blob to given directory. The name of this saved file is the SHA1 of the Blob.
+     * Loose Blobs are copied as they are, without being decompressed. Chunked Blobs only
+     * copy their chunk list, since their chunks are already saved in the blobs directory. */
+    public void saveBlob(File dir) {
+        File newFile = LooseObject.fileFor(dir, sha1);
+        if (newFile.isFile()) {
+            return;
+        }
+        if (source != null) {
+            store(source, dir);
+            return;
+        }
+        File loose = LooseObject.fileFor(blobDir, sha1);
+        if (loose.isFile()) {
+            LooseObject.copy(loose, newFile);
+        } else {
+            LooseObject.write(newFile, Pack.readType(blobDir, sha1),
+                    Pack.readObject(blobDir, sha1));
+        }
+    }
+
+    /** Moves this Blob into the directory [dir] of the same repository. Loose Blobs are
+     * renamed, which costs no reads or writes of their contents, and chunked Blobs only
+     * move their chunk list. Does nothing if [dir] already holds this Blob, packed or
+     * loose. */
+    public void promote(File dir) {
+        if (exists(sha1, dir)) {
+            return;
+        }
+        File loose = blobDir == null ? null : LooseObject.fileFor(blobDir, sha1);
+        if (loose != null && loose.isFile()) {
+            LooseObject.move(loose, LooseObject.fileFor(dir, sha1));
+        } else {
+            saveBlob(dir);
+        }
     }
 
     /** Returns the Blob with the given SHA1. For non-remote blobs. */
@@ -55,15 +181,179 @@ public class Blob implements Serializable {
         return getFromSHA(sha, BLOB_DIR);
     }
 
-    /** Returns the Blob with the given SHA1 from the given directory. */
+    /** Returns the Blob with the given SHA1 from the given directory.
+     * Its contents are only read when needed. */
     public static Blob getFromSHA(String sha, File blobDir) {
-        return Utils.readObject(Utils.join(blobDir, sha), Blob.class);
+        return new Blob(sha, null, blobDir);
+    }
+
+    /** Returns true if the Blob with the given SHA1 is stored, packed or loose,
+     * in the given directory. */
+    public static boolean exists(String sha, File blobDir) {
+        return Pack.contains(Pack.dirFor(blobDir), sha)
+                || LooseObject.fileFor(blobDir, sha).isFile();
+    }
+
+    /** Returns the directory holding the chunks of the chunked Blobs saved in [blobDir]:
+     * the blobs directory of the same repository. */
+    private static File chunkDirFor(File blobDir) {
+        return Utils.join(blobDir.getParentFile(), "blobs");
+    }
+
+    /** One chunk of a chunked Blob. */
+    static class Chunk {
+        /** SHA1 of the chunk. */
+        final String sha;
+        /** Length of the chunk. */
+        final int length;
+
+        Chunk(String sha, int length) {
+            this.sha = sha;
+            this.length = length;
+        }
+    }
+
+    /** Returns the chunks listed by the given chunk list, in order. */
+    static List<Chunk> decodeChunks(byte[] list) {
+        List<Chunk> result = new ArrayList<>();
+        int[] pos = {0};
+        while (pos[0] < list.length) {
+            String sha = Utils.toHex(list, pos[0], Utils.UID_LENGTH / 2);
+            pos[0] += Utils.UID_LENGTH / 2;
+            result.add(new Chunk(sha, Utils.readVarint(list, pos)));
+        }
+        return result;
+    }
+
+    /** Returns the chunks of this Blob, or null if it is not a chunked Blob. */
+    List<Chunk> chunks() {
+        if (source != null || Pack.readType(blobDir, sha1) != Pack.CHUNK_LIST) {
+            return null;
+        }
+        return decodeChunks(Pack.readObject(blobDir, sha1));
+    }
+
+    /** Returns a stream over the contents of this Blob. Packed Blobs are looked up first,
+     * then loose ones. Chunked Blobs open each chunk once the previous one is read. */
+    public InputStream openStream() {
+        try {
+            if (source != null) {
+                return Files.newInputStream(source.toPath());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        List<Chunk> chunks = chunks();
+        if (chunks != null) {
+            File chunkDir = chunkDirFor(blobDir);
+            Iterator<Chunk> next = chunks.iterator();
+            return new SequenceInputStream(new Enumeration<InputStream>() {
+                @Override
+                public boolean hasMoreElements() {
+                    return next.hasNext();
+                }
+
+                @Override
+                public InputStream nextElement() {
+                    return getFromSHA(next.next().sha, chunkDir).openStream();
+                }
+            });
+        }
+        ByteBuffer packed = Pack.findBuffer(Pack.dirFor(blobDir), sha1);
+        if (packed != null) {
+            return new BufferStream(packed);
+        }
+        return LooseObject.open(LooseObject.fileFor(blobDir, sha1));
     }
 
-    /** Writes the contents of this Blob to a file with the given name in the given directory. */
+    /** An InputStream over the remaining bytes of a ByteBuffer. */
+    private static class BufferStream extends InputStream {
+        /** The buffer being read. */
+        private final ByteBuffer buffer;
+
+        BufferStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] dest, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(dest, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /** Returns the contents of this Blob. Only meant for small Blobs. The contents of
+     * saved Blobs are shared with other callers (see ObjectCache), so they must not be
+     * modified. */
+    public byte[] readContents() {
+        ObjectCache objects = source == null ? RepoContext.current().objects() : null;
+        if (objects != null) {
+            byte[] cached = (byte[]) objects.get(ObjectCache.BLOB, blobDir, sha1);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        byte[] contents;
+        try (InputStream in = openStream()) {
+            contents = in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (objects != null && contents.length <= CACHED_BLOB_BYTES) {
+            objects.put(ObjectCache.BLOB, blobDir, sha1, contents, 32 + contents.length);
+        }
+        return contents;
+    }
+
+    /** Writes the contents of this Blob to a file with the given name in the given directory.
+     * Blobs stored whole in a pack are written straight from the mapped pack, and chunked
+     * Blobs one chunk at a time. */
     public void writeContentsToFile(File directory, String fileName) {
         File file = Utils.join(directory, fileName);
-        Utils.writeContents(file, contents);
+        file.getParentFile().mkdirs();
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Appends the contents of this Blob to [out]. */
+    private void writeTo(FileChannel out) throws IOException {
+        if (source == null) {
+            List<Chunk> chunks = chunks();
+            if (chunks != null) {
+                for (Chunk chunk : chunks) {
+                    getFromSHA(chunk.sha, chunkDirFor(blobDir)).writeTo(out);
+                }
+                return;
+            }
+            ByteBuffer packed = Pack.findBuffer(Pack.dirFor(blobDir), sha1);
+            if (packed != null) {
+                while (packed.hasRemaining()) {
+                    out.write(packed);
+                }
+                return;
+            }
+        }
+        try (InputStream in = openStream()) {
+            in.transferTo(Channels.newOutputStream(out));
+        }
     }
 
     /** Saves a "conflict" file to the given directory. Conflict files have a particular layout
@@ -71,13 +361,16 @@ public class Blob implements Serializable {
     public static void writeConflict(File directory, String fileName,
                                      String currentSha, String givenSha) {
         File file = Utils.join(directory, fileName);
+        file.getParentFile().mkdirs();
         String currentContents = "";
         String givenContents = "";
         if (currentSha != null) {
-            currentContents = new String(getFromSHA(currentSha).contents, StandardCharsets.UTF_8);
+            currentContents = new String(getFromSHA(currentSha).readContents(),
+                    StandardCharsets.UTF_8);
         }
         if (givenSha != null) {
-            givenContents = new String(getFromSHA(givenSha).contents, StandardCharsets.UTF_8);
+            givenContents = new String(getFromSHA(givenSha).readContents(),
+                    StandardCharsets.UTF_8);
         }
 
         String merged = "<<<<<<< HEAD" + System.lineSeparator()
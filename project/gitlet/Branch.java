@@ -2,6 +2,9 @@ package gitlet;
 
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 /** Some methods to create and interact with gitlet branches.
  * A branch is a file located inside BRANCH_DIR that points to a commit - its head.
@@ -14,6 +17,22 @@ public class Branch {
     public static final File BRANCH_DIR = Paths.BRANCH_DIR;
     public static final File HEAD = Paths.HEAD;
 
+    /** Contents of the HEAD and branch files read by a Server, with their stat data when
+     * read. */
+    private static final HashMap<File, Ref> READ = new HashMap<>();
+
+    /** The contents of a HEAD or branch file, with its stat data when read. */
+    private static class Ref {
+        /** Stat data of the file, taken before it was read. */
+        final StatCache.Entry stat;
+        /** Contents of the file. */
+        final String contents;
+
+        Ref(StatCache.Entry stat, String contents) {
+            this.stat = stat;
+            this.contents = contents;
+        }
+    }
 
     /** Adds new branch with given name and head.
      * Prints error message if branch with given name already exists.  */
@@ -22,15 +41,15 @@ public class Branch {
         if (branch.isFile()) {
             Utils.printAndExit("A branch with that name already exists.");
         }
-        Utils.writeContents(branch, head.getSHA1());
+        write(branch, head.getSHA1());
     }
 
     /** Sets given Commit as head of the current branch. */
     public static void moveBranchHead(Commit newHead) {
         String newHeadSHA = newHead.getSHA1();
-        String headName = Utils.readContentsAsString(HEAD);
+        String headName = read(HEAD);
         File headBranch = Utils.join(BRANCH_DIR, headName);
-        Utils.writeContents(headBranch, newHeadSHA);
+        write(headBranch, newHeadSHA);
     }
 
     /** Returns the current head commit. */
@@ -40,13 +59,86 @@ public class Branch {
 
     /** Returns the SHA1 of the current head commit. */
     public static String getHeadCommitSHA() {
-        String headName = Utils.readContentsAsString(HEAD);
+        String headName = read(HEAD);
         File headBranch = Utils.join(BRANCH_DIR, headName);
-        return Utils.readContentsAsString(headBranch);
+        return read(headBranch);
+    }
+
+    /** Returns the SHA1s of the heads of all branches, including the remote-tracking
+     * branches kept in a subdirectory of BRANCH_DIR per remote. */
+    public static List<String> getAllHeadSHAs() {
+        return headSHAsIn(BRANCH_DIR);
+    }
+
+    /** Returns the SHA1s of the heads of the branches kept in [branchDir], the branch
+     * directory of some repository, including its remote-tracking branches. */
+    static List<String> headSHAsIn(File branchDir) {
+        List<String> heads = new ArrayList<>();
+        File[] entries = branchDir.listFiles();
+        if (entries == null) {
+            return heads;
+        }
+        for (File entry : entries) {
+            File[] branches = entry.isDirectory() ? entry.listFiles() : new File[] {entry};
+            if (branches == null) {
+                continue;
+            }
+            for (File branch : branches) {
+                if (branch.isFile()) {
+                    heads.add(Utils.readContentsAsString(branch));
+                }
+            }
+        }
+        return heads;
     }
 
     /** Returns the name of the current branch. */
     public static String getCurrentBranchName() {
-        return Utils.readContentsAsString(HEAD);
+        return read(HEAD);
+    }
+
+    /** Returns the contents of the HEAD or branch file [file]. Each command reads it once,
+     * then remembers it (see RepoContext). A Server only reads it again for the next
+     * command if its stat data changed since it was last read, or could not tell a change
+     * then (see Server.settled). */
+    private static String read(File file) {
+        RepoContext context = RepoContext.current();
+        String contents = context.ref(file);
+        if (contents == null) {
+            contents = readChanged(file);
+            context.setRef(file, contents);
+        }
+        return contents;
+    }
+
+    /** Returns the contents of the HEAD or branch file [file], unless a Server read them
+     * earlier and the file did not change since. */
+    private static String readChanged(File file) {
+        if (!Server.isServing()) {
+            return Utils.readContentsAsString(file);
+        }
+        StatCache.Entry stat = StatCache.stat(file);
+        synchronized (READ) {
+            Ref ref = READ.get(file);
+            if (ref != null && stat != null && ref.stat.sameStat(stat)) {
+                return ref.contents;
+            }
+        }
+        String contents = Utils.readContentsAsString(file);
+        synchronized (READ) {
+            if (stat != null && Server.settled(stat)) {
+                READ.put(file, new Ref(stat, contents));
+            } else {
+                READ.remove(file);
+            }
+        }
+        return contents;
+    }
+
+    /** Writes [contents] to the HEAD or branch file [file], and remembers them for the rest
+     * of the command. */
+    static void write(File file, String contents) {
+        Utils.writeContents(file, contents);
+        RepoContext.current().setRef(file, contents);
     }
 }
@@ -0,0 +1,127 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Splits a stream into content-defined chunks, using the FastCDC algorithm.
+ *
+ * A gear hash is rolled over the bytes of the stream, and a chunk ends wherever the
+ * hash matches a mask. Since boundaries depend only on the nearby bytes, inserting or
+ * appending data only changes the chunks around the edit, and every other chunk keeps
+ * its contents (and its SHA1).
+ *
+ * Chunks are at least a quarter and at most four times the average size. Below the
+ * average size a stricter mask (one more bit) is used, and above it a looser one (one
+ * bit less), which keeps chunk sizes close to the average ("normalized chunking").
+ */
+public class Chunker {
+
+    /** Random values mixed into the hash for each byte value. Fixed, so that every
+     * repository cuts the same contents at the same places. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** The stream being split. */
+    private final InputStream in;
+
+    /** Smallest, average and largest chunk sizes. */
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+
+    /** Masks used before and after reaching the average size. */
+    private final long strictMask;
+    private final long looseMask;
+
+    /** Bytes read from the stream but not yet returned. */
+    private final byte[] buffer;
+
+    /** Start and end of the unreturned bytes in the buffer. */
+    private int start;
+    private int end;
+
+    /** True once the stream has been read to its end. */
+    private boolean exhausted;
+
+    /** Creates a Chunker splitting [in] into chunks of about [avgSize] bytes, which is
+     * rounded down to a power of two. */
+    public Chunker(InputStream in, int avgSize) {
+        this.in = in;
+        int bits = 31 - Integer.numberOfLeadingZeros(Math.max(avgSize, 64));
+        this.avgSize = 1 << bits;
+        this.minSize = this.avgSize / 4;
+        this.maxSize = this.avgSize * 4;
+        strictMask = topBits(bits + 1);
+        looseMask = topBits(bits - 1);
+        buffer = new byte[maxSize * 2];
+    }
+
+    /** Returns a mask of the [count] most significant bits. */
+    private static long topBits(int count) {
+        return -1L << (64 - count);
+    }
+
+    /** Returns the next chunk of the stream, or null at its end. */
+    public byte[] next() throws IOException {
+        fill();
+        if (start == end) {
+            return null;
+        }
+        int length = cut(start, end - start);
+        byte[] chunk = Arrays.copyOfRange(buffer, start, start + length);
+        start += length;
+        return chunk;
+    }
+
+    /** Reads from the stream until at least maxSize bytes are buffered, or the stream
+     * ends. */
+    private void fill() throws IOException {
+        if (end - start >= maxSize || exhausted) {
+            return;
+        }
+        System.arraycopy(buffer, start, buffer, 0, end - start);
+        end -= start;
+        start = 0;
+        while (end < buffer.length) {
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                exhausted = true;
+                return;
+            }
+            end += read;
+        }
+    }
+
+    /** Returns the length of the chunk starting at buffer[from], given that [available]
+     * bytes are buffered from there. */
+    private int cut(int from, int available) {
+        if (available <= minSize) {
+            return available;
+        }
+        int limit = Math.min(available, maxSize);
+        int normal = Math.min(avgSize, limit);
+        long hash = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[buffer[from + i] & 0xff];
+            if ((hash & strictMask) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i++) {
+            hash = (hash << 1) + GEAR[buffer[from + i] & 0xff];
+            if ((hash & looseMask) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** A thin client of Gitlet's Server: runs a command in the server of the repository of
+ * the working directory, copying its output to this process's standard output and
+ * error and exiting with its status. Runs the command in this process instead if no
+ * server is listening, or if the server refuses the command (see Server).
+ *
+ * The client only forwards the arguments and the working directory: no command reads
+ * the standard input. */
+public class Client {
+
+    /** Usage: java gitlet.Client ARGS, with the same ARGS as gitlet.Main. */
+    public static void main(String[] args) {
+        String cwd = System.getProperty("user.dir");
+        Path socket = Path.of(cwd, ".gitlet", "server.sock");
+        if (Files.exists(socket)) {
+            int status = forward(socket, args, cwd);
+            if (status >= 0) {
+                System.exit(status);
+            }
+        }
+        Main.main(args);
+    }
+
+    /** Runs the command [args] in the server listening on [socket], and returns its exit
+     * status, or -1 if the command was not run: the server is not listening, or refused
+     * the command. */
+    private static int forward(Path socket, String[] args, String cwd) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException excp) {
+            return -1;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            writeRequest(out, args, cwd);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            while (true) {
+                byte kind = in.readByte();
+                int length = in.readInt();
+                if (kind == Server.EXIT) {
+                    System.out.flush();
+                    System.err.flush();
+                    return length;
+                } else if (kind == Server.REFUSED) {
+                    return -1;
+                }
+                PrintStream stream = kind == Server.STDERR ? System.err : System.out;
+                stream.write(in.readNBytes(length));
+            }
+        } catch (IOException excp) {
+            // The command may have run already, so it is not run again.
+            System.err.println("Lost the connection to the Gitlet server: "
+                    + excp.getMessage());
+            return 1;
+        }
+    }
+
+    /** Writes a request to run the command [args] in the working directory [cwd]. */
+    static void writeRequest(DataOutputStream out, String[] args, String cwd)
+            throws IOException {
+        out.writeInt(args.length);
+        for (String arg : args) {
+            out.writeUTF(arg);
+        }
+        out.writeUTF(cwd);
+        out.flush();
+    }
+}
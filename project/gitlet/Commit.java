@@ -1,7 +1,11 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 
@@ -10,34 +14,59 @@ import java.util.*;
  *      its SHA-1, which is used to reference and identify it,
  *      a log message,
  *      a timestamp,
- *      a mapping of file names to blob references,
+ *      the SHA-1 of the root Tree of its snapshot, which maps file paths to blob
+ *      references,
  *      a parent reference,
  *      (for merges) a second parent reference.
+ *
+ * Commits are stored in a compact binary form (see encode), and the SHA-1 of a commit
+ * is the SHA-1 of that form. The snapshot is kept in Trees (see Tree), saved along with
+ * the blobs, so a commit that changes a few files only writes the Trees on their paths.
  */
-public class Commit implements Serializable {
-    /** The current working directory */
-    private static final File CWD = Paths.CWD;
-
+public class Commit {
     /** Path to directory that stores all commits. */
     private static final File COMM_DIR = Paths.COMM_DIR;
 
+    /** Path to directory that stores all blobs and trees. */
+    private static final File BLOB_DIR = Paths.BLOB_DIR;
+
+    /** Version of the binary form of commits. Version 1 held a flat list of files instead
+     * of a root Tree. */
+    private static final byte FORMAT_VERSION = 2;
+
+    /** Length of a binary SHA1. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** Format of the dates printed by log, built once. */
+    private static final DateTimeFormatter LOG_DATE = DateTimeFormatter.ofPattern(
+            "EEE MMM d HH:mm:ss yyyy Z", Locale.getDefault(Locale.Category.FORMAT));
+
+    /** Time zone of the dates printed by log. */
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    /** End of the lines printed by log. */
+    private static final String NEWLINE = System.lineSeparator();
+
     /** The SHA1 of this commit. */
     private final String sha1;
 
     /** The message of this commit. */
     private final String message;
 
-    /** The timestamp of this commit. */
-    private final Date timestamp;
+    /** The timestamp of this commit, in milliseconds since the epoch. */
+    private final long timestamp;
 
-    /** The snapshot of this commit - mapping file names to blob references. */
-    private final HashMap<String, String> snapshot;
+    /** The SHA1 of the root Tree of this commit's snapshot. */
+    private final String tree;
+
+    /** Directory holding the Trees and Blobs of this commit. */
+    private final File blobDir;
 
     /** The SHA1 of the main parent of this commit. */
     private final String mainParent;
 
     /** The SHA1 of the second parent of this commit, if it exists. Null otherwise */
-    private String secondParent;
+    private final String secondParent;
 
     /** True if this commit is the result of a merge, false otherwise. */
     private final boolean isMerged;
@@ -57,42 +86,143 @@ public class Commit implements Serializable {
         isMerged = false;
         message = "initial commit";
         mainParent = null;
-        snapshot = new HashMap<String, String>();
-        timestamp = new Date(0);
-        sha1 = Utils.sha1(timestamp.toString(), message);
+        secondParent = null;
+        tree = Tree.EMPTY;
+        blobDir = BLOB_DIR;
+        timestamp = 0;
+        sha1 = Utils.sha1(encode());
     }
 
     /** Constructor for non-merged, not initial commits.
      * @param message commit message
      * @param parent main parent's SHA1
-     * @param snapshot mapping of file names to blob references.
+     * @param tree SHA1 of the root Tree of the snapshot
      */
-    public Commit(String message, String parent, HashMap<String, String> snapshot) {
+    public Commit(String message, String parent, String tree) {
         isMerged = false;
         this.message = message;
         this.mainParent = parent;
-        this.snapshot = snapshot;
-        this.timestamp = new Date();
-        sha1 = Utils.sha1(timestamp.toString(), message, snapshot.toString(), parent);
+        this.secondParent = null;
+        this.tree = tree;
+        this.blobDir = BLOB_DIR;
+        this.timestamp = System.currentTimeMillis();
+        sha1 = Utils.sha1(encode());
     }
 
     /** Constructor for merged commits.
      * @param mergedBranch name of the branch being merged
      * @param mainParent main parent's SHA1
      * @param secondParent second parent's SHA1
-     * @param snapshot mapping of file names to blob references.
+     * @param tree SHA1 of the root Tree of the snapshot
      */
     public Commit(String mergedBranch, String mainParent, String secondParent,
-                  HashMap<String, String> snapshot) {
+                  String tree) {
         this.isMerged = true;
-        this.timestamp = new Date();
+        this.timestamp = System.currentTimeMillis();
         this.message = String.format("Merged %s into %s.",
                 mergedBranch, Branch.getCurrentBranchName());
         this.mainParent = mainParent;
         this.secondParent = secondParent;
-        this.snapshot = snapshot;
-        this.sha1 = Utils.sha1(timestamp.toString(), message,
-                snapshot.toString(), mainParent, secondParent);
+        this.tree = tree;
+        this.blobDir = BLOB_DIR;
+        this.sha1 = Utils.sha1(encode());
+    }
+
+    /** Constructor for commits decoded from their binary form. */
+    private Commit(String sha1, String message, long timestamp, String mainParent,
+                   String secondParent, String tree, File blobDir) {
+        this.sha1 = sha1;
+        this.message = message;
+        this.timestamp = timestamp;
+        this.mainParent = mainParent;
+        this.secondParent = secondParent;
+        this.isMerged = secondParent != null;
+        this.tree = tree;
+        this.blobDir = blobDir;
+    }
+
+    /** Returns the commit with the given message, timestamp in milliseconds since the epoch,
+     * parents (the second one null unless it is a merge) and root Tree. Used to convert the
+     * commits of older repositories (see Upgrade). */
+    static Commit of(String message, long timestamp, String mainParent, String secondParent,
+                     String tree) {
+        Commit commit = new Commit(null, message, timestamp, mainParent, secondParent, tree,
+                BLOB_DIR);
+        return new Commit(Utils.sha1(commit.encode()), message, timestamp, mainParent,
+                secondParent, tree, BLOB_DIR);
+    }
+
+    /** Returns the binary form of this commit, which is what gets hashed and stored:
+     *      a format version byte;
+     *      the number of parents, followed by their 20-byte SHA1s;
+     *      the timestamp, as 8 bytes;
+     *      the length of the UTF-8 message (as a varint), followed by the message;
+     *      the 20-byte SHA1 of the root Tree.
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + message.length());
+        out.write(FORMAT_VERSION);
+        int parents = mainParent == null ? 0 : (secondParent == null ? 1 : 2);
+        out.write(parents);
+        if (parents > 0) {
+            out.writeBytes(Utils.fromHex(mainParent));
+        }
+        if (parents > 1) {
+            out.writeBytes(Utils.fromHex(secondParent));
+        }
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (timestamp >>> shift));
+        }
+        writeString(out, message);
+        out.writeBytes(Utils.fromHex(tree));
+        return out.toByteArray();
+    }
+
+    /** Returns the commit with the given SHA1 whose binary form is [data]. */
+    public static Commit decode(String sha, byte[] data) {
+        return decode(sha, data, BLOB_DIR);
+    }
+
+    /** Returns the commit with the given SHA1 whose binary form is [data], and whose Trees
+     * are saved in [blobDir]. */
+    public static Commit decode(String sha, byte[] data, File blobDir) {
+        if (data.length == 0 || data[0] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("unknown commit format");
+        }
+        int[] pos = {1};
+        int parents = data[pos[0]++];
+        String main = null;
+        String second = null;
+        if (parents > 0) {
+            main = Utils.toHex(data, pos[0], ID_LENGTH);
+            pos[0] += ID_LENGTH;
+        }
+        if (parents > 1) {
+            second = Utils.toHex(data, pos[0], ID_LENGTH);
+            pos[0] += ID_LENGTH;
+        }
+        long time = 0;
+        for (int i = 0; i < 8; i++) {
+            time = (time << 8) | (data[pos[0]++] & 0xff);
+        }
+        String msg = readString(data, pos);
+        String root = Utils.toHex(data, pos[0], ID_LENGTH);
+        return new Commit(sha, msg, time, main, second, root, blobDir);
+    }
+
+    /** Writes the length of the UTF-8 form of [str] as a varint, then that form. */
+    private static void writeString(ByteArrayOutputStream out, String str) {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        Utils.writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    /** Reads a string written by writeString from [data] at pos[0], advancing pos[0]. */
+    private static String readString(byte[] data, int[] pos) {
+        int length = Utils.readVarint(data, pos);
+        String result = new String(data, pos[0], length, StandardCharsets.UTF_8);
+        pos[0] += length;
+        return result;
     }
 
     /** Saves this commit to the local commit directory. For non-remote commits. */
@@ -100,15 +230,20 @@ public class Commit implements Serializable {
         this.saveCommit(COMM_DIR);
     }
 
-    /** Saves this commit to given directory.
-     * The name of this saved file is the SHA1 of the commit. */
+    /** Saves this commit to given directory, and records it in the directory's indexes of
+     * SHA1s and of messages. The name of this saved file is the SHA1 of the commit. */
     public void saveCommit(File commDir) {
-        File commFile = Utils.join(commDir, sha1);
-        Utils.writeObject(commFile, this);
+        File commFile = LooseObject.fileFor(commDir, sha1);
+        if (!commFile.isFile()) {
+            LooseObject.write(commFile, Pack.COMMIT, encode());
+            IdIndex.add(commDir, sha1);
+            MessageIndex.add(commDir, List.of(sha1));
+        }
     }
 
     /** Creates new commit. By default, its snapshot of files is the same as its parent's.
-     * Files staged for addition and removal are the updates to the commit.
+     * Files staged for addition and removal are the updates to the commit. Only the Trees
+     * of the directories holding those files are written.
      *
      * @param currentCommit current commit
      * @param message Commit message
@@ -117,12 +252,13 @@ public class Commit implements Serializable {
      */
     public static Commit addStaged(Commit currentCommit, String message,
                                    TreeMap<String, String> added, TreeSet<String> removed) {
-        HashMap<String, String> newFiles = new HashMap<>(currentCommit.snapshot);
+        TreeMap<String, String> changes = new TreeMap<>();
         for (String fileName: removed) {
-            newFiles.remove(fileName);
+            changes.put(fileName, null);
         }
-        newFiles.putAll(added);
-        return new Commit(message, currentCommit.sha1, newFiles);
+        changes.putAll(added);
+        String root = Tree.update(currentCommit.tree, changes, BLOB_DIR);
+        return new Commit(message, currentCommit.sha1, root);
     }
 
     /** Returns the commit with the given SHA1. If no commit is found, prints an error message.
@@ -132,45 +268,115 @@ public class Commit implements Serializable {
     }
 
     /** Returns the commit from [commDir] with the given SHA1.
-     * If no commit is found, prints an error message. */
+     * Packed commits are looked up first, then loose ones.
+     * Abbreviated SHA1s are resolved by binary searches in the pack indexes and in the
+     * index of loose commits (see IdIndex).
+     * If no commit is found, or an abbreviated SHA1 matches several commits, prints an
+     * error message. */
     public static Commit getFromSHA(String sha, File commDir) {
+        File packDir = Pack.dirFor(commDir);
         // For abbreviated Commits
-        if (sha.length() < 40) {
-            List<String> commits = Utils.plainFilenamesIn(commDir);
-            for (String shaFromList: commits) {
-                if (shaFromList.startsWith(sha)) {
-                    sha = shaFromList;
-                    break;
-                }
+        if (sha.length() < Utils.UID_LENGTH) {
+            TreeSet<String> matches = new TreeSet<>(IdIndex.withPrefix(commDir, sha));
+            matches.addAll(Pack.withPrefix(packDir, Pack.COMMIT, sha));
+            if (matches.size() > 1) {
+                Utils.printAndExit("Commit id " + sha + " is ambiguous.");
+            }
+            if (matches.size() == 1) {
+                sha = matches.first();
             }
         }
+        Commit commit = load(sha, commDir);
+        if (commit == null) {
+            Utils.printAndExit("No commit with that id exists.");
+        }
+        return commit;
+    }
+
+    /** Returns the commit from [commDir] with the given full SHA1. Unlike getFromSHA, never
+     * exits, so that it can be called from other threads than the command's: throws a
+     * GitletException if the commit is missing or cannot be read. */
+    static Commit read(String sha, File commDir) {
+        Commit commit = load(sha, commDir);
+        if (commit == null) {
+            throw Utils.error("Missing commit %s.", sha);
+        }
+        return commit;
+    }
+
+    /** Returns the commit from [commDir] with the given full SHA1, from the cache of
+     * objects if it is there, or null if it is missing or cannot be read. */
+    private static Commit load(String sha, File commDir) {
+        ObjectCache objects = RepoContext.current().objects();
+        Commit commit = (Commit) objects.get(ObjectCache.COMMIT, commDir, sha);
+        if (commit != null) {
+            return commit;
+        }
+        byte[] data;
         try {
-            return Utils.readObject(Utils.join(commDir, sha), Commit.class);
+            data = Pack.find(Pack.dirFor(commDir), sha);
+            if (data == null) {
+                data = LooseObject.readAll(LooseObject.fileFor(commDir, sha));
+            }
+            commit = decode(sha, data, Utils.join(commDir.getParentFile(), "blobs"));
         } catch (IllegalArgumentException e) {
-            Utils.printAndExit("No commit with that id exists.");
             return null;
         }
+        // Decoded strings take about twice their UTF-8 length, and SHA1s four times.
+        objects.put(ObjectCache.COMMIT, commDir, sha, commit, 128 + 4L * data.length);
+        return commit;
     }
 
-    /** Copies every file tracked by this commit to the working directory,
-     * overwriting the versions of the files that are already there if they exist.
-     */
-    public void copyToCWD() {
-        for (Map.Entry<String, String> entry: snapshot.entrySet()) {
-            String name = entry.getKey();
-            String sha = entry.getValue();
-            Blob.getFromSHA(sha).writeContentsToFile(CWD, name);
-        }
+    /** Returns true if the commit with the given SHA1 is stored, packed or loose,
+     * in [commDir]. */
+    public static boolean exists(String sha, File commDir) {
+        return Pack.contains(Pack.dirFor(commDir), sha)
+                || LooseObject.fileFor(commDir, sha).isFile();
+    }
+
+    /** Returns the sorted SHA1s of all commits stored, packed or loose, in [commDir]. */
+    public static List<String> listAll(File commDir) {
+        TreeSet<String> all = new TreeSet<>(Pack.list(Pack.dirFor(commDir), Pack.COMMIT));
+        all.addAll(LooseObject.list(commDir));
+        return new ArrayList<>(all);
     }
 
-    /** Returns a set of files tracked by this commit. */
+    /** Returns a set of the paths of the files tracked by this commit. */
     public Set<String> getContents() {
-        return snapshot.keySet();
+        return getSnapshot().keySet();
     }
 
-    /** Returns the SHA1 of a given file in this commit. Null if file not in this commit. */
+    /** Returns the SHA1 of a given file in this commit. Null if file not in this commit.
+     * Unless the whole snapshot was already read, only the Trees on the file's path are. */
     public String getFileSHA(String fileName) {
-        return snapshot.get(fileName);
+        HashMap<String, String> files = cachedSnapshot();
+        if (files != null) {
+            return files.get(fileName);
+        }
+        return Tree.lookup(tree, fileName, blobDir);
+    }
+
+    /** Returns the SHA1 of the root Tree of this commit's snapshot. */
+    public String getTreeSHA() {
+        return tree;
+    }
+
+    /** Returns the files that differ between the snapshots of [from] and [to], by path,
+     * mapped to their Blob SHA1s in [from] and in [to] (null where absent). Directories
+     * whose Trees are the same in both commits are skipped without being read. */
+    public static TreeMap<String, String[]> changes(Commit from, Commit to) {
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        Tree.diff(from.tree, to.tree, to.blobDir, changes);
+        return changes;
+    }
+
+    /** Returns true if the file at [fileName] differs between the snapshots of this
+     * commit and of its main parent, the initial commit's parent having no files. Only the
+     * Trees on the file's path are read. For non-remote commits. */
+    public boolean changedFile(String fileName) {
+        Commit parent = getMainParent();
+        String parentFile = parent == null ? null : parent.getFileSHA(fileName);
+        return !Objects.equals(getFileSHA(fileName), parentFile);
     }
 
     /** Returns the main parent of this commit, or null for the initial commit.
@@ -188,94 +394,191 @@ public class Commit implements Serializable {
         return getFromSHA(mainParent, commDir);
     }
 
+    /** Returns the SHA1s of the parents of this commit: none for the initial commit,
+     * two for merge commits, one otherwise. */
+    public List<String> getParentSHAs() {
+        List<String> parents = new ArrayList<>();
+        if (mainParent != null) {
+            parents.add(mainParent);
+        }
+        if (secondParent != null) {
+            parents.add(secondParent);
+        }
+        return parents;
+    }
+
     /** Returns true if this commit's message is the same as the given string, false otherwise. */
     public boolean hasMessage(String givenMessage) {
         return message.equals(givenMessage);
     }
 
-    /** Starting at the given commit, prints details of each commit backwards along the commit
-     * tree until the initial commit, following the first parent commit links, ignoring any
-     * second parents found in merge commits. */
-    public void printLog() {
-        Commit current = this;
-        while (current.mainParent != null) {
-            System.out.println(current);
-            current = getFromSHA(current.mainParent);
-        }
-        System.out.print(current);
+    /** Returns the commits from this one back to the initial commit, following the first
+     * parent commit links and ignoring any second parents found in merge commits. Each
+     * commit is only read once the iterator reaches it. */
+    public Iterator<Commit> history() {
+        return new Iterator<>() {
+            private Commit next = Commit.this;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Commit next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Commit result = next;
+                next = result.getMainParent();
+                return result;
+            }
+        };
+    }
+
+    /** Returns the SHA1s of every commit stored, packed or loose, in [commDir]: those of
+     * each pack in the order of its index, then the loose ones. A commit stored twice is
+     * only returned once. Commits are not read, and each pack is only scanned once the
+     * previous one is done. CommitScanner.scan reads the commits in this order. */
+    static Iterator<String> iterateSHAs(File commDir) {
+        File packDir = Pack.dirFor(commDir);
+        Iterator<Pack> packs = Pack.packsIn(packDir).iterator();
+        return new Iterator<>() {
+            /** The pack being scanned, or null once the loose commits are reached. */
+            private Pack pack;
+            /** The next position to scan in that pack. */
+            private int pos;
+            /** The loose commits, once they are reached. */
+            private Iterator<String> loose;
+            /** The SHA1s returned so far, since a commit may be stored twice. */
+            private final HashSet<String> seen = new HashSet<>();
+            /** The SHA1 of the next commit, or null if it is not found yet. */
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    String sha = scan();
+                    if (sha == null) {
+                        return false;
+                    }
+                    if (seen.add(sha)) {
+                        next = sha;
+                    }
+                }
+                return true;
+            }
+
+            /** Returns the SHA1 of the next commit stored, or null if there are no more. */
+            private String scan() {
+                while (loose == null) {
+                    if (pack != null && pos < pack.size()) {
+                        int current = pos++;
+                        if (pack.typeAt(current) == Pack.COMMIT) {
+                            return pack.idAt(current);
+                        }
+                    } else if (packs.hasNext()) {
+                        pack = packs.next();
+                        pos = 0;
+                    } else {
+                        loose = LooseObject.list(commDir).iterator();
+                    }
+                }
+                return loose.hasNext() ? loose.next() : null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String sha = next;
+                next = null;
+                return sha;
+            }
+        };
     }
 
     /** Returns true if the [current] commit is the ancestor of the [other] commit. Can search
-     * for ancestors strictly among main parents or include merged parents. */
+     * for ancestors strictly among main parents or include merged parents. Commits that
+     * are not stored in this repository are no one's ancestors.
+     * The ancestry is read from the commit-graph (see CommitGraph), without reading any
+     * commit. */
     public static boolean isAncestor(Commit current, Commit other, boolean checkBothParents) {
-        if (current.mainParent == null || current.equals(other)) {
-            // The initial commit is an ancestor of all others;
-            // The [other] commit is either the original commit passed to this method or one of
-            // its ancestors. If it is equal to the [current] commit, then the [current] commit
-            // is indeed an ancestor of the [other] originally passed to this method.
-            return true;
-        } else if (other.mainParent == null || current.timestamp.after(other.timestamp)) {
-            // The initial commit has no ancestor;
-            // If a commit's timestamp is more recent than another's, it cannot be that commit's
-            // ancestor.
-            return false;
-        }
-        if (checkBothParents && other.isMerged) {
-            return isAncestor(current, other.getMainParent(), true)
-                    || isAncestor(current, getFromSHA(other.secondParent), true);
-        }
-        return isAncestor(current, other.getMainParent(), checkBothParents);
+        CommitGraph graph = CommitGraph.load();
+        int ancestor = graph.add(current.sha1);
+        int descendant = graph.add(other.sha1);
+        return ancestor != CommitGraph.NONE && descendant != CommitGraph.NONE
+                && graph.isAncestor(ancestor, descendant, !checkBothParents);
     }
 
-    /** Returns the split point, which is the latest common ancestor of the two given commits. */
+    /** Returns the split point, which is the latest common ancestor of the two given commits:
+     * the first commit along the main parents of the older one that is an ancestor of the
+     * newer one (see CommitGraph.splitPoint). */
     public static Commit getSplitPoint(Commit current, Commit merged) {
-        Commit older;
-        Commit newer;
-        if (current.timestamp.before(merged.timestamp)) {
-            older = current;
-            newer = merged;
-        } else {
-            older = merged;
-            newer = current;
-        }
-        if (isAncestor(older, newer, true)) {
-            return older;
-        }
-        // Move up the line of [older]'s parents until we find an ancestor of [newer].
-        while (older.mainParent != null) {
-            if (isAncestor(older, newer, true)) {
-                return older;
+        CommitGraph graph = CommitGraph.load();
+        int split = graph.splitPoint(graph.add(current.sha1), graph.add(merged.sha1));
+        return getFromSHA(graph.idAt(split));
+    }
+
+    /** Returns the message of this commit. */
+    String getMessage() {
+        return message;
+    }
+
+    /** Returns the timestamp of this commit, in milliseconds since the epoch. */
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    /** Returns the snapshot of this commit, mapping file paths to blob references. The
+     * snapshot is shared with every commit of the same root Tree (see ObjectCache), so it
+     * must not be modified. */
+    public HashMap<String, String> getSnapshot() {
+        HashMap<String, String> files = cachedSnapshot();
+        if (files == null) {
+            files = new HashMap<>();
+            Tree.flatten(tree, blobDir, files);
+            long weight = 64;
+            for (String path : files.keySet()) {
+                weight += 160 + 2L * path.length();
             }
-            older = getFromSHA(older.mainParent);
+            RepoContext.current().objects().put(ObjectCache.SNAPSHOT, blobDir, tree, files,
+                    weight);
         }
-        // By the end, older points to the initial commit;
-        // If no other ancestors are found, then this has to be the only common ancestor.
-        return older;
+        return files;
     }
 
-    public HashMap<String, String> getSnapshot() {
-        return snapshot;
+    /** Returns the snapshot of this commit if it is cached, or null. */
+    @SuppressWarnings("unchecked")
+    private HashMap<String, String> cachedSnapshot() {
+        return (HashMap<String, String>) RepoContext.current().objects()
+                .get(ObjectCache.SNAPSHOT, blobDir, tree);
     }
 
     @Override
     public String toString() {
-        String commit;
-        if (!isMerged) {
-            commit = String.format("===%n"
-                    + "commit %1$s%n"
-                    + "Date: %2$ta %2$tb %2$te %2$tH:%2$tM:%2$tS %2$tY %2$tz%n"
-                    + "%3$s%n",
-                    sha1, timestamp, message);
-        } else {
-            commit = String.format("===%n"
-                    + "commit %1$s%n"
-                    + "Merge: %4$s %5$s%n"
-                    + "Date: %2$ta %2$tb %2$te %2$tH:%2$tM:%2$tS %2$tY %2$tz%n"
-                    + "%3$s%n",
-                    sha1, timestamp, message, mainParent.substring(0, 7),
-                    secondParent.substring(0, 7));
+        StringBuilder result = new StringBuilder();
+        appendLog(result, false);
+        return result.toString();
+    }
+
+    /** Appends this commit to OUT as log prints it: with its id, parents, date and message,
+     * or, if [oneline] is true, only its abbreviated id and message on one line. */
+    void appendLog(StringBuilder out, boolean oneline) {
+        if (oneline) {
+            out.append(sha1, 0, 7).append(' ').append(message).append(NEWLINE);
+            return;
         }
-        return commit;
+        out.append("===").append(NEWLINE);
+        out.append("commit ").append(sha1).append(NEWLINE);
+        if (isMerged) {
+            out.append("Merge: ").append(mainParent, 0, 7).append(' ')
+                    .append(secondParent, 0, 7).append(NEWLINE);
+        }
+        out.append("Date: ");
+        LOG_DATE.formatTo(Instant.ofEpochMilli(timestamp).atZone(ZONE), out);
+        out.append(NEWLINE).append(message).append(NEWLINE);
     }
 
     @Override
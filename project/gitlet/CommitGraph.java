@@ -0,0 +1,382 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+
+/** The commit-graph: a file (.gitlet/commit-graph) that lists the ancestry of every
+ * commit by integer position, so that ancestry and split-point queries walk int arrays
+ * instead of decoding commits.
+ *
+ * File layout (all integers big-endian):
+ *      a header of HEADER_SIZE bytes: "GCGR" and the format version;
+ *      one record of RECORD_SIZE bytes per commit: its 20-byte SHA1, the positions of its
+ *      main and second parents (NONE where absent), its generation number and its
+ *      timestamp.
+ * Records are only ever appended, and a commit after its parents, so parents always come
+ * before their children: sweeping positions downwards reaches a commit only after all of
+ * its descendants. The generation number of a commit is one more than the largest of its
+ * parents' (1 for the initial commit), so a commit is only ever an ancestor of commits of
+ * larger generations, which prunes the sweeps.
+ *
+ * Commands append the commits they create or fetch (see add), holding a lock on the file
+ * while they do. A commit that a query needs but that is not listed yet is appended then,
+ * after its missing ancestors, which is how older repositories get their graph. A partial
+ * record left by an interrupted append is ignored, and overwritten by the next one.
+ * The graph is read once per process; a Server only reads the records appended since.
+ */
+class CommitGraph {
+
+    /** File that holds the graph. */
+    private static final File FILE = Paths.COMMIT_GRAPH;
+
+    /** Directory of the commits listed. */
+    private static final File COMM_DIR = Paths.COMM_DIR;
+
+    /** First bytes of the file. */
+    private static final byte[] MAGIC = {'G', 'C', 'G', 'R'};
+
+    /** Version of the layout above. */
+    private static final int VERSION = 1;
+
+    /** Size of the header. */
+    private static final int HEADER_SIZE = 8;
+
+    /** Length of a binary SHA1. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** Size of a record. */
+    private static final int RECORD_SIZE = ID_LENGTH + 3 * 4 + 8;
+
+    /** Position standing for no commit. */
+    static final int NONE = -1;
+
+    /** The graph of the current repository, once read by this process. */
+    private static CommitGraph current;
+
+    /** Number of commits listed. */
+    private int count;
+
+    /** Binary SHA1s of the commits, by position. */
+    private byte[] ids = new byte[64 * ID_LENGTH];
+
+    /** Positions of the main parents, by position. */
+    private int[] mainParents = new int[64];
+
+    /** Positions of the second parents, by position. */
+    private int[] secondParents = new int[64];
+
+    /** Generation numbers, by position. */
+    private int[] generations = new int[64];
+
+    /** Timestamps, by position. */
+    private long[] timestamps = new long[64];
+
+    /** Inode of the file read, or NONE if none was. */
+    private long inode = NONE;
+
+    /** Positions by SHA1, built when commits are appended, or null. */
+    private HashMap<String, Integer> positions;
+
+    /** Returns the graph of the current repository, with the records appended to the file
+     * since it was last read. */
+    static synchronized CommitGraph load() {
+        if (current == null) {
+            current = new CommitGraph();
+        }
+        current.refresh();
+        return current;
+    }
+
+    /** Reads the records appended to the file since it was last read, or all of them if it
+     * is not the file read before. */
+    private void refresh() {
+        StatCache.Entry stat = StatCache.stat(FILE);
+        if (stat == null || stat.inode != inode || stat.size < end()) {
+            clear();
+        }
+        if (stat == null) {
+            return;
+        }
+        inode = stat.inode;
+        if (stat.size > end()) {
+            try (FileChannel channel = FileChannel.open(FILE.toPath(), StandardOpenOption.READ)) {
+                catchUp(channel, false);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Forgets every record read. */
+    private void clear() {
+        count = 0;
+        positions = null;
+    }
+
+    /** Returns the length of the file up to the end of the records read. */
+    private long end() {
+        return HEADER_SIZE + (long) count * RECORD_SIZE;
+    }
+
+    /** Reads the complete records that [channel] holds past those read. A file whose
+     * header is not that of a graph holds none. If [repair] is true, a partial record
+     * or unknown file is truncated, so that new records can be appended. */
+    private void catchUp(FileChannel channel, boolean repair) throws IOException {
+        long size = channel.size();
+        if (size < end()) {
+            clear();
+        }
+        if (count == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            byte[] magic = new byte[MAGIC.length];
+            header.flip();
+            if (header.remaining() == HEADER_SIZE) {
+                header.get(magic);
+            }
+            if (!Arrays.equals(magic, MAGIC) || header.getInt() != VERSION) {
+                if (repair) {
+                    channel.truncate(0);
+                }
+                return;
+            }
+        }
+        int records = (int) ((size - end()) / RECORD_SIZE);
+        ByteBuffer data = ByteBuffer.allocate(records * RECORD_SIZE);
+        while (data.hasRemaining()) {
+            if (channel.read(data, end() + data.position()) < 0) {
+                throw new IOException("commit-graph shrank while being read");
+            }
+        }
+        data.flip();
+        byte[] id = new byte[ID_LENGTH];
+        for (int i = 0; i < records; i++) {
+            data.get(id);
+            int main = data.getInt();
+            int second = data.getInt();
+            int generation = data.getInt();
+            long timestamp = data.getLong();
+            // Parents come first: a record breaking that rule ends the usable graph.
+            if (main >= count || second >= count) {
+                if (repair) {
+                    channel.truncate(end());
+                }
+                return;
+            }
+            put(id, main, second, generation, timestamp);
+        }
+        if (repair && size > end()) {
+            channel.truncate(end());
+        }
+    }
+
+    /** Adds a record to the graph in memory, and returns its position. */
+    private int put(byte[] id, int main, int second, int generation, long timestamp) {
+        if (count == mainParents.length) {
+            int capacity = 2 * count;
+            ids = Arrays.copyOf(ids, capacity * ID_LENGTH);
+            mainParents = Arrays.copyOf(mainParents, capacity);
+            secondParents = Arrays.copyOf(secondParents, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+        }
+        System.arraycopy(id, 0, ids, count * ID_LENGTH, ID_LENGTH);
+        mainParents[count] = main;
+        secondParents[count] = second;
+        generations[count] = generation;
+        timestamps[count] = timestamp;
+        if (positions != null) {
+            positions.put(Utils.toHex(id, 0, ID_LENGTH), count);
+        }
+        count += 1;
+        return count - 1;
+    }
+
+    /** Returns the position of the commit with the given SHA1, or NONE if it is not listed.
+     * The most recent commits, which are the ones usually asked for, are looked at
+     * first. */
+    int positionOf(String sha) {
+        if (positions != null) {
+            return positions.getOrDefault(sha, NONE);
+        }
+        byte[] id = Utils.fromHex(sha);
+        for (int pos = count - 1; pos >= 0; pos--) {
+            if (Arrays.equals(ids, pos * ID_LENGTH, (pos + 1) * ID_LENGTH, id, 0, ID_LENGTH)) {
+                return pos;
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns the SHA1 of the commit at position [pos]. */
+    String idAt(int pos) {
+        return Utils.toHex(ids, pos * ID_LENGTH, ID_LENGTH);
+    }
+
+    /** Returns the position of the commit with the given SHA1, first appending it to the
+     * graph, after any of its ancestors that are not listed either, if it is not listed.
+     * Returns NONE if the repository does not store that commit. */
+    synchronized int add(String sha) {
+        int pos = positionOf(sha);
+        if (pos != NONE || !Commit.exists(sha, COMM_DIR)) {
+            return pos;
+        }
+        try (FileChannel channel = FileChannel.open(FILE.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Released when the channel is closed.
+            channel.lock();
+            // Another command may have appended records since the graph was read.
+            catchUp(channel, true);
+            pos = positionOf(sha);
+            if (pos == NONE) {
+                int first = count;
+                pos = append(sha);
+                write(channel, first);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        StatCache.Entry stat = StatCache.stat(FILE);
+        inode = stat == null ? NONE : stat.inode;
+        return pos;
+    }
+
+    /** Adds the commit with the given SHA1 to the graph in memory, after its ancestors that
+     * are not listed, and returns its position. */
+    private int append(String sha) {
+        if (positions == null) {
+            positions = new HashMap<>();
+            for (int pos = 0; pos < count; pos++) {
+                positions.put(idAt(pos), pos);
+            }
+        }
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(sha);
+        while (!pending.isEmpty()) {
+            String next = pending.peek();
+            if (positions.containsKey(next)) {
+                pending.pop();
+                continue;
+            }
+            Commit commit = Commit.getFromSHA(next, COMM_DIR);
+            List<String> parents = commit.getParentSHAs();
+            int[] parentPositions = {NONE, NONE};
+            int generation = 1;
+            boolean ready = true;
+            for (int i = 0; i < parents.size(); i++) {
+                Integer parent = positions.get(parents.get(i));
+                if (parent == null) {
+                    pending.push(parents.get(i));
+                    ready = false;
+                } else {
+                    parentPositions[i] = parent;
+                    generation = Math.max(generation, generations[parent] + 1);
+                }
+            }
+            if (ready) {
+                pending.pop();
+                put(Utils.fromHex(next), parentPositions[0], parentPositions[1], generation,
+                        commit.getTimestamp());
+            }
+        }
+        return positions.get(sha);
+    }
+
+    /** Writes the records from position [first] on at the end of the file of [channel],
+     * after the header if the file is empty. */
+    private void write(FileChannel channel, int first) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(HEADER_SIZE + (count - first) * RECORD_SIZE);
+        long offset = HEADER_SIZE + (long) first * RECORD_SIZE;
+        if (first == 0) {
+            data.put(MAGIC).putInt(VERSION);
+            offset = 0;
+        }
+        for (int pos = first; pos < count; pos++) {
+            data.put(ids, pos * ID_LENGTH, ID_LENGTH).putInt(mainParents[pos])
+                    .putInt(secondParents[pos]).putInt(generations[pos])
+                    .putLong(timestamps[pos]);
+        }
+        data.flip();
+        while (data.hasRemaining()) {
+            offset += channel.write(data, offset);
+        }
+    }
+
+    /** Returns true if the commit at position [ancestor] is the commit at [descendant] or
+     * one of its ancestors. Only main parents are followed if [firstParent] is true. */
+    boolean isAncestor(int ancestor, int descendant, boolean firstParent) {
+        int generation = generations[ancestor];
+        if (firstParent) {
+            for (int pos = descendant; pos != NONE && generations[pos] >= generation;
+                 pos = mainParents[pos]) {
+                if (pos == ancestor) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (ancestor > descendant) {
+            return false;
+        }
+        // Commits of a generation no larger than [ancestor]'s cannot lead to it.
+        boolean[] reached = new boolean[descendant - ancestor + 1];
+        reached[descendant - ancestor] = true;
+        for (int pos = descendant; pos > ancestor; pos--) {
+            if (reached[pos - ancestor] && generations[pos] > generation) {
+                reach(reached, ancestor, mainParents[pos]);
+                reach(reached, ancestor, secondParents[pos]);
+            }
+        }
+        return reached[0];
+    }
+
+    /** Marks the commit at [pos] in REACHED, which is indexed from position [base], unless
+     * it comes before [base]. */
+    private static void reach(boolean[] reached, int base, int pos) {
+        if (pos >= base) {
+            reached[pos - base] = true;
+        }
+    }
+
+    /** Returns the position of the split point of the commits at positions [current] and
+     * [merged]: the first commit along the main parents of the older of the two that is
+     * an ancestor of the other, following both parents. Falls back to the initial commit,
+     * where the main parents end. */
+    int splitPoint(int current, int merged) {
+        int older = merged;
+        int newer = current;
+        if (timestamps[current] < timestamps[merged]) {
+            older = current;
+            newer = merged;
+        }
+        // One downward sweep marks the ancestors of [newer] as the candidates, which have
+        // decreasing positions, are tried: a candidate is settled once every position past
+        // it was swept.
+        boolean[] reached = new boolean[newer + 1];
+        reached[newer] = true;
+        int swept = newer;
+        int candidate = older;
+        while (true) {
+            while (swept > candidate) {
+                if (reached[swept]) {
+                    reach(reached, 0, mainParents[swept]);
+                    reach(reached, 0, secondParents[swept]);
+                }
+                swept -= 1;
+            }
+            if (candidate <= newer && reached[candidate]
+                    || mainParents[candidate] == NONE) {
+                return candidate;
+            }
+            candidate = mainParents[candidate];
+        }
+    }
+}
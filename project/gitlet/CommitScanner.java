@@ -0,0 +1,129 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/** Reads many commits ahead of their consumer, in parallel, for the commands that visit
+ * every commit: global-log, and the rebuilds of the index of messages (see MessageIndex).
+ *
+ * The SHA1s to read are cut into batches, each decoded by one task of a shared pool with
+ * one thread per core. The tasks' results are queued in the order of their SHA1s and
+ * handed out from the head of the queue, so commits come out in the order they were
+ * asked for, whichever task finishes first. At most MAX_QUEUED_BATCHES batches per
+ * thread are queued at a time: a new batch only starts once the consumer took one, so
+ * memory stays flat however many commits there are. Batches start with one commit and
+ * double up to BATCH_SIZE, so a consumer that stops early, as log -n does, reads few
+ * commits it does not use.
+ */
+class CommitScanner implements Iterator<Commit> {
+
+    /** Largest number of commits decoded by one task. */
+    private static final int BATCH_SIZE = 64;
+
+    /** Number of batches per thread of the pool queued at most. */
+    private static final int MAX_QUEUED_BATCHES = 2;
+
+    /** Pool reading the commits. Its threads are daemons, so it never keeps Gitlet
+     * running. */
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    /** The SHA1s of the commits not handed to a task yet. */
+    private final Iterator<String> shas;
+
+    /** Directory of the commits. */
+    private final File commDir;
+
+    /** The batches being read, in order. */
+    private final ArrayDeque<Future<List<Commit>>> queued = new ArrayDeque<>();
+
+    /** The commits of the first batch read not handed out yet. */
+    private Iterator<Commit> ready = Collections.emptyIterator();
+
+    /** Size of the next batch. */
+    private int batchSize = 1;
+
+    /** Returns every commit stored, packed or loose, in [commDir], read ahead in
+     * parallel: those of each pack in the order of its index, then the loose ones (see
+     * Commit.iterateSHAs). */
+    static Iterator<Commit> scan(File commDir) {
+        return new CommitScanner(Commit.iterateSHAs(commDir), commDir);
+    }
+
+    /** Returns the commits of [commDir] with the SHA1s of SHAS, in the same order, read
+     * ahead in parallel. */
+    static Iterator<Commit> read(Iterator<String> shas, File commDir) {
+        return new CommitScanner(shas, commDir);
+    }
+
+    private CommitScanner(Iterator<String> shas, File commDir) {
+        this.shas = shas;
+        this.commDir = commDir;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!ready.hasNext()) {
+            fill();
+            if (queued.isEmpty()) {
+                return false;
+            }
+            ready = take(queued.removeFirst()).iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public Commit next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Commit result = ready.next();
+        fill();
+        return result;
+    }
+
+    /** Starts reading batches until the queue is full or every SHA1 is handed out. */
+    private void fill() {
+        int maxQueued = MAX_QUEUED_BATCHES * POOL.getParallelism();
+        while (queued.size() < maxQueued && shas.hasNext()) {
+            List<String> batch = new ArrayList<>(batchSize);
+            while (batch.size() < batchSize && shas.hasNext()) {
+                batch.add(shas.next());
+            }
+            batchSize = Math.min(2 * batchSize, BATCH_SIZE);
+            queued.addLast(POOL.submit(() -> {
+                List<Commit> commits = new ArrayList<>(batch.size());
+                for (String sha : batch) {
+                    commits.add(Commit.read(sha, commDir));
+                }
+                return commits;
+            }));
+        }
+    }
+
+    /** Waits for the commits of [batch]. The error of the task that read them, such as
+     * a missing commit, is thrown again here, on the consumer's thread: tasks never exit,
+     * since that would stop Gitlet, or a Server's command, from one of the pool's
+     * threads. */
+    private static List<Commit> take(Future<List<Commit>> batch) {
+        try {
+            return batch.get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException("interrupted while reading commits");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        }
+    }
+}
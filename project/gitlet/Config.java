@@ -0,0 +1,95 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+
+/** Tunable settings of a repository, kept as "key=value" lines in .gitlet/config.
+ * Settings that are not in the file keep their default values. */
+public class Config {
+
+    /** File that holds the settings. */
+    public static final File CONFIG = Paths.CONFIG;
+
+    /** Settings read by this process, or null if not read yet. */
+    private static Properties settings;
+
+    /** Stat data of the file when the settings were read, or null if it cannot tell
+     * whether the file changed since (see Server.settled). */
+    private static StatCache.Entry settingsStat;
+
+    /** Returns the settings of the repository, reading them on first use. */
+    private static synchronized Properties settings() {
+        if (settings == null) {
+            settings = new Properties();
+            StatCache.Entry stat = StatCache.stat(CONFIG);
+            settingsStat = stat != null && Server.settled(stat) ? stat : null;
+            if (CONFIG.isFile()) {
+                try (InputStream in = Files.newInputStream(CONFIG.toPath())) {
+                    settings.load(in);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return settings;
+    }
+
+    /** Drops the settings read by this process if the file may have changed since, so
+     * that they are read again on next use (see Server). */
+    static synchronized void forgetIfChanged() {
+        StatCache.Entry stat = StatCache.stat(CONFIG);
+        if (settingsStat == null || stat == null || !settingsStat.sameStat(stat)) {
+            settings = null;
+        }
+    }
+
+    /** Returns the value of the given setting, or [defaultValue] if it is not set. */
+    public static String get(String key, String defaultValue) {
+        return settings().getProperty(key, defaultValue);
+    }
+
+    /** Returns the value of the given numeric setting, or [defaultValue] if it is not set.
+     * Prints an error message if the value is not a number. */
+    public static long getLong(String key, long defaultValue) {
+        String value = settings().getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException excp) {
+            Utils.printAndExit("Invalid value for " + key + " in config.");
+            return defaultValue;
+        }
+    }
+
+    /** Returns the value of the given decimal setting, or [defaultValue] if it is not set.
+     * Prints an error message if the value is not a number. */
+    public static double getDouble(String key, double defaultValue) {
+        String value = settings().getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException excp) {
+            Utils.printAndExit("Invalid value for " + key + " in config.");
+            return defaultValue;
+        }
+    }
+
+    /** Sets the given setting and saves all settings. */
+    public static synchronized void set(String key, String value) {
+        settings().setProperty(key, value);
+        settingsStat = null;
+        try (OutputStream out = Files.newOutputStream(CONFIG.toPath())) {
+            settings.store(out, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
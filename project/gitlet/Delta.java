@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/** Computes and applies binary deltas between two versions of an object.
+ *
+ * A delta describes the target in terms of its base:
+ *      the length of the base and the length of the target (as varints);
+ *      a sequence of instructions, each either
+ *          a copy (a byte with its high bit set, followed by the offset and the length
+ *          of a range of the base, as varints), or
+ *          an insert (a byte from 1 to 127 giving a length, followed by that many literal
+ *          bytes of the target).
+ *
+ * Deltas are found by indexing fixed-size blocks of the base by a rolling hash, scanning
+ * the target for matching blocks and extending each match as far as possible.
+ */
+public class Delta {
+
+    /** Size of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 0x01000193;
+
+    /** Longest run of literal bytes held by one insert instruction. */
+    private static final int MAX_INSERT = 127;
+
+    /** Marks a copy instruction. */
+    private static final int COPY = 0x80;
+
+    /** Returns a delta that rebuilds [target] from [base]. */
+    public static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target.length / 4 + 16);
+        Utils.writeVarint(out, base.length);
+        Utils.writeVarint(out, target.length);
+
+        int[] table = indexBlocks(base);
+        int mask = table.length - 1;
+        int power = 1;
+        for (int k = 1; k < BLOCK; k++) {
+            power *= PRIME;
+        }
+
+        int insertStart = 0;
+        int i = 0;
+        int hash = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            int candidate = table.length == 0 ? 0 : table[hash & mask];
+            if (candidate > 0 && sameBlock(base, candidate - 1, target, i)) {
+                int baseStart = candidate - 1;
+                int targetStart = i;
+                // Extend the match backwards over bytes not yet emitted...
+                while (targetStart > insertStart && baseStart > 0
+                        && base[baseStart - 1] == target[targetStart - 1]) {
+                    baseStart -= 1;
+                    targetStart -= 1;
+                }
+                // ...and forwards as far as both agree.
+                int end = i + BLOCK;
+                int baseEnd = candidate - 1 + BLOCK;
+                while (end < target.length && baseEnd < base.length
+                        && base[baseEnd] == target[end]) {
+                    end += 1;
+                    baseEnd += 1;
+                }
+                writeInserts(out, target, insertStart, targetStart);
+                out.write(COPY);
+                Utils.writeVarint(out, baseStart);
+                Utils.writeVarint(out, end - targetStart);
+                i = end;
+                insertStart = end;
+                if (i + BLOCK <= target.length) {
+                    hash = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    hash = (hash - target[i] * power) * PRIME + target[i + BLOCK];
+                }
+                i += 1;
+            }
+        }
+        writeInserts(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the target rebuilt from [base] and the delta stored in [delta],
+     * starting at [offset]. */
+    public static byte[] apply(byte[] base, byte[] delta, int offset) {
+        int[] pos = {offset};
+        int baseLength = Utils.readVarint(delta, pos);
+        int targetLength = Utils.readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+        byte[] result = new byte[targetLength];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++] & 0xff;
+            if (op == COPY) {
+                int from = Utils.readVarint(delta, pos);
+                int length = Utils.readVarint(delta, pos);
+                System.arraycopy(base, from, result, written, length);
+                written += length;
+            } else {
+                System.arraycopy(delta, pos[0], result, written, op);
+                pos[0] += op;
+                written += op;
+            }
+        }
+        if (written != targetLength) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Returns an open-addressed table from block hashes to (1 + the offset of the block)
+     * in [base]. Earlier blocks win over later ones with the same hash. */
+    private static int[] indexBlocks(byte[] base) {
+        int blocks = base.length / BLOCK;
+        if (blocks == 0) {
+            return new int[0];
+        }
+        int size = Integer.highestOneBit(blocks * 2 - 1) << 1;
+        int[] table = new int[size];
+        for (int b = blocks - 1; b >= 0; b--) {
+            table[hash(base, b * BLOCK) & (size - 1)] = b * BLOCK + 1;
+        }
+        return table;
+    }
+
+    /** Returns the rolling hash of the BLOCK bytes of [data] starting at [start]. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k++) {
+            h = h * PRIME + data[start + k];
+        }
+        return h;
+    }
+
+    /** Returns true if the BLOCK bytes at [baseStart] and [targetStart] are equal. */
+    private static boolean sameBlock(byte[] base, int baseStart, byte[] target,
+                                     int targetStart) {
+        return Arrays.equals(base, baseStart, baseStart + BLOCK,
+                target, targetStart, targetStart + BLOCK);
+    }
+
+    /** Writes insert instructions for target[start:end]. */
+    private static void writeInserts(ByteArrayOutputStream out, byte[] target,
+                                     int start, int end) {
+        while (start < end) {
+            int length = Math.min(MAX_INSERT, end - start);
+            out.write(length);
+            out.write(target, start, length);
+            start += length;
+        }
+    }
+}
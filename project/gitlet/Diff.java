@@ -0,0 +1,355 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Line diffs: the edits that turn the lines of one file into those of another.
+ *
+ * Both files are split into lines, and each distinct line is numbered once through an
+ * open-addressing table, so the algorithms only ever compare ints. Lines are compared
+ * by their bytes, newline included, so a last line without one differs from the same
+ * line with one.
+ *
+ * Two algorithms find the edits, both after leaving out the lines that the files start
+ * and end with in common:
+ *      myers: Myers' O(ND) algorithm with the linear space refinement. The middle snake
+ *      of the shortest edit script is found by searching forward from the start and
+ *      backward from the end at once, and the halves before and after it are diffed in
+ *      turn, with two arrays of O(N + M) ints. Time is O((N + M) D), for D lines added
+ *      or removed, so files with few changes are diffed in near-linear time.
+ *      histogram: the common line that occurs the fewest times in the old file (and
+ *      then the longest run of common lines around it) splits both files, and the parts
+ *      before and after it are diffed in turn. Lines that are unique, like the headers of
+ *      functions, are matched first, so the edits follow the structure of the file
+ *      instead of matching blank lines and braces. Parts where every common line occurs
+ *      more than MAX_CHAIN times, or split more than MAX_DEPTH times, are left to myers.
+ */
+class Diff {
+
+    /** Largest number of occurrences of a line in the old file for histogram to split on
+     * it. */
+    private static final int MAX_CHAIN = 64;
+
+    /** Largest number of nested splits made by histogram. */
+    private static final int MAX_DEPTH = 64;
+
+    /** Lines [beginA, endA) of the old file replaced by lines [beginB, endB) of the new
+     * one. Either range may be empty, but not both. */
+    static class Edit {
+        final int beginA;
+        final int endA;
+        final int beginB;
+        final int endB;
+
+        Edit(int beginA, int endA, int beginB, int endB) {
+            this.beginA = beginA;
+            this.endA = endA;
+            this.beginB = beginB;
+            this.endB = endB;
+        }
+    }
+
+    /** The lines of a file. */
+    static class Lines {
+        /** The contents of the file. */
+        final byte[] content;
+
+        /** Offsets of the lines in CONTENT, and its length at the end. */
+        final int[] starts;
+
+        Lines(byte[] content) {
+            this.content = content;
+            int count = 0;
+            for (byte b : content) {
+                if (b == '\n') {
+                    count += 1;
+                }
+            }
+            if (content.length > 0 && content[content.length - 1] != '\n') {
+                count += 1;
+            }
+            starts = new int[count + 1];
+            int line = 1;
+            for (int i = 0; i < content.length && line < count; i++) {
+                if (content[i] == '\n') {
+                    starts[line++] = i + 1;
+                }
+            }
+            starts[count] = content.length;
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return starts.length - 1;
+        }
+
+        /** Returns true if line [i] ends with a newline. */
+        boolean endsWithNewline(int i) {
+            return starts[i + 1] > starts[i] && content[starts[i + 1] - 1] == '\n';
+        }
+
+        /** Returns true if line [i] is the same as line [j] of OTHER. */
+        boolean equals(int i, Lines other, int j) {
+            return Arrays.equals(content, starts[i], starts[i + 1],
+                    other.content, other.starts[j], other.starts[j + 1]);
+        }
+
+        /** Returns the hash of line [i]. */
+        int hash(int i) {
+            int hash = 1;
+            for (int k = starts[i]; k < starts[i + 1]; k++) {
+                hash = 31 * hash + content[k];
+            }
+            return hash;
+        }
+    }
+
+    /** Number of each line of the old file. */
+    private final int[] a;
+
+    /** Number of each line of the new file. */
+    private final int[] b;
+
+    /** Number of distinct lines of both files. */
+    private final int distinct;
+
+    /** The edits found so far, in order. */
+    private final List<Edit> edits = new ArrayList<>();
+
+    /** For histogram: the last occurrence of each line in the part of the old file being
+     * split, or -1; the occurrence before each occurrence; and the number of occurrences
+     * of each line. */
+    private int[] head;
+    private int[] next;
+    private int[] count;
+
+    /** Returns the edits from [from] to [to], found by histogram if [histogram] is true,
+     * and by myers otherwise. */
+    static List<Edit> diff(Lines from, Lines to, boolean histogram) {
+        Diff diff = new Diff(from, to);
+        if (histogram) {
+            diff.head = new int[diff.distinct];
+            Arrays.fill(diff.head, -1);
+            diff.next = new int[diff.a.length];
+            diff.count = new int[diff.distinct];
+            diff.histogram(0, diff.a.length, 0, diff.b.length, 0);
+        } else {
+            diff.myers(0, diff.a.length, 0, diff.b.length);
+        }
+        return diff.edits;
+    }
+
+    /** Numbers the lines of [from] and [to], equal lines getting the same number. */
+    private Diff(Lines from, Lines to) {
+        a = new int[from.size()];
+        b = new int[to.size()];
+        int capacity = Integer.highestOneBit(Math.max(2 * (a.length + b.length), 2)) << 1;
+        int[] slots = new int[capacity];
+        // Each number's first line, as its index in [from] or [to] offset by a.length,
+        // and its hash.
+        int[] firsts = new int[a.length + b.length];
+        int[] hashes = new int[a.length + b.length];
+        int numbered = 0;
+        for (int i = 0; i < a.length + b.length; i++) {
+            Lines lines = i < a.length ? from : to;
+            int line = i < a.length ? i : i - a.length;
+            int hash = lines.hash(line);
+            int slot = (hash ^ (hash >>> 16)) & (capacity - 1);
+            int number;
+            while (true) {
+                number = slots[slot] - 1;
+                if (number < 0) {
+                    number = numbered++;
+                    slots[slot] = number + 1;
+                    firsts[number] = i;
+                    hashes[number] = hash;
+                    break;
+                }
+                int first = firsts[number];
+                if (hashes[number] == hash && lines.equals(line,
+                        first < a.length ? from : to,
+                        first < a.length ? first : first - a.length)) {
+                    break;
+                }
+                slot = (slot + 1) & (capacity - 1);
+            }
+            if (i < a.length) {
+                a[line] = number;
+            } else {
+                b[line] = number;
+            }
+        }
+        distinct = numbered;
+    }
+
+    /** Records that lines [beginA, endA) of the old file are replaced by lines
+     * [beginB, endB) of the new one, merging it with the last edit if they touch. */
+    private void edit(int beginA, int endA, int beginB, int endB) {
+        if (beginA == endA && beginB == endB) {
+            return;
+        }
+        if (!edits.isEmpty()) {
+            Edit last = edits.get(edits.size() - 1);
+            if (last.endA == beginA && last.endB == beginB) {
+                edits.set(edits.size() - 1, new Edit(last.beginA, endA, last.beginB, endB));
+                return;
+            }
+        }
+        edits.add(new Edit(beginA, endA, beginB, endB));
+    }
+
+    /** Finds the edits from lines [aLo, aHi) of the old file to lines [bLo, bHi) of the
+     * new one with Myers' algorithm. */
+    private void myers(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            edit(aLo, aHi, bLo, bHi);
+            return;
+        }
+        int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+        myers(aLo, snake[0], bLo, snake[1]);
+        myers(snake[2], aHi, snake[3], bHi);
+    }
+
+    /** Returns the middle snake of a shortest edit script from lines [aLo, aHi) of the
+     * old file to lines [bLo, bHi) of the new one, which differ in their first and last
+     * lines: the lines where it starts in both files, then those where it ends. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int offset = max + 1;
+        // forward[offset + k]: furthest x reached on diagonal k = x - y from the start;
+        // backward[offset + k]: the same from the end, in reversed files.
+        int[] forward = new int[2 * max + 3];
+        int[] backward = new int[2 * max + 3];
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+                    x = forward[offset + k + 1];
+                } else {
+                    x = forward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                int reversed = delta - k;
+                if (odd && reversed >= -(d - 1) && reversed <= d - 1
+                        && x + backward[offset + reversed] >= n) {
+                    return new int[] {aLo + startX, bLo + startY, aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d
+                        || (k != d && backward[offset + k - 1] < backward[offset + k + 1])) {
+                    x = backward[offset + k + 1];
+                } else {
+                    x = backward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                int straight = delta - k;
+                if (!odd && straight >= -d && straight <= d
+                        && x + forward[offset + straight] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - startX, bHi - startY};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+
+    /** Finds the edits from lines [aLo, aHi) of the old file to lines [bLo, bHi) of the
+     * new one with the histogram algorithm, [depth] splits deep. */
+    private void histogram(int aLo, int aHi, int bLo, int bHi, int depth) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            edit(aLo, aHi, bLo, bHi);
+            return;
+        }
+        if (depth == MAX_DEPTH) {
+            myers(aLo, aHi, bLo, bHi);
+            return;
+        }
+        for (int i = aHi - 1; i >= aLo; i--) {
+            next[i] = head[a[i]];
+            head[a[i]] = i;
+            count[a[i]] += 1;
+        }
+        // The run of common lines to split on: [bestA, bestA + bestLength) in the old
+        // file, [bestB, bestB + bestLength) in the new one.
+        int bestCount = MAX_CHAIN;
+        int bestLength = 0;
+        int bestA = -1;
+        int bestB = -1;
+        for (int j = bLo; j < bHi; j++) {
+            int occurrences = count[b[j]];
+            if (occurrences == 0 || occurrences > bestCount) {
+                continue;
+            }
+            int reached = j;
+            for (int i = head[b[j]]; i >= 0; i = next[i]) {
+                int s = i;
+                int t = j;
+                while (s > aLo && t > bLo && a[s - 1] == b[t - 1]) {
+                    s -= 1;
+                    t -= 1;
+                }
+                int e = i + 1;
+                int f = j + 1;
+                while (e < aHi && f < bHi && a[e] == b[f]) {
+                    e += 1;
+                    f += 1;
+                }
+                if (occurrences < bestCount || e - s > bestLength) {
+                    bestCount = occurrences;
+                    bestLength = e - s;
+                    bestA = s;
+                    bestB = t;
+                }
+                reached = Math.max(reached, f - 1);
+            }
+            // The lines of the new file up to the end of the runs found are in them.
+            j = reached;
+        }
+        for (int i = aLo; i < aHi; i++) {
+            head[a[i]] = -1;
+            count[a[i]] = 0;
+        }
+        if (bestA < 0) {
+            myers(aLo, aHi, bLo, bHi);
+            return;
+        }
+        histogram(aLo, bestA, bLo, bestB, depth + 1);
+        histogram(bestA + bestLength, aHi, bestB + bestLength, bHi, depth + 1);
+    }
+}
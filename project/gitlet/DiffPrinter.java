@@ -0,0 +1,278 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Prints the changes listed by diff, file by file, as a unified diff or as a summary.
+ * Files are given with the SHA1s of their old and new contents, so the files whose
+ * contents did not change are left out without being read (see Commit.changes), and
+ * only the files printed are read, one pair at a time. Output goes through one large
+ * buffer, flushed at the end; lines are printed as their bytes, whatever their encoding.
+ *
+ * Options:
+ *      --stat: instead of the changes, print the number of lines added and removed in
+ *      each file, with a bar of +s and -s, and the totals;
+ *      --histogram: find the changes with the histogram algorithm instead of Myers'
+ *      (see Diff);
+ *      -- [path], after every other option: only print the changes to that file, or to
+ *      the files under that directory.
+ * Files whose first BINARY_CHECK bytes hold a NUL byte are binary: only the fact that
+ * they differ is printed.
+ */
+class DiffPrinter {
+
+    /** Size of the output buffer, in bytes. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Number of unchanged lines printed around each change. */
+    private static final int CONTEXT = 3;
+
+    /** Number of leading bytes searched for a NUL byte. */
+    private static final int BINARY_CHECK = 8000;
+
+    /** Largest width of the bars printed by --stat. */
+    private static final int STAT_WIDTH = 50;
+
+    /** The commit ids given, none, one or two. */
+    private final List<String> commitIds = new ArrayList<>();
+
+    /** True if a summary is printed instead of the changes. */
+    private boolean stat;
+
+    /** True if the changes are found by the histogram algorithm. */
+    private boolean histogram;
+
+    /** Path of the file or directory whose changes are printed, or null to print every
+     * change. The empty string names the whole working directory. */
+    private String path;
+
+    /** Returns the options and commit ids of diff given by ARGS, from the second one on,
+     * or null if they are not valid. */
+    static DiffPrinter parse(String[] args) {
+        DiffPrinter printer = new DiffPrinter();
+        for (int i = 1; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--stat")) {
+                printer.stat = true;
+            } else if (option.equals("--histogram")) {
+                printer.histogram = true;
+            } else if (option.equals("--")) {
+                if (i + 2 != args.length) {
+                    return null;
+                }
+                printer.path = Utils.relativePath(Paths.CWD, args[i + 1]);
+                return printer.path == null ? null : printer;
+            } else if (option.startsWith("-") || printer.commitIds.size() == 2) {
+                return null;
+            } else {
+                printer.commitIds.add(option);
+            }
+        }
+        return printer;
+    }
+
+    /** Returns the commit ids given, none, one or two. */
+    List<String> commitIds() {
+        return commitIds;
+    }
+
+    /** Returns true if the changes to the file at [fileName] are printed. */
+    boolean includes(String fileName) {
+        return path == null || path.isEmpty() || fileName.equals(path)
+                || fileName.startsWith(path + "/");
+    }
+
+    /** Prints CHANGES: the files that differ, by path in sorted order, mapped to the
+     * SHA1s of their old and new contents (null where absent). Old contents are read from
+     * the repository's Blobs, and new ones too unless [working] is true, in which case
+     * they are read from the working files. */
+    void print(TreeMap<String, String[]> changes, boolean working) {
+        OutputStream out = new BufferedOutputStream(System.out, BUFFER_SIZE);
+        List<String> names = new ArrayList<>();
+        List<int[]> counts = new ArrayList<>();
+        try {
+            for (Map.Entry<String, String[]> change : changes.entrySet()) {
+                String fileName = change.getKey();
+                if (!includes(fileName)) {
+                    continue;
+                }
+                String[] shas = change.getValue();
+                byte[] from = shas[0] == null ? new byte[0]
+                        : Blob.getFromSHA(shas[0]).readContents();
+                byte[] to = shas[1] == null ? new byte[0]
+                        : working ? Files.readAllBytes(Utils.join(Paths.CWD, fileName).toPath())
+                        : Blob.getFromSHA(shas[1]).readContents();
+                if (isBinary(from) || isBinary(to)) {
+                    names.add(fileName);
+                    counts.add(new int[] {-1, from.length, to.length});
+                    if (!stat) {
+                        write(out, "diff --git a/" + fileName + " b/" + fileName + "\n"
+                                + "Binary files " + label("a/", fileName, shas[0]) + " and "
+                                + label("b/", fileName, shas[1]) + " differ\n");
+                    }
+                    continue;
+                }
+                Diff.Lines oldLines = new Diff.Lines(from);
+                Diff.Lines newLines = new Diff.Lines(to);
+                List<Diff.Edit> edits = Diff.diff(oldLines, newLines, histogram);
+                if (stat) {
+                    int added = 0;
+                    int removed = 0;
+                    for (Diff.Edit edit : edits) {
+                        added += edit.endB - edit.beginB;
+                        removed += edit.endA - edit.beginA;
+                    }
+                    names.add(fileName);
+                    counts.add(new int[] {added, removed});
+                } else {
+                    write(out, "diff --git a/" + fileName + " b/" + fileName + "\n"
+                            + "--- " + label("a/", fileName, shas[0]) + "\n"
+                            + "+++ " + label("b/", fileName, shas[1]) + "\n");
+                    printHunks(out, oldLines, newLines, edits);
+                }
+            }
+            if (stat && !names.isEmpty()) {
+                printStat(out, names, counts);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true if [contents] hold a NUL byte in their first BINARY_CHECK bytes. */
+    private static boolean isBinary(byte[] contents) {
+        for (int i = 0; i < Math.min(contents.length, BINARY_CHECK); i++) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the name of the file at [fileName] in the headers of a diff, with [prefix],
+     * or /dev/null if it does not exist there, which is when [sha] is null. */
+    private static String label(String prefix, String fileName, String sha) {
+        return sha == null ? "/dev/null" : prefix + fileName;
+    }
+
+    /** Prints EDITS from [from] to [to] as hunks, each made of the edits that are no more
+     * than 2 * CONTEXT lines apart, with CONTEXT lines around them. */
+    private static void printHunks(OutputStream out, Diff.Lines from, Diff.Lines to,
+                                   List<Diff.Edit> edits) throws IOException {
+        int first = 0;
+        while (first < edits.size()) {
+            int last = first;
+            while (last + 1 < edits.size()
+                    && edits.get(last + 1).beginA - edits.get(last).endA <= 2 * CONTEXT) {
+                last += 1;
+            }
+            Diff.Edit begin = edits.get(first);
+            Diff.Edit end = edits.get(last);
+            int beginA = Math.max(begin.beginA - CONTEXT, 0);
+            int beginB = begin.beginB - (begin.beginA - beginA);
+            int endA = Math.min(end.endA + CONTEXT, from.size());
+            int endB = end.endB + (endA - end.endA);
+            write(out, "@@ -" + range(beginA, endA) + " +" + range(beginB, endB) + " @@\n");
+            int a = beginA;
+            for (int i = first; i <= last; i++) {
+                Diff.Edit edit = edits.get(i);
+                for (; a < edit.beginA; a++) {
+                    printLine(out, ' ', from, a);
+                }
+                for (int k = edit.beginA; k < edit.endA; k++) {
+                    printLine(out, '-', from, k);
+                }
+                for (int k = edit.beginB; k < edit.endB; k++) {
+                    printLine(out, '+', to, k);
+                }
+                a = edit.endA;
+            }
+            for (; a < endA; a++) {
+                printLine(out, ' ', from, a);
+            }
+            first = last + 1;
+        }
+    }
+
+    /** Returns the range of lines [begin, end) as written in a hunk header: its first line
+     * counting from 1 (or the line before it if it is empty) and, unless it is 1, its
+     * length. */
+    private static String range(int begin, int end) {
+        if (end - begin == 1) {
+            return Integer.toString(begin + 1);
+        }
+        return (end == begin ? begin : begin + 1) + "," + (end - begin);
+    }
+
+    /** Prints line [i] of LINES after [marker], noting if it has no newline. */
+    private static void printLine(OutputStream out, char marker, Diff.Lines lines, int i)
+            throws IOException {
+        out.write(marker);
+        out.write(lines.content, lines.starts[i], lines.starts[i + 1] - lines.starts[i]);
+        if (!lines.endsWithNewline(i)) {
+            write(out, "\n\\ No newline at end of file\n");
+        }
+    }
+
+    /** Prints the summary of --stat: a line per file, then the totals. COUNTS hold the
+     * lines added and removed in each of the files NAMES, or -1 and their old and new
+     * sizes for binary files. */
+    private static void printStat(OutputStream out, List<String> names, List<int[]> counts)
+            throws IOException {
+        int nameWidth = 0;
+        int largest = 0;
+        int added = 0;
+        int removed = 0;
+        for (int i = 0; i < names.size(); i++) {
+            nameWidth = Math.max(nameWidth, names.get(i).length());
+            int[] count = counts.get(i);
+            if (count[0] >= 0) {
+                largest = Math.max(largest, count[0] + count[1]);
+                added += count[0];
+                removed += count[1];
+            }
+        }
+        int countWidth = Integer.toString(largest).length();
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < names.size(); i++) {
+            int[] count = counts.get(i);
+            line.setLength(0);
+            line.append(' ').append(names.get(i));
+            line.append(" ".repeat(nameWidth - names.get(i).length())).append(" | ");
+            if (count[0] < 0) {
+                line.append("Bin ").append(count[1]).append(" -> ").append(count[2])
+                        .append(" bytes");
+            } else {
+                String total = Integer.toString(count[0] + count[1]);
+                line.append(" ".repeat(countWidth - total.length())).append(total).append(' ');
+                int plus = count[0];
+                int minus = count[1];
+                if (largest > STAT_WIDTH) {
+                    // Scaled so that the largest change fills the width, and no change
+                    // disappears.
+                    plus = plus == 0 ? 0 : Math.max(1, (int) ((long) plus * STAT_WIDTH / largest));
+                    minus = minus == 0 ? 0
+                            : Math.max(1, (int) ((long) minus * STAT_WIDTH / largest));
+                }
+                line.append("+".repeat(plus)).append("-".repeat(minus));
+            }
+            write(out, line.append('\n').toString());
+        }
+        write(out, " " + names.size() + (names.size() == 1 ? " file" : " files") + " changed, "
+                + added + (added == 1 ? " insertion(+), " : " insertions(+), ")
+                + removed + (removed == 1 ? " deletion(-)\n" : " deletions(-)\n"));
+    }
+
+    /** Writes [text] to OUT in UTF-8. */
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
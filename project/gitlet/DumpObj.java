@@ -25,6 +25,10 @@ import java.io.File;
  *
  *  As illustrated, your dump method should print useful information from
  *  objects of your class.
+ *
+ *  This does not apply to the objects inside .gitlet: Commits and Blobs
+ *  are no longer serialized, but stored in Gitlet's own binary formats
+ *  (see Commit.encode and LooseObject).
  *  @author P. N. Hilfinger
  */
 public class DumpObj {
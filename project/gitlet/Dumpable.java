@@ -2,7 +2,8 @@ package gitlet;
 
 import java.io.Serializable;
 
-/** An interface describing dumpable objects.
+/** An interface describing dumpable objects. The Commits and Blobs of
+ *  .gitlet are not serialized, and do not implement it (see DumpObj).
  *  @author P. N. Hilfinger
  */
 interface Dumpable extends Serializable {
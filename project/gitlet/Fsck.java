@@ -0,0 +1,284 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Verifies the integrity of the object store.
+ *
+ * Every loose, staged and packed object is checked by its own task on a work-stealing pool:
+ * its contents are re-hashed (with one MessageDigest per thread) and compared with its
+ * SHA1, and commits, trees and chunk lists are decoded to record the objects they refer to.
+ * The trailing SHA1 of every pack is checked as well. Once every task is done, the
+ * referenced objects are compared with the stored ones to find missing objects, and
+ * objects that nothing refers to (dangling objects).
+ */
+public class Fsck {
+
+    /** Directory of the repository's loose Blobs. */
+    private static final File BLOB_DIR = Paths.BLOB_DIR;
+
+    /** Directory of the repository's loose Commits. */
+    private static final File COMM_DIR = Paths.COMM_DIR;
+
+    /** Directory of the repository's staged Blobs. */
+    private static final File STAGE_DIR = Paths.STAGE_DIR;
+
+    /** Directory of the repository's packs. */
+    private static final File PACK_DIR = Paths.PACK_DIR;
+
+    /** SHA1 digest of each thread. */
+    private static final ThreadLocal<MessageDigest> DIGEST =
+            ThreadLocal.withInitial(LooseObject::newDigest);
+
+    /** Copy buffer of each thread. */
+    private static final ThreadLocal<byte[]> BUFFER =
+            ThreadLocal.withInitial(() -> new byte[LooseObject.BUFFER_SIZE]);
+
+    /** The outcome of a check. Problems are described as "[kind] [name]". */
+    static class Result {
+        /** Objects whose contents do not match their SHA1, or cannot be read. */
+        final Set<String> corrupt = new TreeSet<>();
+        /** Objects referred to but not stored. */
+        final Set<String> missing = new TreeSet<>();
+        /** Objects stored but not referred to. */
+        final Set<String> dangling = new TreeSet<>();
+        /** Number of objects checked. */
+        long objects;
+        /** Number of bytes hashed. */
+        long bytes;
+        /** Time taken, in milliseconds. */
+        long millis;
+    }
+
+    /** Types of the stored objects, by SHA1. */
+    private final Map<String, Byte> stored = new ConcurrentHashMap<>();
+
+    /** Types of the referenced objects, by SHA1. */
+    private final Map<String, Byte> referenced = new ConcurrentHashMap<>();
+
+    /** Corrupt objects found so far. */
+    private final Set<String> corrupt = ConcurrentHashMap.newKeySet();
+
+    /** Number of objects checked and bytes hashed so far. */
+    private final AtomicLong objects = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /** Checks the object store of the current repository. */
+    static Result check() {
+        long start = System.nanoTime();
+        Fsck fsck = new Fsck();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (File dir : new File[] {COMM_DIR, BLOB_DIR, STAGE_DIR}) {
+            for (String sha : LooseObject.list(dir)) {
+                tasks.add(() -> {
+                    fsck.checkLoose(dir, sha);
+                    return null;
+                });
+            }
+        }
+        for (Pack pack : Pack.packsIn(PACK_DIR)) {
+            tasks.add(() -> {
+                fsck.checkTrailer(pack);
+                return null;
+            });
+            for (int i = 0; i < pack.size(); i++) {
+                int pos = i;
+                tasks.add(() -> {
+                    fsck.checkPacked(pack, pos);
+                    return null;
+                });
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invokeAll(tasks);
+        } finally {
+            pool.shutdown();
+        }
+        for (String head : Branch.getAllHeadSHAs()) {
+            fsck.referenced.put(head, Pack.COMMIT);
+        }
+        for (String staged : Staging.getStagedIndex().values()) {
+            fsck.referenced.put(staged, Pack.BLOB);
+            List<Blob.Chunk> chunks = Blob.getFromSHA(staged, STAGE_DIR).chunks();
+            if (chunks != null) {
+                for (Blob.Chunk chunk : chunks) {
+                    fsck.referenced.put(chunk.sha, Pack.CHUNK);
+                }
+            }
+        }
+        return fsck.result(start);
+    }
+
+    /** Returns the outcome of the checks, which started at the given System.nanoTime. */
+    private Result result(long start) {
+        Result result = new Result();
+        result.corrupt.addAll(corrupt);
+        for (Map.Entry<String, Byte> ref : referenced.entrySet()) {
+            if (!stored.containsKey(ref.getKey())) {
+                result.missing.add(kind(ref.getValue()) + " " + ref.getKey());
+            }
+        }
+        for (Map.Entry<String, Byte> obj : stored.entrySet()) {
+            if (!referenced.containsKey(obj.getKey())) {
+                result.dangling.add(kind(obj.getValue()) + " " + obj.getKey());
+            }
+        }
+        result.objects = objects.get();
+        result.bytes = bytes.get();
+        result.millis = (System.nanoTime() - start) / 1_000_000;
+        return result;
+    }
+
+    /** Returns the name of the kind of objects of the given type. */
+    private static String kind(byte type) {
+        switch (type) {
+            case Pack.COMMIT:
+                return "commit";
+            case Pack.TREE:
+                return "tree";
+            case Pack.CHUNK:
+                return "chunk";
+            default:
+                return "blob";
+        }
+    }
+
+    /** Checks the loose object with the given SHA1 inside [dir]. */
+    private void checkLoose(File dir, String sha) {
+        File file = LooseObject.fileFor(dir, sha);
+        try {
+            byte type = LooseObject.typeOf(file);
+            stored.put(sha, type);
+            if (type == Pack.COMMIT || type == Pack.TREE || type == Pack.CHUNK_LIST) {
+                checkContents(sha, type, LooseObject.readAll(file));
+            } else {
+                try (InputStream in = LooseObject.open(file)) {
+                    MessageDigest md = digest();
+                    update(md, in);
+                    finish(sha, type, md);
+                }
+            }
+        } catch (IOException | RuntimeException excp) {
+            corrupt.add("object " + sha);
+        }
+    }
+
+    /** Checks the object at position [pos] of the given pack. */
+    private void checkPacked(Pack pack, int pos) {
+        String sha = pack.idAt(pos);
+        try {
+            byte type = pack.typeAt(pos);
+            stored.put(sha, type);
+            if (type == Pack.COMMIT || type == Pack.TREE || type == Pack.CHUNK_LIST) {
+                checkContents(sha, type, pack.load(pos));
+            } else {
+                ByteBuffer contents = pack.buffer(pos);
+                MessageDigest md = digest();
+                bytes.addAndGet(contents.remaining());
+                md.update(contents);
+                finish(sha, type, md);
+            }
+        } catch (IOException | RuntimeException excp) {
+            corrupt.add("object " + sha);
+        }
+    }
+
+    /** Checks the contents of a commit, a tree or a chunk list, and records the objects it
+     * refers to. */
+    private void checkContents(String sha, byte type, byte[] contents) throws IOException {
+        if (type == Pack.COMMIT || type == Pack.TREE) {
+            if (type == Pack.COMMIT) {
+                Commit commit = Commit.decode(sha, contents);
+                for (String parent : commit.getParentSHAs()) {
+                    referenced.put(parent, Pack.COMMIT);
+                }
+                // The empty tree is never stored.
+                if (!commit.getTreeSHA().equals(Tree.EMPTY)) {
+                    referenced.put(commit.getTreeSHA(), Pack.TREE);
+                }
+            } else {
+                for (Tree.Entry entry : Tree.decode(contents).entries().values()) {
+                    if (entry.isTree) {
+                        referenced.put(entry.sha, Pack.TREE);
+                    } else {
+                        referenced.putIfAbsent(entry.sha, Pack.BLOB);
+                    }
+                }
+            }
+            MessageDigest md = digest();
+            bytes.addAndGet(contents.length);
+            md.update(contents);
+            finish(sha, type, md);
+            return;
+        }
+        // A chunk list is named by the SHA1 of the chunks it lists, put together.
+        MessageDigest md = digest();
+        boolean complete = true;
+        for (Blob.Chunk chunk : Blob.decodeChunks(contents)) {
+            referenced.put(chunk.sha, Pack.CHUNK);
+            if (complete && Blob.exists(chunk.sha, BLOB_DIR)) {
+                try (InputStream in = Blob.getFromSHA(chunk.sha).openStream()) {
+                    update(md, in);
+                }
+            } else {
+                complete = false;
+            }
+        }
+        if (complete) {
+            finish(sha, type, md);
+        } else {
+            objects.incrementAndGet();
+        }
+    }
+
+    /** Returns the digest of this thread, reset, since an earlier check may have failed
+     * halfway. */
+    private static MessageDigest digest() {
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        return md;
+    }
+
+    /** Feeds everything read from [in] to [md]. */
+    private void update(MessageDigest md, InputStream in) throws IOException {
+        byte[] buffer = BUFFER.get();
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            md.update(buffer, 0, read);
+            bytes.addAndGet(read);
+        }
+    }
+
+    /** Compares the digest [md] with [sha], recording the object as corrupt if they
+     * differ. */
+    private void finish(String sha, byte type, MessageDigest md) {
+        objects.incrementAndGet();
+        if (!Utils.toHex(md.digest(), 0, Utils.UID_LENGTH / 2).equals(sha)) {
+            corrupt.add(kind(type) + " " + sha);
+        }
+    }
+
+    /** Checks the trailing SHA1 of the given pack. */
+    private void checkTrailer(Pack pack) {
+        try {
+            if (!pack.checksumMatches(digest())) {
+                corrupt.add("pack " + pack.name());
+            }
+        } catch (RuntimeException excp) {
+            corrupt.add("pack " + pack.name());
+        }
+    }
+}
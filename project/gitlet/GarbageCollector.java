@@ -0,0 +1,239 @@
+package gitlet;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Deletes the objects of the repository that are no longer reachable, in three phases:
+ *
+ *      mark: every commit reachable from some branch (remote-tracking branches included)
+ *      is visited, along with its Trees, its Blobs and their chunks. Trees shared between
+ *      commits are only visited once. Staged Blobs count as reachable
+ *      too. Commits are visited in parallel: each commit queues its parents as soon as it
+ *      is decoded, then marks its Trees and Blobs while they are being visited.
+ *
+ *      sweep: unreachable loose objects are deleted once they are older than the grace
+ *      period, which leaves time to commit recently saved objects. Unreachable packed
+ *      objects are dropped, unless their pack is younger than the grace period, in which
+ *      case they are written back as loose objects dated like the pack.
+ *
+ *      repack: the reachable objects are moved into a single new pack (see Pack.repack),
+ *      and the index of commit messages is rebuilt without the deleted commits (see
+ *      MessageIndex).
+ */
+public class GarbageCollector {
+
+    /** Directory of the repository's loose Blobs. */
+    private static final File BLOB_DIR = Paths.BLOB_DIR;
+
+    /** Directory of the repository's loose Commits. */
+    private static final File COMM_DIR = Paths.COMM_DIR;
+
+    /** Directory of the repository's packs. */
+    private static final File PACK_DIR = Paths.PACK_DIR;
+
+    /** The outcome of a collection. */
+    static class Result {
+        /** Number of reachable objects. */
+        int reachable;
+        /** Number of objects deleted. */
+        int reclaimedObjects;
+        /** Total size of the objects deleted, as they were stored, in bytes. */
+        long reclaimedBytes;
+        /** Number of objects packed, and the number stored as deltas. */
+        int packed;
+        int deltas;
+        /** Time taken by each phase, in milliseconds. */
+        long markMillis;
+        long sweepMillis;
+        long repackMillis;
+    }
+
+    /** Collects the garbage of the current repository, sweeping unreachable objects that
+     * are at least [graceMillis] old. */
+    static Result collect(long graceMillis) {
+        Result result = new Result();
+
+        long start = System.nanoTime();
+        Set<String> reachable = mark();
+        result.reachable = reachable.size();
+        result.markMillis = millisSince(start);
+
+        start = System.nanoTime();
+        long cutoff = System.currentTimeMillis() - graceMillis;
+        sweepLoose(BLOB_DIR, reachable, cutoff, result);
+        sweepLoose(COMM_DIR, reachable, cutoff, result);
+        sweepPacked(reachable, cutoff, result);
+        result.sweepMillis = millisSince(start);
+
+        start = System.nanoTime();
+        int[] packed = Pack.repack(Paths.GITLET_DIR, true, reachable);
+        result.packed = packed[0];
+        result.deltas = packed[1];
+        result.repackMillis = millisSince(start);
+        MessageIndex.rebuild(COMM_DIR);
+        return result;
+    }
+
+    /** Returns the SHA1s of all reachable objects. */
+    private static Set<String> mark() {
+        Marker marker = new Marker();
+        for (String head : Branch.getAllHeadSHAs()) {
+            marker.commit(head);
+        }
+        for (String staged : Staging.getStagedIndex().values()) {
+            marker.blob(staged, Paths.STAGE_DIR);
+        }
+        marker.await();
+        return marker.marked;
+    }
+
+    /** Marks the objects reachable from a set of commits, using a work-stealing pool. */
+    private static class Marker {
+        /** The objects marked so far. */
+        private final Set<String> marked = ConcurrentHashMap.newKeySet();
+
+        /** The pool running the visits. */
+        private final ForkJoinPool pool = new ForkJoinPool();
+
+        /** Number of visits queued or running. */
+        private final AtomicInteger pending = new AtomicInteger();
+
+        /** The first error thrown by a visit, if any. */
+        private volatile RuntimeException failure;
+
+        /** Marks the commit with the given SHA1, and queues a visit of it if it was not
+         * marked yet. */
+        void commit(String sha) {
+            if (marked.add(sha)) {
+                submit(() -> visitCommit(sha));
+            }
+        }
+
+        /** Marks the given commit's parents, then its Trees and Blobs. Runs on the pool, so
+         * a missing commit is thrown as a failure (see submit) instead of exiting. */
+        private void visitCommit(String sha) {
+            Commit commit = Commit.read(sha, COMM_DIR);
+            for (String parent : commit.getParentSHAs()) {
+                commit(parent);
+            }
+            String root = commit.getTreeSHA();
+            if (root.equals(Tree.EMPTY) || !marked.add(root)) {
+                return;
+            }
+            // A Tree marked already was visited by another commit, along with all it holds.
+            Tree.visit(root, "", BLOB_DIR, new Tree.Visitor() {
+                @Override
+                public boolean tree(String tree, String path) {
+                    return marked.add(tree);
+                }
+
+                @Override
+                public void file(String blob, String path) {
+                    blob(blob, BLOB_DIR);
+                }
+            });
+        }
+
+        /** Marks the Blob with the given SHA1, saved in [blobDir], and the chunks of
+         * chunked Blobs. */
+        void blob(String sha, File blobDir) {
+            if (!marked.add(sha)) {
+                return;
+            }
+            List<Blob.Chunk> chunks = Blob.getFromSHA(sha, blobDir).chunks();
+            if (chunks != null) {
+                for (Blob.Chunk chunk : chunks) {
+                    marked.add(chunk.sha);
+                }
+            }
+        }
+
+        /** Queues [visit] on the pool. */
+        private void submit(Runnable visit) {
+            pending.incrementAndGet();
+            pool.execute(() -> {
+                try {
+                    visit.run();
+                } catch (RuntimeException excp) {
+                    if (failure == null) {
+                        failure = excp;
+                    }
+                } finally {
+                    if (pending.decrementAndGet() == 0) {
+                        synchronized (this) {
+                            notifyAll();
+                        }
+                    }
+                }
+            });
+        }
+
+        /** Waits until every queued visit is done. If a visit failed, prints its error on
+         * the calling thread and exits, before anything is deleted. */
+        synchronized void await() {
+            try {
+                while (pending.get() > 0) {
+                    wait();
+                }
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            } finally {
+                pool.shutdown();
+            }
+            if (failure != null) {
+                Utils.printAndExit("Could not mark the reachable objects: "
+                        + failure.getMessage() + " Nothing was deleted.");
+            }
+        }
+    }
+
+    /** Deletes the loose objects in [dir] that are not REACHABLE and were last modified
+     * before [cutoff], and counts them in RESULT. */
+    private static void sweepLoose(File dir, Set<String> reachable, long cutoff,
+                                   Result result) {
+        for (String sha : LooseObject.list(dir)) {
+            File file = LooseObject.fileFor(dir, sha);
+            long size = file.length();
+            if (!reachable.contains(sha) && file.lastModified() < cutoff && file.delete()) {
+                file.getParentFile().delete();
+                result.reclaimedObjects += 1;
+                result.reclaimedBytes += size;
+            }
+        }
+    }
+
+    /** Counts in RESULT the packed objects that are not REACHABLE, which are dropped when
+     * the packs are rewritten. Those whose pack was modified after [cutoff] are kept as
+     * loose objects instead. */
+    private static void sweepPacked(Set<String> reachable, long cutoff, Result result) {
+        for (Pack pack : Pack.packsIn(PACK_DIR)) {
+            for (int i = 0; i < pack.size(); i++) {
+                String sha = pack.idAt(i);
+                if (reachable.contains(sha)) {
+                    continue;
+                }
+                if (pack.lastModified() < cutoff) {
+                    result.reclaimedObjects += 1;
+                    result.reclaimedBytes += pack.storedLength(i);
+                    continue;
+                }
+                File dir = pack.typeAt(i) == Pack.COMMIT ? COMM_DIR : BLOB_DIR;
+                File loose = LooseObject.fileFor(dir, sha);
+                if (!loose.isFile()) {
+                    LooseObject.write(loose, pack.typeAt(i), pack.load(i));
+                    loose.setLastModified(pack.lastModified());
+                }
+            }
+        }
+    }
+
+    /** Returns the number of milliseconds elapsed since the given System.nanoTime. */
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
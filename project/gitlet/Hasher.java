@@ -0,0 +1,96 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/** Computes the SHA1s of working files, many at a time.
+ *
+ * Files are hashed by a shared pool with one thread per core, each thread keeping its
+ * own MessageDigest and buffer. At most MAX_IN_FLIGHT KiB (256 MiB) of files are being
+ * hashed at any time, so a batch of large files does not flood the disk queue or the
+ * page cache; a file larger than that is hashed on its own.
+ */
+public class Hasher {
+
+    /** Upper bound on the total size of the files being hashed at once, in KiB: one
+     * permit of the semaphore per KiB. */
+    private static final int MAX_IN_FLIGHT = 256 << 10;
+
+    /** Pool hashing the files. Its threads are daemons, so it never keeps Gitlet running. */
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    /** SHA1 digest of each thread. */
+    private static final ThreadLocal<MessageDigest> DIGEST =
+            ThreadLocal.withInitial(LooseObject::newDigest);
+
+    /** Copy buffer of each thread. */
+    private static final ThreadLocal<byte[]> BUFFER =
+            ThreadLocal.withInitial(() -> new byte[LooseObject.BUFFER_SIZE]);
+
+    /** Returns the SHA1 of the contents of [file], read as a stream. */
+    static String hash(File file) {
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        byte[] buffer = BUFFER.get();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                md.update(buffer, 0, read);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return Utils.toHex(md.digest(), 0, Utils.UID_LENGTH / 2);
+    }
+
+    /** Returns the SHA1s of the files with the given names inside [dir], by file name in
+     * sorted order. The files are hashed concurrently. */
+    static TreeMap<String, String> hashAll(File dir, Collection<String> fileNames) {
+        TreeMap<String, String> result = new TreeMap<>();
+        if (fileNames.size() == 1) {
+            String name = fileNames.iterator().next();
+            result.put(name, hash(Utils.join(dir, name)));
+            return result;
+        }
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        List<String> names = new ArrayList<>(fileNames);
+        List<Future<String>> hashes = new ArrayList<>(names.size());
+        try {
+            for (String name : names) {
+                File file = Utils.join(dir, name);
+                int permits = (int) Math.max(1, Math.min(MAX_IN_FLIGHT, file.length() >> 10));
+                inFlight.acquire(permits);
+                hashes.add(POOL.submit(() -> {
+                    try {
+                        return hash(file);
+                    } finally {
+                        inFlight.release(permits);
+                    }
+                }));
+            }
+            for (int i = 0; i < names.size(); i++) {
+                result.put(names.get(i), hashes.get(i).get());
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException("interrupted while hashing files");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        }
+        return result;
+    }
+}
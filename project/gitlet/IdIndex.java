@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** A sorted index of the SHA1s of the loose objects in an object directory, used to
+ * resolve abbreviated SHA1s without listing the directory.
+ *
+ * Index file layout ([object directory]/ids):
+ *      the number of sorted SHA1s;
+ *      that many 20-byte SHA1s, sorted;
+ *      a tail of 20-byte SHA1s appended since, in no particular order.
+ *
+ * New objects are appended to the tail, which is merged into the sorted part once it
+ * holds more than MAX_TAIL SHA1s. A lookup is a binary search over the sorted part plus
+ * a scan of the tail. The index may list objects that were since packed or deleted, so
+ * every match is checked against the object directory.
+ */
+public class IdIndex {
+
+    /** Name of the index file inside an object directory. */
+    private static final String NAME = "ids";
+
+    /** Length of a binary SHA1. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** Largest number of unsorted SHA1s kept at the end of the index. */
+    private static final int MAX_TAIL = 256;
+
+    /** Records that the loose object with the given SHA1 was added to [dir]. */
+    static synchronized void add(File dir, String sha) {
+        File file = Utils.join(dir, NAME);
+        if (!file.isFile()) {
+            rebuild(dir);
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(Utils.fromHex(sha));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (file.length() > 4 + (long) ID_LENGTH * (sortedCount(file) + MAX_TAIL)) {
+            rebuild(dir);
+        }
+    }
+
+    /** Rewrites the index of [dir] from the loose objects it holds, all sorted. */
+    static synchronized void rebuild(File dir) {
+        List<String> shas = LooseObject.list(dir);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + ID_LENGTH * shas.size());
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(shas.size());
+            for (String sha : shas) {
+                out.write(Utils.fromHex(sha));
+            }
+            Path temp = Files.createTempFile(dir.toPath(), "tmp_", null);
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, Utils.join(dir, NAME).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the sorted SHA1s of the loose objects in [dir] that start with the given
+     * abbreviated SHA1. */
+    static List<String> withPrefix(File dir, String prefix) {
+        File file = Utils.join(dir, NAME);
+        if (!file.isFile()) {
+            rebuild(dir);
+        }
+        List<String> result = new ArrayList<>();
+        byte[] low = lowestId(prefix);
+        if (low == null) {
+            return result;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            int sorted = in.readInt();
+            long total = (in.length() - 4) / ID_LENGTH;
+            byte[] id = new byte[ID_LENGTH];
+            // Find the first sorted SHA1 not less than the prefix, then read while it matches.
+            int first = 0;
+            int last = sorted;
+            while (first < last) {
+                int mid = (first + last) >>> 1;
+                readId(in, mid, id);
+                if (Arrays.compareUnsigned(id, low) < 0) {
+                    first = mid + 1;
+                } else {
+                    last = mid;
+                }
+            }
+            for (int i = first; i < sorted; i++) {
+                readId(in, i, id);
+                String sha = Utils.toHex(id, 0, ID_LENGTH);
+                if (!sha.startsWith(prefix)) {
+                    break;
+                }
+                addIfPresent(dir, sha, result);
+            }
+            for (long i = sorted; i < total; i++) {
+                readId(in, i, id);
+                String sha = Utils.toHex(id, 0, ID_LENGTH);
+                if (sha.startsWith(prefix) && !result.contains(sha)) {
+                    addIfPresent(dir, sha, result);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Returns the smallest binary SHA1 starting with the given abbreviated SHA1, or null
+     * if it is not hexadecimal. */
+    static byte[] lowestId(String prefix) {
+        StringBuilder padded = new StringBuilder(prefix);
+        while (padded.length() < Utils.UID_LENGTH) {
+            padded.append('0');
+        }
+        try {
+            return Utils.fromHex(padded.substring(0, Utils.UID_LENGTH));
+        } catch (IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    /** Reads the [pos]th SHA1 of the index [in] into [id]. */
+    private static void readId(RandomAccessFile in, long pos, byte[] id) throws IOException {
+        in.seek(4 + pos * ID_LENGTH);
+        in.readFully(id);
+    }
+
+    /** Adds [sha] to RESULT if its loose object still exists in [dir]. */
+    private static void addIfPresent(File dir, String sha, List<String> result) {
+        if (LooseObject.fileFor(dir, sha).isFile()) {
+            result.add(sha);
+        }
+    }
+
+    /** Returns the number of sorted SHA1s of the index [file]. */
+    private static int sortedCount(File file) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            return in.readInt();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
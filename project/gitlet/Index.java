@@ -0,0 +1,407 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** The index: a single binary file (.gitlet/index) that holds everything the commands
+ * remember about paths of the working directory between two commits:
+ *      the files staged for addition, with the SHA1s of their staged Blobs;
+ *      the files staged for removal;
+ *      the stat data and SHA1s of working files (see StatCache);
+ *      the names of all working files, while they are known from a Monitor.
+ *
+ * File layout (all integers big-endian):
+ *      a header of HEADER_SIZE bytes: "GSTG", the format version, the index flags, the
+ *      number of entries and the length of the name table;
+ *      one entry of ENTRY_SIZE bytes per path, sorted by path: the offset and length of
+ *      its UTF-8 name in the name table, its flags, the size, modification time, inode
+ *      and status change time of the working file, the SHA1 of the working file and the
+ *      SHA1 of the staged Blob (zeroes where the flags say there are none);
+ *      the name table;
+ *      the SHA1 of everything before it.
+ * Since entries have a fixed width, the file is read straight from a memory mapping.
+ *
+ * The index is read once per process and shared by every caller (see load), so that a
+ * command that stages many files only reads and writes it once. It is saved by writing a
+ * lock file (.gitlet/index.lock) next to it, which is then renamed over it, so readers
+ * only ever see a complete index. Creating the lock fails while another command is
+ * saving, and a command refuses to save if the index changed since it was read. Commands
+ * that only refresh stat data, such as status, then skip saving it instead.
+ */
+public class Index {
+
+    /** File that holds the index. */
+    private static final File INDEX = Paths.INDEX;
+
+    /** Lock file, written and then renamed over the index. */
+    private static final File LOCK = Utils.join(Paths.GITLET_DIR, "index.lock");
+
+    /** First bytes of the index. */
+    private static final byte[] MAGIC = {'G', 'S', 'T', 'G'};
+
+    /** Version of the layout above. */
+    private static final int VERSION = 1;
+
+    /** Size of the header. */
+    private static final int HEADER_SIZE = 20;
+
+    /** Length of a binary SHA1. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** Size of an entry. */
+    private static final int ENTRY_SIZE = 12 + 4 * 8 + 2 * ID_LENGTH;
+
+    /** Index flag: the names of all working files are known. */
+    private static final int KNOWS_WORKING_FILES = 1;
+
+    /** Entry flag: the entry holds the stat data and SHA1 of a working file. */
+    private static final int STAT = 1;
+
+    /** Entry flag: the file is staged for addition. */
+    private static final int ADDED = 2;
+
+    /** Entry flag: the file is staged for removal. */
+    private static final int REMOVED = 4;
+
+    /** Entry flag: the file is in the working directory. */
+    private static final int WORKING = 8;
+
+    /** The index of the current repository, once read by this process. */
+    private static Index current;
+
+    /** Files staged for addition, mapped to the SHA1s of their Blobs. */
+    private final TreeMap<String, String> added = new TreeMap<>();
+
+    /** Number of files staged for addition with each Blob, by SHA1. */
+    private final HashMap<String, Integer> addedBlobs = new HashMap<>();
+
+    /** Files staged for removal. */
+    private final TreeSet<String> removed = new TreeSet<>();
+
+    /** Stat data and SHA1s of working files, by file name. */
+    private final HashMap<String, StatCache.Entry> stats = new HashMap<>();
+
+    /** Names of all working files, or null if they are not known. */
+    private TreeSet<String> workingFiles;
+
+    /** Trailing SHA1 of the index file as it was read or last saved, or null if there was
+     * none. */
+    private byte[] checksum;
+
+    /** Modification time of the index file when it was read, in nanoseconds. */
+    private long loadedAt = Long.MAX_VALUE;
+
+    /** True if the index changed since it was read or last saved. */
+    private boolean changed;
+
+    /** Returns the index of the current repository, reading it on first use. */
+    static synchronized Index load() {
+        if (current == null) {
+            current = new Index();
+            if (INDEX.isFile()) {
+                current.read();
+            }
+        }
+        return current;
+    }
+
+    /** Reads the index file into this index. */
+    private void read() {
+        StatCache.Entry self = StatCache.stat(INDEX);
+        loadedAt = self == null ? Long.MAX_VALUE : self.mtime;
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(INDEX.toPath(), StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        int size = data.capacity();
+        byte[] magic = new byte[MAGIC.length];
+        if (size >= HEADER_SIZE + ID_LENGTH) {
+            data.get(0, magic);
+        }
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw Utils.error("The index is not a Gitlet index.");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw Utils.error("Unsupported index version %d.", data.getInt(4));
+        }
+        MessageDigest md = LooseObject.newDigest();
+        md.update(data.slice(0, size - ID_LENGTH));
+        checksum = new byte[ID_LENGTH];
+        data.get(size - ID_LENGTH, checksum);
+        if (!Arrays.equals(md.digest(), checksum)) {
+            throw Utils.error("The index is corrupt.");
+        }
+        int flags = data.getInt(8);
+        int count = data.getInt(12);
+        int namesStart = HEADER_SIZE + count * ENTRY_SIZE;
+        if ((flags & KNOWS_WORKING_FILES) != 0) {
+            workingFiles = new TreeSet<>();
+        }
+        byte[] ids = new byte[2 * ID_LENGTH];
+        for (int i = 0; i < count; i++) {
+            int pos = HEADER_SIZE + i * ENTRY_SIZE;
+            byte[] nameBytes = new byte[data.getInt(pos + 4)];
+            data.get(namesStart + data.getInt(pos), nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            int entryFlags = data.getInt(pos + 8);
+            data.get(pos + 44, ids);
+            if ((entryFlags & STAT) != 0) {
+                StatCache.Entry stat = new StatCache.Entry(data.getLong(pos + 12),
+                        data.getLong(pos + 20), data.getLong(pos + 28), data.getLong(pos + 36));
+                stat.sha = Utils.toHex(ids, 0, ID_LENGTH);
+                stats.put(name, stat);
+            }
+            if ((entryFlags & ADDED) != 0) {
+                addStaged(name, Utils.toHex(ids, ID_LENGTH, ID_LENGTH));
+            }
+            if ((entryFlags & REMOVED) != 0) {
+                removed.add(name);
+            }
+            if ((entryFlags & WORKING) != 0 && workingFiles != null) {
+                workingFiles.add(name);
+            }
+        }
+    }
+
+    /** Returns the binary form of this index, as laid out above. */
+    private byte[] encode() {
+        TreeSet<String> names = new TreeSet<>(added.keySet());
+        names.addAll(removed);
+        names.addAll(stats.keySet());
+        if (workingFiles != null) {
+            names.addAll(workingFiles);
+        }
+        ByteArrayOutputStream nameTable = new ByteArrayOutputStream();
+        ByteBuffer entries = ByteBuffer.allocate(names.size() * ENTRY_SIZE);
+        byte[] noId = new byte[ID_LENGTH];
+        for (String name : names) {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            entries.putInt(nameTable.size()).putInt(nameBytes.length);
+            nameTable.writeBytes(nameBytes);
+            StatCache.Entry stat = stats.get(name);
+            String staged = added.get(name);
+            int flags = (stat != null ? STAT : 0) | (staged != null ? ADDED : 0)
+                    | (removed.contains(name) ? REMOVED : 0)
+                    | (workingFiles != null && workingFiles.contains(name) ? WORKING : 0);
+            entries.putInt(flags);
+            if (stat != null) {
+                entries.putLong(stat.size).putLong(stat.mtime).putLong(stat.inode)
+                        .putLong(stat.ctime).put(Utils.fromHex(stat.sha));
+            } else {
+                entries.putLong(0).putLong(0).putLong(0).putLong(0).put(noId);
+            }
+            entries.put(staged != null ? Utils.fromHex(staged) : noId);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC).putInt(VERSION).putInt(workingFiles != null ? KNOWS_WORKING_FILES : 0)
+                .putInt(names.size()).putInt(nameTable.size());
+        ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_SIZE
+                + entries.capacity() + nameTable.size() + ID_LENGTH);
+        out.writeBytes(header.array());
+        out.writeBytes(entries.array());
+        out.writeBytes(nameTable.toByteArray());
+        MessageDigest md = LooseObject.newDigest();
+        md.update(out.toByteArray());
+        out.writeBytes(md.digest());
+        return out.toByteArray();
+    }
+
+    /** Saves this index, if it changed or was never saved, through the lock file. Prints
+     * an error message if another command holds the lock, or saved the index since this
+     * one read it. */
+    void save() {
+        save(false);
+    }
+
+    /** Saves this index like save, unless another command holds the lock or saved the
+     * index since this one read it, in which case it is silently left unsaved. Returns
+     * true if the index is saved. For commands that only refresh stat data, which is
+     * worth saving but can always be gathered again (see StatCache). */
+    boolean saveIfUnlocked() {
+        return save(true);
+    }
+
+    /** Saves this index, if it changed or was never saved, through the lock file. If
+     * another command holds the lock or saved the index since this one read it, returns
+     * false if [quietly] is true, and prints an error message otherwise. */
+    private boolean save(boolean quietly) {
+        if (!changed && checksum != null) {
+            return true;
+        }
+        byte[] data = encode();
+        try {
+            if (!LOCK.createNewFile()) {
+                if (quietly) {
+                    return false;
+                }
+                Utils.printAndExit("Another Gitlet command is updating the index. If none is "
+                        + "running, remove .gitlet/index.lock.");
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!Arrays.equals(checksum, storedChecksum())) {
+            LOCK.delete();
+            if (quietly) {
+                return false;
+            }
+            Utils.printAndExit("The index was changed by another Gitlet command.");
+        }
+        try {
+            Files.write(LOCK.toPath(), data);
+            Files.move(LOCK.toPath(), INDEX.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            LOCK.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        checksum = Arrays.copyOfRange(data, data.length - ID_LENGTH, data.length);
+        changed = false;
+        // Stat data is judged against the new index file, as a process reading it would.
+        StatCache.Entry self = StatCache.stat(INDEX);
+        loadedAt = self == null ? Long.MAX_VALUE : self.mtime;
+        return true;
+    }
+
+    /** Drops the index read by this process if it has changes that were not saved, or if
+     * the index file was saved since by another process, so that it is read again on next
+     * use (see Server). */
+    static synchronized void forgetIfStale() {
+        if (current != null
+                && (current.changed || !Arrays.equals(current.checksum, storedChecksum()))) {
+            current = null;
+        }
+    }
+
+    /** Returns the trailing SHA1 of the index file, or null if there is none. */
+    private static byte[] storedChecksum() {
+        if (!INDEX.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(INDEX, "r")) {
+            byte[] result = new byte[ID_LENGTH];
+            in.seek(Math.max(0, in.length() - ID_LENGTH));
+            in.readFully(result);
+            return result;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the modification time of the index file when it was read, in nanoseconds,
+     * or Long.MAX_VALUE if there was none. Stat data recorded at or after that time is
+     * racy (see StatCache). */
+    long loadedAt() {
+        return loadedAt;
+    }
+
+    /* STAGING AREA */
+
+    /** Returns the files staged for addition, mapped to the SHA1s of their Blobs. */
+    Map<String, String> added() {
+        return Collections.unmodifiableMap(added);
+    }
+
+    /** Returns the files staged for removal. */
+    Set<String> removed() {
+        return Collections.unmodifiableSet(removed);
+    }
+
+    /** Returns true if some file is staged for addition with the Blob of the given
+     * SHA1. */
+    boolean isStagedBlob(String sha) {
+        return addedBlobs.containsKey(sha);
+    }
+
+    /** Stages [fileName] for addition with the Blob of the given SHA1. */
+    void stage(String fileName, String sha) {
+        unstage(fileName);
+        addStaged(fileName, sha);
+        changed = true;
+    }
+
+    /** Records that [fileName] is staged for addition with the Blob of the given SHA1. */
+    private void addStaged(String fileName, String sha) {
+        added.put(fileName, sha);
+        addedBlobs.merge(sha, 1, Integer::sum);
+    }
+
+    /** Unstages [fileName] if it is staged for addition, and returns the SHA1 of its
+     * staged Blob, or null if it was not staged. */
+    String unstage(String fileName) {
+        String sha = added.remove(fileName);
+        if (sha != null) {
+            addedBlobs.computeIfPresent(sha, (k, n) -> n == 1 ? null : n - 1);
+            changed = true;
+        }
+        return sha;
+    }
+
+    /** Stages [fileName] for removal. Returns false if it already was. */
+    boolean stageRemoval(String fileName) {
+        boolean result = removed.add(fileName);
+        changed |= result;
+        return result;
+    }
+
+    /** Stops staging [fileName] for removal. Returns false if it was not. */
+    boolean unstageRemoval(String fileName) {
+        boolean result = removed.remove(fileName);
+        changed |= result;
+        return result;
+    }
+
+    /** Empties the staging area. */
+    void clearStaging() {
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            added.clear();
+            addedBlobs.clear();
+            removed.clear();
+            changed = true;
+        }
+    }
+
+    /* WORKING FILES */
+
+    /** Returns the stat data and SHA1s of working files, by file name. Callers that
+     * modify them must call touch. */
+    HashMap<String, StatCache.Entry> stats() {
+        return stats;
+    }
+
+    /** Returns the names of all working files, or null if they are not known. Callers
+     * that modify them must call touch. */
+    TreeSet<String> workingFiles() {
+        return workingFiles;
+    }
+
+    /** Sets the names of all working files, or forgets them if [names] is null. */
+    void setWorkingFiles(TreeSet<String> names) {
+        workingFiles = names;
+        changed = true;
+    }
+
+    /** Records that the stat data or working files changed, so they must be saved. */
+    void touch() {
+        changed = true;
+    }
+}
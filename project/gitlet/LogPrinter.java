@@ -0,0 +1,166 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+
+/** Prints the commits listed by log and global-log, as they are read: the commits are
+ * given by a lazy iterator (see Commit.history and CommitScanner.scan), and reading stops
+ * as soon as enough commits are printed, so that printing the first few commits of a long
+ * history never reads the rest. Output goes through one large buffer, flushed at the end.
+ *
+ * Options:
+ *      -n [count]: print at most that many commits;
+ *      --skip [count]: leave out that many commits before printing any;
+ *      --since [date] and --until [date]: only print commits made at or after, or at or
+ *      before, that date, given as yyyy-MM-dd (midnight) or yyyy-MM-ddTHH:mm[:ss], in
+ *      local time;
+ *      --oneline: print each commit as its abbreviated id and message, on one line;
+ *      -- [file], after every other option: only print commits that changed that file
+ *      from their main parent. The changed-path filters of the commits (see
+ *      PathFilters) rule out most of the others without reading their snapshots.
+ * Commits outside the dates, or that did not change the file, do not count for -n and
+ * --skip.
+ */
+class LogPrinter {
+
+    /** Size of the output buffer, in chars. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Largest number of commits to print, or -1 for no limit. */
+    private int limit = -1;
+
+    /** Number of commits to leave out first. */
+    private int skip;
+
+    /** Only commits made at or after this time are printed, in milliseconds. */
+    private long since = Long.MIN_VALUE;
+
+    /** Only commits made at or before this time are printed, in milliseconds. */
+    private long until = Long.MAX_VALUE;
+
+    /** True if each commit is printed on one line. */
+    private boolean oneline;
+
+    /** Path of the file whose changes are printed, or null to print every commit. */
+    private String path;
+
+    /** Returns the options of log given by ARGS, from the second one on, or null if they
+     * are not valid. */
+    static LogPrinter parse(String[] args) {
+        LogPrinter printer = new LogPrinter();
+        for (int i = 1; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--oneline")) {
+                printer.oneline = true;
+                continue;
+            }
+            if (option.equals("--") && i + 2 == args.length) {
+                printer.path = Utils.relativePath(Paths.CWD, args[i + 1]);
+                return printer.path == null || printer.path.isEmpty() ? null : printer;
+            }
+            if (i + 1 == args.length) {
+                return null;
+            }
+            String value = args[++i];
+            switch (option) {
+                case "-n":
+                    printer.limit = parseCount(value);
+                    if (printer.limit < 0) {
+                        return null;
+                    }
+                    break;
+                case "--skip":
+                    printer.skip = parseCount(value);
+                    if (printer.skip < 0) {
+                        return null;
+                    }
+                    break;
+                case "--since":
+                    printer.since = parseTime(value);
+                    if (printer.since == Long.MIN_VALUE) {
+                        return null;
+                    }
+                    break;
+                case "--until":
+                    printer.until = parseTime(value);
+                    if (printer.until == Long.MIN_VALUE) {
+                        return null;
+                    }
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return printer;
+    }
+
+    /** Returns the count written in [value], or -1 if it is not one. */
+    private static int parseCount(String value) {
+        try {
+            return Math.max(Integer.parseInt(value), -1);
+        } catch (NumberFormatException excp) {
+            return -1;
+        }
+    }
+
+    /** Returns the time in milliseconds of the local date or date and time written in
+     * [value], or Long.MIN_VALUE if it is neither. */
+    private static long parseTime(String value) {
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            if (value.contains("T")) {
+                return LocalDateTime.parse(value).atZone(zone).toInstant().toEpochMilli();
+            }
+            return LocalDate.parse(value).atStartOfDay(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException excp) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /** Prints COMMITS, as selected by the options, separated by blank lines. If [ordered]
+     * is true, COMMITS go back in time, so reading stops at the first commit made before
+     * --since. */
+    void print(Iterator<Commit> commits, boolean ordered) {
+        Writer out = new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        StringBuilder entry = new StringBuilder(256);
+        int skipped = 0;
+        int printed = 0;
+        PathFilters filters = path == null ? null : PathFilters.load();
+        try {
+            while (printed != limit && commits.hasNext()) {
+                Commit commit = commits.next();
+                long timestamp = commit.getTimestamp();
+                if (timestamp < since && ordered) {
+                    break;
+                } else if (timestamp < since || timestamp > until) {
+                    continue;
+                } else if (path != null && !(filters.mayChange(commit.getSHA1(), path)
+                        && commit.changedFile(path))) {
+                    continue;
+                } else if (skipped < skip) {
+                    skipped += 1;
+                    continue;
+                }
+                entry.setLength(0);
+                if (printed > 0 && !oneline) {
+                    entry.append(System.lineSeparator());
+                }
+                commit.appendLog(entry, oneline);
+                out.append(entry);
+                printed += 1;
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** Reads and writes loose objects: objects stored one per file, named by their SHA1.
+ *
+ * A loose object file starts with a small header:
+ *      magic "GLO1", the type of the object (see Pack) and the length of its
+ *      uncompressed contents;
+ * followed by the contents, compressed with Deflater.
+ *
+ * Objects are written by streaming their contents through the compressor into a
+ * temporary file, while their SHA1 is computed in the same pass, and then renamed into
+ * place. They are read back through an InputStream, so no object ever has to be held
+ * in memory whole.
+ *
+ * Inside an object directory, each object is kept in a subdirectory named by the first
+ * two hexadecimal digits of its SHA1, under the remaining 38 digits (see fileFor), so no
+ * single directory grows too large.
+ */
+public class LooseObject {
+
+    /** Magic number at the start of loose object files ("GLO1"). */
+    private static final int MAGIC = 0x474c4f31;
+
+    /** Size of the buffers used to copy contents. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Compression level of loose objects. Favors speed, since they are written often
+     * and usually repacked later. */
+    private static final int LEVEL = Deflater.BEST_SPEED;
+
+    /** Writes the contents of the file [source] as a loose object of the given type
+     * inside [dir], named by the SHA1 of the contents. Returns that SHA1. */
+    static String store(File dir, byte type, File source) {
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            return store(dir, type, in, source.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes [contents] as a loose object of the given type inside [dir], named by
+     * the SHA1 of the contents. Returns that SHA1. */
+    static String store(File dir, byte type, byte[] contents) {
+        return store(dir, type, new ByteArrayInputStream(contents), contents.length);
+    }
+
+    /** Writes the [length] bytes read from [in] as a loose object of the given type inside
+     * [dir], named by their SHA1, which is computed while writing. If an object with that
+     * name exists, it is kept. Returns the SHA1. */
+    private static String store(File dir, byte type, InputStream in, long length) {
+        MessageDigest md = newDigest();
+        Path temp = writeTemp(dir, type, in, length, md);
+        String sha = Utils.toHex(md.digest(), 0, Utils.UID_LENGTH / 2);
+        moveIntoPlace(temp, fileFor(dir, sha));
+        return sha;
+    }
+
+    /** Returns the file that holds (or would hold) the loose object with the given SHA1
+     * inside the object directory [dir]. */
+    static File fileFor(File dir, String sha) {
+        if (sha.length() <= 2) {
+            return Utils.join(dir, sha);
+        }
+        return Utils.join(dir, sha.substring(0, 2), sha.substring(2));
+    }
+
+    /** Returns the sorted SHA1s of all loose objects inside the object directory [dir]. */
+    static List<String> list(File dir) {
+        List<String> result = new ArrayList<>();
+        String[] shards = dir.list();
+        if (shards == null) {
+            return result;
+        }
+        Arrays.sort(shards);
+        for (String shard : shards) {
+            if (shard.length() != 2) {
+                continue;
+            }
+            List<String> names = Utils.plainFilenamesIn(Utils.join(dir, shard));
+            if (names != null) {
+                for (String name : names) {
+                    if (name.length() == Utils.UID_LENGTH - 2) {
+                        result.add(shard + name);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Deletes every loose object inside the object directory [dir], with the shard
+     * subdirectories holding them. */
+    static void deleteAll(File dir) {
+        File[] shards = dir.listFiles();
+        if (shards == null) {
+            return;
+        }
+        for (File shard : shards) {
+            File[] files = shard.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            shard.delete();
+        }
+    }
+
+    /** Writes [contents] as a loose object of the given type to [target], whose name is
+     * chosen by the caller. */
+    static void write(File target, byte type, byte[] contents) {
+        target.getParentFile().mkdirs();
+        Path temp = writeTemp(target.getParentFile(), type,
+                new ByteArrayInputStream(contents), contents.length, null);
+        moveIntoPlace(temp, target);
+    }
+
+    /** Writes a loose object into a new temporary file inside [dir], feeding its contents
+     * to [md] too if it is not null. Returns the temporary file. */
+    private static Path writeTemp(File dir, byte type, InputStream in, long length,
+                                  MessageDigest md) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(dir.toPath(), "tmp_", null);
+            Deflater deflater = new Deflater(LEVEL);
+            try (OutputStream file = Files.newOutputStream(temp)) {
+                DataOutputStream header = new DataOutputStream(file);
+                header.writeInt(MAGIC);
+                header.writeByte(type);
+                header.writeLong(length);
+                DeflaterOutputStream out = new DeflaterOutputStream(file, deflater,
+                        BUFFER_SIZE);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long copied = 0;
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    if (md != null) {
+                        md.update(buffer, 0, read);
+                    }
+                    out.write(buffer, 0, read);
+                    copied += read;
+                }
+                out.finish();
+                if (copied != length) {
+                    throw new IOException("file changed while being read");
+                }
+            } finally {
+                deflater.end();
+            }
+            return temp;
+        } catch (IOException excp) {
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copies the loose object file [from] to [target] as it is, without decompressing
+     * it. Does nothing if [target] already exists. */
+    static void copy(File from, File target) {
+        if (target.isFile()) {
+            return;
+        }
+        try {
+            target.getParentFile().mkdirs();
+            Path temp = Files.createTempFile(target.getParentFile().toPath(), "tmp_", null);
+            Files.copy(from.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+            moveIntoPlace(temp, target);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Moves the loose object file [from] to [target] by renaming it, so its contents are
+     * neither read nor written again. If [target] already exists, [from] is deleted. */
+    static void move(File from, File target) {
+        moveIntoPlace(from.toPath(), target);
+    }
+
+    /** Renames [temp] to [target], or deletes it if [target] already exists, which may
+     * happen meanwhile when several threads save the same contents. */
+    private static void moveIntoPlace(Path temp, File target) {
+        try {
+            if (target.isFile()) {
+                Files.delete(temp);
+            } else {
+                target.getParentFile().mkdirs();
+                Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (FileAlreadyExistsException excp) {
+            temp.toFile().delete();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream over the uncompressed contents of the loose object [file].
+     * Throws IllegalArgumentException if it is not a loose object file. */
+    static InputStream open(File file) {
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE);
+            readHeader(file, in);
+            Inflater inflater = new Inflater();
+            return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inflater.end();
+                }
+            };
+        } catch (IOException excp) {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // Already failing.
+                }
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the uncompressed contents of the loose object [file]. Only meant for small
+     * objects. Throws IllegalArgumentException if it is not a loose object file. */
+    static byte[] readAll(File file) {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            long length = readHeader(file, in);
+            byte[] result = new byte[Math.toIntExact(length)];
+            Inflater inflater = new Inflater();
+            try {
+                new DataInputStream(new InflaterInputStream(in, inflater)).readFully(result);
+            } finally {
+                inflater.end();
+            }
+            return result;
+        } catch (IOException | ArithmeticException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the length of the contents of the loose object [file]. */
+    static long sizeOf(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return readHeader(file, in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the type of the loose object [file]. */
+    static byte typeOf(File file) {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("not a loose object: " + file.getName());
+            }
+            return in.readByte();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Reads the header of the loose object [file] from [in], returning the length of
+     * its contents. */
+    private static long readHeader(File file, InputStream in) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != MAGIC) {
+            throw new IOException("not a loose object: " + file.getName());
+        }
+        header.readByte();
+        return header.readLong();
+    }
+
+    /** Returns a new SHA-1 MessageDigest. */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
-
+import java.util.ArrayList;
+import java.util.List;
 
 /** Driver class for Gitlet, a subset of the Git version-control system. */
 public class Main {
@@ -9,42 +10,96 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        RepoContext.begin();
+        try {
+            run(args);
+        } finally {
+            RepoContext.end();
+        }
+    }
+
+    /** Runs the command given by ARGS. */
+    private static void run(String[] args) {
         if (args.length == 0) {
             System.out.println("Please enter a command.");
-            System.exit(0);
+            Utils.exit(0);
         }
         String firstArg = args[0];
         switch(firstArg) {
             case "init":
                 Repository.setup();
                 break;
-            case "add":
-                checkOperands(args, 2);
-                Repository.addFile(args[1]);
+            case "add": {
+                // Usage: java gitlet.Main add [-v] [pathspec ...]
+                //     or java gitlet.Main add [-v] -A
+                List<String> pathspecs = new ArrayList<>();
+                boolean all = false;
+                boolean verbose = false;
+                for (int i = 1; i < args.length; i++) {
+                    if (args[i].equals("-A") || args[i].equals("--all")) {
+                        all = true;
+                    } else if (args[i].equals("-v")) {
+                        verbose = true;
+                    } else {
+                        pathspecs.add(fileOperand(args[i], "File does not exist."));
+                    }
+                }
+                if (pathspecs.isEmpty() == !all) {
+                    Utils.printAndExit("Incorrect operands.");
+                }
+                Repository.addFiles(pathspecs, all, verbose);
                 break;
+            }
             case "commit":
                 checkOperands(args, 2);
                 Repository.commit(args[1]);
                 break;
             case "rm":
                 checkOperands(args, 2);
-                Repository.removeFile(args[1]);
+                Repository.removeFile(fileOperand(args[1], "No reason to remove the file."));
                 break;
             case "log":
-                checkOperands(args, 1);
-                Repository.log();
+            case "global-log": {
+                // Usage: java gitlet.Main log [-n count] [--skip count] [--since date]
+                //     [--until date] [--oneline] [-- file], and the same for global-log
+                LogPrinter printer = LogPrinter.parse(args);
+                if (printer == null) {
+                    Utils.printAndExit("Incorrect operands.");
+                }
+                if (firstArg.equals("log")) {
+                    Repository.log(printer);
+                } else {
+                    Repository.logAll(printer);
+                }
                 break;
-            case "global-log":
-                checkOperands(args, 1);
-                Repository.logAll();
+            }
+            case "diff": {
+                // Usage: java gitlet.Main diff [--stat] [--histogram] [commit id [commit id]]
+                //     [-- path]
+                DiffPrinter printer = DiffPrinter.parse(args);
+                if (printer == null) {
+                    Utils.printAndExit("Incorrect operands.");
+                }
+                Repository.diff(printer);
                 break;
+            }
             case "find":
-                checkOperands(args, 2);
-                Repository.find(args[1]);
+                // Usage: java gitlet.Main find [--contains] [commit message]
+                if (args.length == 3 && args[1].equals("--contains")) {
+                    Repository.find(args[2], true);
+                } else {
+                    checkOperands(args, 2);
+                    Repository.find(args[1], false);
+                }
                 break;
             case "status":
-                checkOperands(args, 1);
-                Repository.status();
+                // Usage: java gitlet.Main status [-v]
+                if (args.length == 2 && args[1].equals("-v")) {
+                    Repository.status(true);
+                } else {
+                    checkOperands(args, 1);
+                    Repository.status(false);
+                }
                 break;
             case "checkout":
                 if (args.length == 2) {
@@ -52,10 +107,12 @@ public class Main {
                     Repository.checkoutBranch(args[1]);
                 } else if (args.length == 3 && args[1].equals("--")) {
                     // Usage: java gitlet.Main checkout -- [file name]
-                    Repository.checkoutFile(args[2]);
+                    Repository.checkoutFile(fileOperand(args[2],
+                            "File does not exist in that commit."));
                 } else if (args.length == 4 && args[2].equals("--")) {
                     // Usage: java gitlet.Main checkout [commit id] -- [file name]
-                    Repository.checkoutFromCommit(args[1], args[3]);
+                    Repository.checkoutFromCommit(args[1], fileOperand(args[3],
+                            "File does not exist in that commit."));
                 } else {
                     Utils.printAndExit("Incorrect operands.");
                 }
@@ -101,6 +158,76 @@ public class Main {
                 checkOperands(args, 3);
                 Repository.pull(args[1], args[2]);
                 break;
+            case "repack":
+                // Usage: java gitlet.Main repack [-a]
+                if (args.length == 2 && args[1].equals("-a")) {
+                    Repository.repack(true);
+                } else {
+                    checkOperands(args, 1);
+                    Repository.repack(false);
+                }
+                break;
+            case "gc":
+                // Usage: java gitlet.Main gc [--now]
+                if (args.length == 2 && args[1].equals("--now")) {
+                    Repository.gc(true);
+                } else {
+                    checkOperands(args, 1);
+                    Repository.gc(false);
+                }
+                break;
+            case "fsck":
+                checkOperands(args, 1);
+                Repository.fsck();
+                break;
+            case "upgrade":
+                checkOperands(args, 1);
+                Repository.upgrade();
+                break;
+            case "chunk-stats":
+                checkOperands(args, 1);
+                Repository.chunkStats();
+                break;
+            case "config":
+                // Usage: java gitlet.Main config [key] [value]
+                if (args.length == 2) {
+                    Repository.config(args[1], null);
+                } else {
+                    checkOperands(args, 3);
+                    Repository.config(args[1], args[2]);
+                }
+                break;
+            case "monitor":
+                // Usage: java gitlet.Main monitor [--stop]
+                if (args.length == 2 && args[1].equals("--stop")) {
+                    Repository.monitor(true);
+                } else if (args.length == 2 && args[1].equals("--run")) {
+                    Repository.runMonitor();
+                } else {
+                    checkOperands(args, 1);
+                    Repository.monitor(false);
+                }
+                break;
+            case "path-filters":
+                // Usage: java gitlet.Main path-filters
+                if (args.length == 2 && args[1].equals("--run")) {
+                    Repository.pathFilters(true);
+                } else {
+                    checkOperands(args, 1);
+                    Repository.pathFilters(false);
+                }
+                break;
+            case "server":
+                // Usage: java gitlet.Main server [--stop]
+                if (args.length == 2 && args[1].equals("--stop")) {
+                    Repository.server(true);
+                } else if (args.length == 2 && args[1].equals("--run")) {
+                    Repository.runServer();
+                } else {
+                    checkOperands(args, 1);
+                    Repository.server(false);
+                }
+                break;
             default:
                 Utils.printAndExit("No command with that name exists.");
         }
@@ -114,4 +241,14 @@ public class Main {
         }
     }
 
+    /** Returns the file name [operand] relative to the working directory, as tracked in
+     * commits. Prints [error] and exits if it names no file of the working directory. */
+    private static String fileOperand(String operand, String error) {
+        String path = Utils.relativePath(Paths.CWD, operand);
+        if (path == null) {
+            Utils.printAndExit(error);
+        }
+        return path;
+    }
+
 }
@@ -0,0 +1,128 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+/** A read-only memory mapping of a whole file, shared by everyone in this process who
+ * reads that file and reference-counted: each user acquires the mapping and releases it
+ * when done. Since the mapping reads straight from the OS page cache, concurrent Gitlet
+ * processes reading the same file share its pages too.
+ *
+ * Files larger than SEGMENT_SIZE are mapped as several consecutive segments.
+ */
+public class MappedFile {
+
+    /** Size of each mapped segment. */
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    /** Mappings currently in use, by file. */
+    private static final HashMap<File, MappedFile> OPEN = new HashMap<>();
+
+    /** The mapped file. */
+    private final File file;
+
+    /** Length of the file when it was mapped. */
+    private final long size;
+
+    /** The mapped segments, in order. */
+    private final MappedByteBuffer[] segments;
+
+    /** Number of users of this mapping. */
+    private int refs;
+
+    /** Maps [file] into memory. */
+    private MappedFile(File file) {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            size = channel.size();
+            int count = (int) Math.max(1, (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_SIZE, size - start));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the shared mapping of [file], mapping it if nobody uses it yet.
+     * Every call must be matched by a call to release. */
+    static synchronized MappedFile acquire(File file) {
+        MappedFile mapped = OPEN.get(file);
+        if (mapped == null || mapped.size != file.length()) {
+            mapped = new MappedFile(file);
+            OPEN.put(file, mapped);
+        }
+        mapped.refs += 1;
+        return mapped;
+    }
+
+    /** Gives up one use of this mapping. The mapping is dropped after its last use, and
+     * unmapped once it is garbage collected. */
+    void release() {
+        synchronized (MappedFile.class) {
+            refs -= 1;
+            if (refs == 0 && OPEN.get(file) == this) {
+                OPEN.remove(file);
+            }
+        }
+    }
+
+    /** Returns the length of the mapped file. */
+    long size() {
+        return size;
+    }
+
+    /** Returns a read-only view of [length] bytes starting at [offset]. The view shares
+     * the mapped memory, unless it spans two segments, in which case it is a copy. */
+    ByteBuffer slice(long offset, int length) {
+        int segment = (int) (offset / SEGMENT_SIZE);
+        int start = (int) (offset % SEGMENT_SIZE);
+        if (start + (long) length <= segments[segment].capacity()) {
+            return segments[segment].duplicate().position(start).limit(start + length)
+                    .slice().asReadOnlyBuffer();
+        }
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        for (long pos = offset; copy.hasRemaining(); pos++) {
+            copy.put(get(pos));
+        }
+        return copy.flip();
+    }
+
+    /** Returns the byte at [offset]. */
+    byte get(long offset) {
+        return segments[(int) (offset / SEGMENT_SIZE)].get((int) (offset % SEGMENT_SIZE));
+    }
+
+    /** Returns the big-endian int at [offset]. */
+    int getInt(long offset) {
+        int segment = (int) (offset / SEGMENT_SIZE);
+        int start = (int) (offset % SEGMENT_SIZE);
+        if (start + 4 <= segments[segment].capacity()) {
+            return segments[segment].getInt(start);
+        }
+        return slice(offset, 4).getInt();
+    }
+
+    /** Returns the big-endian long at [offset]. */
+    long getLong(long offset) {
+        int segment = (int) (offset / SEGMENT_SIZE);
+        int start = (int) (offset % SEGMENT_SIZE);
+        if (start + 8 <= segments[segment].capacity()) {
+            return segments[segment].getLong(start);
+        }
+        return slice(offset, 8).getLong();
+    }
+
+    /** Copies [length] bytes starting at [offset] into [dest], starting at [destOffset]. */
+    void get(long offset, byte[] dest, int destOffset, int length) {
+        slice(offset, length).get(dest, destOffset, length);
+    }
+}
@@ -0,0 +1,319 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** An index of the messages of the commits in a commit directory, used by find to look
+ * up commits by message without reading every commit.
+ *
+ * Each commit has one record keyed by a hash of its whole message, and one record keyed
+ * by a hash of each distinct word of its message (see words). A record is the 8-byte key
+ * followed by the commit's 20-byte SHA1.
+ *
+ * Index file layout ([commit directory]/messages):
+ *      magic "GMSG", version;
+ *      runs of records, each made of its number of records followed by the records,
+ *      sorted by key, then by SHA1.
+ *
+ * The commits of each command are added as a new run at the end of the file, which is
+ * first merged with the last runs as long as they are no more than twice its size. Runs
+ * then shrink geometrically along the file, so there are at most about log2(N) of them,
+ * each record is rewritten about log2(N) times over the life of the index, and a lookup
+ * is one binary search per run over the mapped file. Keys are hashes, and gc deletes
+ * commits, so every match is checked against the commit itself. An index that is missing
+ * or unreadable is rebuilt from all the commits of the directory, and gc rebuilds it to
+ * drop the commits it deleted.
+ */
+class MessageIndex {
+
+    /** Name of the index file inside a commit directory. */
+    private static final String NAME = "messages";
+
+    /** First int of the file: "GMSG". */
+    private static final int MAGIC = 0x474d5347;
+
+    /** Version of the layout above. */
+    private static final int VERSION = 1;
+
+    /** Size of the header. */
+    private static final int HEADER_SIZE = 8;
+
+    /** Length of a binary SHA1. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** Size of a record. */
+    private static final int RECORD_SIZE = 8 + ID_LENGTH;
+
+    /** Records that the commits with the given SHA1s were added to [commDir]. */
+    static synchronized void add(File commDir, Collection<String> shas) {
+        File file = Utils.join(commDir, NAME);
+        if (shas.isEmpty()) {
+            return;
+        }
+        if (!file.isFile()) {
+            rebuild(commDir);
+            return;
+        }
+        ByteBuffer run = records(commDir, shas);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            List<Long> starts = runs(channel);
+            if (starts == null) {
+                lock.release();
+                rebuild(commDir);
+                return;
+            }
+            long end = starts.remove(starts.size() - 1);
+            // Merges the last runs while they are no more than twice as large as the new one.
+            while (!starts.isEmpty()) {
+                long start = starts.get(starts.size() - 1);
+                if (end - start - 4 > 2L * run.capacity()) {
+                    break;
+                }
+                ByteBuffer last = ByteBuffer.allocate((int) (end - start - 4));
+                readFully(channel, last, start + 4);
+                run = merge(last, run);
+                end = start;
+                starts.remove(starts.size() - 1);
+            }
+            ByteBuffer data = ByteBuffer.allocate(4 + run.capacity());
+            data.putInt(run.capacity() / RECORD_SIZE).put(run.rewind()).flip();
+            channel.truncate(end);
+            while (data.hasRemaining()) {
+                end += channel.write(data, end);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Rewrites the index of [commDir] from all the commits it holds, as one run. */
+    static synchronized void rebuild(File commDir) {
+        ByteBuffer run = records(commDir, Commit.listAll(commDir));
+        ByteBuffer data = ByteBuffer.allocate(HEADER_SIZE + 4 + run.capacity());
+        data.putInt(MAGIC).putInt(VERSION).putInt(run.capacity() / RECORD_SIZE)
+                .put(run.rewind());
+        try {
+            Path temp = Files.createTempFile(commDir.toPath(), "tmp_", null);
+            Files.write(temp, data.array());
+            Files.move(temp, Utils.join(commDir, NAME).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the sorted SHA1s of the commits of [commDir] whose message is [message]. */
+    static List<String> withMessage(File commDir, String message) {
+        List<String> result = new ArrayList<>();
+        for (String sha : lookup(commDir, key("message", message))) {
+            if (Commit.exists(sha, commDir)
+                    && Commit.getFromSHA(sha, commDir).hasMessage(message)) {
+                result.add(sha);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the sorted SHA1s of the commits of [commDir] whose message holds every word
+     * of [text] (see words). Returns none if [text] has no words. */
+    static List<String> withWords(File commDir, String text) {
+        Set<String> wanted = words(text);
+        Set<String> candidates = null;
+        for (String word : wanted) {
+            Set<String> matches = lookup(commDir, key("word", word));
+            if (candidates == null) {
+                candidates = matches;
+            } else {
+                candidates.retainAll(matches);
+            }
+            if (candidates.isEmpty()) {
+                break;
+            }
+        }
+        List<String> result = new ArrayList<>();
+        if (candidates == null) {
+            return result;
+        }
+        for (String sha : candidates) {
+            if (Commit.exists(sha, commDir) && words(Commit.getFromSHA(sha, commDir)
+                    .getMessage()).containsAll(wanted)) {
+                result.add(sha);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the distinct words of [text]: its longest runs of letters and digits, in
+     * lower case. */
+    static Set<String> words(String text) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the key of the records of [text], of the given kind. */
+    private static long key(String kind, String text) {
+        return Long.parseUnsignedLong(Utils.sha1(kind, "\0", text).substring(0, 16), 16);
+    }
+
+    /** Returns the records of the commits with the given SHA1s, read from [commDir] in
+     * parallel (see CommitScanner), as one sorted run. */
+    private static ByteBuffer records(File commDir, Collection<String> shas) {
+        List<byte[]> records = new ArrayList<>();
+        Iterator<Commit> commits = CommitScanner.read(shas.iterator(), commDir);
+        while (commits.hasNext()) {
+            Commit commit = commits.next();
+            byte[] id = Utils.fromHex(commit.getSHA1());
+            String message = commit.getMessage();
+            records.add(record(key("message", message), id));
+            for (String word : words(message)) {
+                records.add(record(key("word", word), id));
+            }
+        }
+        records.sort(Arrays::compareUnsigned);
+        ByteBuffer run = ByteBuffer.allocate(records.size() * RECORD_SIZE);
+        for (byte[] record : records) {
+            run.put(record);
+        }
+        return run;
+    }
+
+    /** Returns a record of the commit with the binary SHA1 [id], under [key]. Records
+     * compare as their unsigned bytes do, which orders them by key then by SHA1. */
+    private static byte[] record(long key, byte[] id) {
+        return ByteBuffer.allocate(RECORD_SIZE).putLong(key).put(id).array();
+    }
+
+    /** Returns the sorted runs [first] and [second] merged into one. */
+    private static ByteBuffer merge(ByteBuffer first, ByteBuffer second) {
+        ByteBuffer result = ByteBuffer.allocate(first.capacity() + second.capacity());
+        byte[] a = new byte[RECORD_SIZE];
+        byte[] b = new byte[RECORD_SIZE];
+        first.rewind();
+        second.rewind();
+        while (first.hasRemaining() || second.hasRemaining()) {
+            if (!second.hasRemaining()) {
+                result.put(first);
+            } else if (!first.hasRemaining()) {
+                result.put(second);
+            } else {
+                first.get(first.position(), a);
+                second.get(second.position(), b);
+                ByteBuffer next = Arrays.compareUnsigned(a, b) <= 0 ? first : second;
+                result.put(next.array(), next.position(), RECORD_SIZE);
+                next.position(next.position() + RECORD_SIZE);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the offsets at which the runs of the index read by [channel] start, followed
+     * by the offset at which the last complete run ends, or null if it is not an index.
+     * Truncates a partial run left by an interrupted write. */
+    private static List<Long> runs(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (size < HEADER_SIZE || channel.read(header, 0) < HEADER_SIZE
+                || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            return null;
+        }
+        List<Long> starts = new ArrayList<>();
+        long offset = HEADER_SIZE;
+        ByteBuffer count = ByteBuffer.allocate(4);
+        while (offset + 4 <= size) {
+            count.clear();
+            readFully(channel, count, offset);
+            long end = offset + 4 + (long) count.getInt(0) * RECORD_SIZE;
+            if (end > size) {
+                break;
+            }
+            starts.add(offset);
+            offset = end;
+        }
+        if (offset < size) {
+            channel.truncate(offset);
+        }
+        starts.add(offset);
+        return starts;
+    }
+
+    /** Returns the SHA1s of the records of [commDir]'s index under [key]. */
+    private static Set<String> lookup(File commDir, long key) {
+        File file = Utils.join(commDir, NAME);
+        if (!file.isFile()) {
+            rebuild(commDir);
+        }
+        Set<String> result = new TreeSet<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // Shared with other readers; released when the channel is closed.
+            channel.lock(0, Long.MAX_VALUE, true);
+            long size = channel.size();
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < HEADER_SIZE || map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                return result;
+            }
+            int offset = HEADER_SIZE;
+            while (offset + 4 <= size) {
+                int count = map.getInt(offset);
+                int first = offset + 4;
+                if (first + (long) count * RECORD_SIZE > size) {
+                    break;
+                }
+                // Finds the first record of the run not less than the key.
+                int low = 0;
+                int high = count;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (Long.compareUnsigned(map.getLong(first + mid * RECORD_SIZE), key) < 0) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                byte[] id = new byte[ID_LENGTH];
+                for (int i = low; i < count && map.getLong(first + i * RECORD_SIZE) == key;
+                     i++) {
+                    map.get(first + i * RECORD_SIZE + 8, id);
+                    result.add(Utils.toHex(id, 0, ID_LENGTH));
+                }
+                offset = first + count * RECORD_SIZE;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Fills [buffer] from [channel], starting at [offset]. */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("message index shrank while being read");
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/** A background process that watches the working directory and its subdirectories, so
+ * that commands can learn which working files changed without listing and stat-ing all
+ * of them.
+ *
+ * The monitor appends one line per event to a log (.gitlet/monitor/log):
+ *      the first line is the session of the monitor, new each time it starts;
+ *      "+[path]" means that the file or directory at that path, relative to the working
+ *      directory, was created, modified or deleted;
+ *      "!" means that events were lost, so the working directory must be scanned;
+ *      "#[cookie]" means that every event before the cookie was created is logged.
+ *
+ * A command remembers the session and the position in the log up to which it applied
+ * the changes (see StatCache). To catch up, it creates a cookie file in the monitor's
+ * directory, waits for the monitor to log it, and reads the file names logged since.
+ * If no monitor is running, the session changed, or events were lost, the command has
+ * to scan the working directory instead.
+ *
+ * The monitor holds a lock on .gitlet/monitor/lock while it runs, and stops once a file
+ * named "stop" is created in its directory. The log is started over, under a new
+ * session, once it grows larger than MAX_LOG_SIZE.
+ */
+public class Monitor {
+
+    /** The current working directory. */
+    private static final File CWD = Paths.CWD;
+
+    /** Directory of the monitor's files. */
+    private static final File MONITOR_DIR = Paths.MONITOR_DIR;
+
+    /** File locked by the running monitor. */
+    private static final File LOCK = Utils.join(MONITOR_DIR, "lock");
+
+    /** Log of the changed file names. */
+    private static final File LOG = Utils.join(MONITOR_DIR, "log");
+
+    /** File whose creation stops the monitor. */
+    private static final String STOP = "stop";
+
+    /** Prefix of the names of cookie files. */
+    private static final String COOKIE = "cookie-";
+
+    /** Size past which the log is started over. */
+    private static final long MAX_LOG_SIZE = 1 << 20;
+
+    /** How long a command waits for the monitor to log its cookie, in milliseconds. */
+    private static final long SYNC_TIMEOUT = 1000;
+
+    /** File names changed in the working directory since a position of the log. */
+    static class Changes {
+        /** Session of the monitor. */
+        String session;
+        /** Position of the log up to which the changes were read. */
+        long offset;
+        /** Names of the files that changed. */
+        final Set<String> paths = new HashSet<>();
+        /** False if some changes may be missing, so that the working directory must be
+         * scanned. */
+        boolean complete = true;
+    }
+
+    /** Starts a monitor for the current repository in the background, unless one is
+     * already running. */
+    static void start() {
+        if (isRunning()) {
+            Utils.printAndExit("A monitor is already running.");
+        }
+        MONITOR_DIR.mkdirs();
+        Utils.join(MONITOR_DIR, STOP).delete();
+        Utils.runInBackground(CWD, "monitor", "--run");
+        try {
+            // Waits until the monitor has started its log, so the next command can use it.
+            long deadline = System.currentTimeMillis() + 5 * SYNC_TIMEOUT;
+            while (!isRunning() || !LOG.isFile()) {
+                if (System.currentTimeMillis() > deadline) {
+                    Utils.printAndExit("The monitor did not start.");
+                }
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Stops the running monitor of the current repository, if any. */
+    static void stop() {
+        if (!isRunning()) {
+            Utils.printAndExit("No monitor is running.");
+        }
+        Utils.writeContents(Utils.join(MONITOR_DIR, STOP), "");
+    }
+
+    /** Returns true if a monitor is running for the current repository. */
+    static boolean isRunning() {
+        if (!LOCK.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(LOCK.toPath(), StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Watches the working directory until the monitor is stopped. */
+    static void run() {
+        MONITOR_DIR.mkdirs();
+        try (FileChannel channel = FileChannel.open(LOCK.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+             WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                Utils.printAndExit("A monitor is already running.");
+            }
+            Map<WatchKey, Path> dirs = new HashMap<>();
+            register(CWD.toPath(), watcher, dirs);
+            WatchKey monitorKey = MONITOR_DIR.toPath().register(watcher, ENTRY_CREATE);
+            // Events are only logged once the watches are registered, so none is missed.
+            FileOutputStream log = startLog();
+            while (true) {
+                WatchKey key = watcher.poll(1, TimeUnit.SECONDS);
+                if (key == null) {
+                    // The deletion of the working directory is never reported, since this
+                    // process holds it as its own working directory.
+                    if (!MONITOR_DIR.isDirectory()) {
+                        break;
+                    }
+                    continue;
+                }
+                StringBuilder lines = new StringBuilder();
+                boolean stop = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        lines.append("!\n");
+                        continue;
+                    }
+                    String name = ((Path) event.context()).toString();
+                    if (key != monitorKey) {
+                        Path path = dirs.get(key).resolve(name);
+                        if (path.equals(Paths.GITLET_DIR.toPath())) {
+                            continue;
+                        }
+                        // A new directory is watched from now on; the files it already holds
+                        // are found by the commands, which list any directory logged.
+                        if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                            register(path, watcher, dirs);
+                        }
+                        String relative = CWD.toPath().relativize(path).toString();
+                        lines.append('+').append(relative.replace(File.separatorChar, '/'))
+                                .append('\n');
+                    } else if (name.equals(STOP)) {
+                        stop = true;
+                    } else if (name.startsWith(COOKIE)) {
+                        lines.append('#').append(name).append('\n');
+                        Utils.join(MONITOR_DIR, name).delete();
+                    }
+                }
+                log.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                if (!key.reset() && CWD.toPath().equals(dirs.remove(key)) || stop) {
+                    break;
+                }
+                if (LOG.length() > MAX_LOG_SIZE) {
+                    log.close();
+                    log = startLog();
+                }
+            }
+            log.close();
+            Utils.join(MONITOR_DIR, STOP).delete();
+            LOG.delete();
+        } catch (IOException | ClosedWatchServiceException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Watches the directory [dir] and its subdirectories, except .gitlet, recording the
+     * directory of each watch in DIRS. Directories deleted meanwhile are skipped. */
+    private static void register(Path dir, WatchService watcher, Map<WatchKey, Path> dirs)
+            throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path subdir, BasicFileAttributes attrs) {
+                if (subdir.equals(Paths.GITLET_DIR.toPath())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                try {
+                    dirs.put(subdir.register(watcher, ENTRY_CREATE, ENTRY_DELETE,
+                            ENTRY_MODIFY), subdir);
+                } catch (IOException excp) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException excp) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** Starts the log over under a new session, and returns a stream appending to it. */
+    private static FileOutputStream startLog() throws IOException {
+        String session = Long.toHexString(ProcessHandle.current().pid()) + "-"
+                + Long.toHexString(System.nanoTime());
+        File temp = Utils.join(MONITOR_DIR, "log.tmp");
+        Utils.writeContents(temp, session + "\n");
+        Files.move(temp.toPath(), LOG.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        return new FileOutputStream(LOG, true);
+    }
+
+    /** Returns the file names changed since position [offset] of the log of [session],
+     * or null if no monitor is running. The changes are incomplete if [session] is not
+     * the current one, if events were lost, or if the monitor did not respond in time. */
+    static Changes changesSince(String session, long offset) {
+        if (!isRunning()) {
+            return null;
+        }
+        Changes changes = new Changes();
+        String cookie = COOKIE + ProcessHandle.current().pid() + "-" + System.nanoTime();
+        File cookieFile = Utils.join(MONITOR_DIR, cookie);
+        Utils.writeContents(cookieFile, "");
+        long deadline = System.currentTimeMillis() + SYNC_TIMEOUT;
+        try {
+            while (!readLog(session, offset, cookie, changes)) {
+                if (!changes.complete || System.currentTimeMillis() > deadline) {
+                    changes.complete = false;
+                    break;
+                }
+                Thread.sleep(1);
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            changes.complete = false;
+        } finally {
+            cookieFile.delete();
+        }
+        return changes;
+    }
+
+    /** Reads the log into [changes], from position [offset] up to the line of [cookie].
+     * Returns true if that line was found. If the log is not that of [session], only
+     * reads the current session and the end of the log, and marks [changes] as
+     * incomplete. */
+    private static boolean readLog(String session, long offset, String cookie,
+                                   Changes changes) {
+        byte[] contents;
+        int start;
+        try (RandomAccessFile in = new RandomAccessFile(LOG, "r")) {
+            changes.session = in.readLine();
+            if (changes.session == null) {
+                return false;
+            }
+            if (!changes.session.equals(session)) {
+                offset = in.getFilePointer();
+                changes.complete = false;
+            }
+            if (offset > in.length()) {
+                offset = in.length();
+                changes.complete = false;
+            }
+            contents = new byte[(int) (in.length() - offset)];
+            in.seek(offset);
+            in.readFully(contents);
+        } catch (IOException excp) {
+            changes.complete = false;
+            return false;
+        }
+        changes.paths.clear();
+        start = 0;
+        for (int i = 0; i < contents.length; i++) {
+            if (contents[i] != '\n') {
+                continue;
+            }
+            String line = new String(contents, start, i - start, StandardCharsets.UTF_8);
+            start = i + 1;
+            if (line.startsWith("+")) {
+                changes.paths.add(line.substring(1));
+            } else if (line.equals("!")) {
+                changes.complete = false;
+            } else if (line.equals("#" + cookie)) {
+                changes.offset = offset + start;
+                return true;
+            }
+        }
+        // A command that could not sync still learns where the log ends, so that it can
+        // scan the working directory and then catch up from there.
+        changes.offset = offset + start;
+        return false;
+    }
+}
@@ -0,0 +1,151 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** A cache of decoded objects - commits, Trees, snapshots and the contents of small
+ * Blobs - bounded by an estimate of the memory they take, that evicts the least
+ * recently used objects first.
+ *
+ * Objects are named by SHA1, so an object never changes: an entry only goes stale if
+ * the object is deleted, which packing and gc only do to objects no command reaches any
+ * more. Entries are keyed by the kind of object, the directory it was read from and its
+ * SHA1, since several repositories (see the remote commands) may hold the same object.
+ *
+ * The cache counts its hits, misses and evictions, by kind of object (see RepoContext).
+ * Cached objects are shared by every caller, so they must not be modified.
+ */
+class ObjectCache {
+
+    /** Kind of the entries holding Commits. */
+    static final int COMMIT = 0;
+
+    /** Kind of the entries holding Trees. */
+    static final int TREE = 1;
+
+    /** Kind of the entries holding snapshots: all the files under a root Tree. */
+    static final int SNAPSHOT = 2;
+
+    /** Kind of the entries holding the contents of Blobs. */
+    static final int BLOB = 3;
+
+    /** Names of the kinds of entries, as printed in stats. */
+    private static final String[] KINDS = {"commits", "trees", "snapshots", "blobs"};
+
+    /** An object of the cache, with its kind and estimated size. */
+    private static class Entry {
+        /** Kind of the object. */
+        final int kind;
+        /** The object. */
+        final Object value;
+        /** Estimated size of the object in memory, in bytes. */
+        final long weight;
+
+        Entry(int kind, Object value, long weight) {
+            this.kind = kind;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /** The cached objects, least recently used first. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    /** Upper bound on the total weight of the entries. */
+    private long capacity;
+
+    /** Total weight of the entries. */
+    private long size;
+
+    /** Number of lookups that found their object, by kind. */
+    private final long[] hits = new long[KINDS.length];
+
+    /** Number of lookups that did not find their object, by kind. */
+    private final long[] misses = new long[KINDS.length];
+
+    /** Number of objects evicted to make room for others, by kind. */
+    private final long[] evictions = new long[KINDS.length];
+
+    /** Creates an empty cache holding at most [capacity] bytes of objects. */
+    ObjectCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /** Returns the key of the object of the given kind with the given SHA1, read from
+     * [dir]. */
+    private static String key(int kind, File dir, String sha) {
+        return kind + dir.getPath() + File.separator + sha;
+    }
+
+    /** Returns the cached object of the given kind with the given SHA1, read from [dir],
+     * or null if it is not cached. */
+    synchronized Object get(int kind, File dir, String sha) {
+        Entry entry = entries.get(key(kind, dir, sha));
+        if (entry == null) {
+            misses[kind] += 1;
+            return null;
+        }
+        hits[kind] += 1;
+        return entry.value;
+    }
+
+    /** Caches [value], the object of the given kind with the given SHA1, read from [dir],
+     * whose size in memory is about [weight] bytes. Evicts the least recently used
+     * objects to make room for it. Objects larger than a quarter of the cache are not
+     * cached, so that one does not flush all others. */
+    synchronized void put(int kind, File dir, String sha, Object value, long weight) {
+        if (weight > capacity / 4) {
+            return;
+        }
+        Entry old = entries.put(key(kind, dir, sha), new Entry(kind, value, weight));
+        size += weight - (old == null ? 0 : old.weight);
+        evict();
+    }
+
+    /** Sets the upper bound on the total weight of the entries to [capacity], evicting
+     * the least recently used objects if they take more. */
+    synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        evict();
+    }
+
+    /** Evicts the least recently used objects until the entries fit in the capacity. */
+    private void evict() {
+        Iterator<Entry> oldest = entries.values().iterator();
+        while (size > capacity && oldest.hasNext()) {
+            Entry evicted = oldest.next();
+            size -= evicted.weight;
+            evictions[evicted.kind] += 1;
+            oldest.remove();
+        }
+    }
+
+    /** Drops every cached object. */
+    synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /** Sets the counts of hits, misses and evictions back to zero. */
+    synchronized void resetCounts() {
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            hits[kind] = 0;
+            misses[kind] = 0;
+            evictions[kind] = 0;
+        }
+    }
+
+    /** Returns the counts of hits, misses and evictions of each kind of object, one kind
+     * per line, followed by the memory used. */
+    synchronized String stats() {
+        StringBuilder result = new StringBuilder();
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            result.append(String.format("Cached %s: %d hits, %d misses, %d evictions.%n",
+                    KINDS[kind], hits[kind], misses[kind], evictions[kind]));
+        }
+        result.append(String.format("Cache holds %d objects in %.1f of %.1f MB.",
+                entries.size(), size / 1e6, capacity / 1e6));
+        return result.toString();
+    }
+}
@@ -0,0 +1,890 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Represents a Gitlet pack: many objects appended into one large file, plus an index
+ * that maps object SHA1s to their position inside it.
+ *
+ * Pack file layout ([name].pack):
+ *      magic "GPAK", version, number of objects;
+ *      for each object: a type byte, the payload length as a varint and the payload,
+ *      which may be a delta against another object of the same pack (see DELTA_FLAG);
+ *      the SHA1 of everything before it.
+ *
+ * Index file layout ([name].idx):
+ *      magic "GIDX", version, number of objects;
+ *      a 256-entry fan-out table, where entry [b] is the number of objects whose
+ *      SHA1 starts with a byte less than or equal to b;
+ *      the sorted 20-byte SHA1s, then a type byte, then an 8-byte payload offset, then an
+ *      8-byte payload length for each SHA1 (in the same order);
+ *      the SHA1 of the pack file.
+ *
+ * Both files are memory-mapped (see MappedFile), so looking up an object costs one
+ * binary search over the mapped index (narrowed by the fan-out table) and a read of
+ * the mapped pack, plus the reads of its delta bases, if any.
+ * Delta chains are at most MAX_DELTA_DEPTH long, and reconstructed bases are cached.
+ */
+public class Pack {
+
+    /** Type of pack entries holding Blobs. */
+    static final byte BLOB = 1;
+
+    /** Type of pack entries holding Commits. */
+    static final byte COMMIT = 2;
+
+    /** Type of pack entries holding the chunk lists of chunked Blobs (see Blob). */
+    static final byte CHUNK_LIST = 3;
+
+    /** Type of pack entries holding chunks of chunked Blobs. Chunks are never stored as
+     * deltas: unchanged chunks are already shared between versions. */
+    static final byte CHUNK = 4;
+
+    /** Type of pack entries holding Trees (see Tree). */
+    static final byte TREE = 5;
+
+    /** Flag set on the type of entries stored as a delta against another entry of the
+     * same pack. The payload of such entries is the SHA1 of the base followed by a Delta. */
+    static final byte DELTA_FLAG = (byte) 0x80;
+
+    /** Number of preceding candidates tried as delta bases for each Blob. */
+    private static final int DELTA_WINDOW = 10;
+
+    /** Objects at least this long are never stored as deltas, so they are never read
+     * whole into memory while packing. */
+    private static final long BIG_OBJECT = 512L << 20;
+
+    /** Upper bound on the total size of the deltas found by deltify and kept in memory
+     * until they are written. The others are computed again when they are written. */
+    private static final long DELTA_CACHE_BYTES = 32L << 20;
+
+    /** Longest chain of deltas that has to be applied to read one object. */
+    private static final int MAX_DELTA_DEPTH = 10;
+
+    /** Upper bound on the total size of the reconstructed delta bases kept in memory. */
+    private static final long BASE_CACHE_BYTES = 32L << 20;
+
+    /** Recently reconstructed delta bases, by pack name and position. */
+    private static final LinkedHashMap<String, byte[]> BASE_CACHE =
+            new LinkedHashMap<>(64, 0.75f, true);
+
+    /** Total size of the entries in BASE_CACHE. */
+    private static long baseCacheSize;
+
+    /** Magic number at the start of pack files ("GPAK"). */
+    private static final int PACK_MAGIC = 0x4750414b;
+
+    /** Magic number at the start of index files ("GIDX"). */
+    private static final int IDX_MAGIC = 0x47494458;
+
+    /** Version of the pack and index formats. */
+    private static final int VERSION = 1;
+
+    /** Length of a binary SHA1. */
+    private static final int ID_LENGTH = 20;
+
+    /** Packs already loaded by this process, by pack directory. */
+    private static final HashMap<File, List<Pack>> LOADED = new HashMap<>();
+
+    /** Stat data of each directory of LOADED when its packs were listed, unless it cannot
+     * tell whether the directory changed since (see Server.settled). */
+    private static final HashMap<File, StatCache.Entry> LOADED_STATS = new HashMap<>();
+
+    /** Offset of the fan-out table inside index files. */
+    private static final int FANOUT_OFFSET = 12;
+
+    /** Offset of the sorted SHA1s inside index files. */
+    private static final int IDS_OFFSET = FANOUT_OFFSET + 256 * 4;
+
+    /** The pack file. */
+    private final File packFile;
+
+    /** Shared mapping of the pack file. */
+    private final MappedFile pack;
+
+    /** Shared mapping of the index file. */
+    private final MappedFile idx;
+
+    /** Number of objects in this pack. */
+    private final int count;
+
+    /** Offsets of the types, payload offsets and payload lengths inside the index. */
+    private final long typesOffset;
+    private final long offsetsOffset;
+    private final long lengthsOffset;
+
+    /** Maps the given pack and its index. Lookups then read the mapped index directly. */
+    private Pack(File packFile, File idxFile) {
+        this.packFile = packFile;
+        idx = MappedFile.acquire(idxFile);
+        if (idx.size() < IDS_OFFSET || idx.getInt(0) != IDX_MAGIC
+                || idx.getInt(4) != VERSION) {
+            idx.release();
+            throw Utils.error("Bad pack index %s.", idxFile.getName());
+        }
+        count = idx.getInt(8);
+        typesOffset = IDS_OFFSET + (long) count * ID_LENGTH;
+        offsetsOffset = typesOffset + count;
+        lengthsOffset = offsetsOffset + 8L * count;
+        pack = MappedFile.acquire(packFile);
+    }
+
+    /** Returns the name of the pack file. */
+    String name() {
+        return packFile.getName();
+    }
+
+    /** Returns true if the SHA1 at the end of the pack file matches the SHA1 of the rest
+     * of the file, computed with [md]. */
+    boolean checksumMatches(MessageDigest md) {
+        long end = pack.size() - ID_LENGTH;
+        for (long offset = 0; offset < end; offset += LooseObject.BUFFER_SIZE) {
+            md.update(pack.slice(offset, (int) Math.min(LooseObject.BUFFER_SIZE, end - offset)));
+        }
+        byte[] expected = new byte[ID_LENGTH];
+        pack.get(end, expected, 0, ID_LENGTH);
+        return MessageDigest.isEqual(md.digest(), expected);
+    }
+
+    /** Returns the SHA1 at the end of the pack file, in binary. */
+    byte[] checksum() {
+        byte[] checksum = new byte[ID_LENGTH];
+        pack.get(pack.size() - ID_LENGTH, checksum, 0, ID_LENGTH);
+        return checksum;
+    }
+
+    /** Returns the time the pack file was last modified. */
+    long lastModified() {
+        return packFile.lastModified();
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the number of objects whose SHA1 starts with a byte at most [b]. */
+    private int fanout(int b) {
+        return idx.getInt(FANOUT_OFFSET + 4L * b);
+    }
+
+    /** Returns the position of the given binary SHA1 in this pack, or -1 if absent. */
+    int indexOf(byte[] id) {
+        int first = id[0] & 0xff;
+        int low = first == 0 ? 0 : fanout(first - 1);
+        int high = fanout(first) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareId(mid, id);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the SHA1 at position [pos] with the given binary SHA1. */
+    private int compareId(int pos, byte[] id) {
+        long start = IDS_OFFSET + (long) pos * ID_LENGTH;
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int cmp = Integer.compare(idx.get(start + i) & 0xff, id[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the hexadecimal SHA1 at position [pos]. */
+    String idAt(int pos) {
+        byte[] id = new byte[ID_LENGTH];
+        idx.get(IDS_OFFSET + (long) pos * ID_LENGTH, id, 0, ID_LENGTH);
+        return Utils.toHex(id, 0, ID_LENGTH);
+    }
+
+    /** Returns the type byte stored for the object at position [pos]. */
+    private byte storedTypeAt(int pos) {
+        return idx.get(typesOffset + pos);
+    }
+
+    /** Returns the type of the object at position [pos]. */
+    byte typeAt(int pos) {
+        return (byte) (storedTypeAt(pos) & ~DELTA_FLAG);
+    }
+
+    /** Returns true if the object at position [pos] is stored as a delta. */
+    boolean isDelta(int pos) {
+        return (storedTypeAt(pos) & DELTA_FLAG) != 0;
+    }
+
+    /** Returns the full payload of the object at position [pos], applying its chain of
+     * deltas if needed. */
+    byte[] load(int pos) {
+        ByteBuffer stored = slice(pos);
+        byte[] raw = new byte[stored.remaining()];
+        stored.get(raw);
+        if (!isDelta(pos)) {
+            return raw;
+        }
+        int basePos = indexOf(Arrays.copyOf(raw, ID_LENGTH));
+        if (basePos < 0) {
+            throw Utils.error("Missing delta base in pack %s.", packFile.getName());
+        }
+        String key = packFile.getName() + ":" + basePos;
+        byte[] base = cachedBase(key);
+        if (base == null) {
+            base = load(basePos);
+            cacheBase(key, base);
+        }
+        return Delta.apply(base, raw, ID_LENGTH);
+    }
+
+    /** Returns the full payload of the object at position [pos]. For objects stored whole,
+     * this is a read-only view of the mapped pack, without any copying. */
+    ByteBuffer buffer(int pos) {
+        if (!isDelta(pos)) {
+            return slice(pos);
+        }
+        return ByteBuffer.wrap(load(pos));
+    }
+
+    /** Returns the cached base with the given key, or null. */
+    private static synchronized byte[] cachedBase(String key) {
+        return BASE_CACHE.get(key);
+    }
+
+    /** Caches a reconstructed base, evicting the least recently used ones if needed. */
+    private static synchronized void cacheBase(String key, byte[] base) {
+        if (base.length > BASE_CACHE_BYTES / 4 || BASE_CACHE.containsKey(key)) {
+            return;
+        }
+        BASE_CACHE.put(key, base);
+        baseCacheSize += base.length;
+        Iterator<byte[]> oldest = BASE_CACHE.values().iterator();
+        while (baseCacheSize > BASE_CACHE_BYTES && oldest.hasNext()) {
+            baseCacheSize -= oldest.next().length;
+            oldest.remove();
+        }
+    }
+
+    /** Returns the number of bytes the object at position [pos] occupies in the pack. */
+    long storedLength(int pos) {
+        return idx.getLong(lengthsOffset + 8L * pos);
+    }
+
+    /** Returns a view of the stored payload of the object at position [pos] inside the
+     * mapped pack. Throws a GitletException if it does not fit in one buffer. */
+    private ByteBuffer slice(int pos) {
+        long offset = idx.getLong(offsetsOffset + 8L * pos);
+        long length = storedLength(pos);
+        if (offset + length > pack.size()) {
+            throw Utils.error("Truncated pack %s.", packFile.getName());
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw Utils.error("Object %s is too large to read.", idAt(pos));
+        }
+        return pack.slice(offset, (int) length);
+    }
+
+    /** Returns the length of the full payload of the object at position [pos]. For
+     * deltas, it is read from the header of the delta (see Delta). */
+    long sizeAt(int pos) {
+        if (!isDelta(pos)) {
+            return storedLength(pos);
+        }
+        ByteBuffer stored = slice(pos);
+        stored.position(ID_LENGTH);
+        readVarint(stored);
+        return readVarint(stored);
+    }
+
+    /** Reads an unsigned LEB128 varint from [data], advancing past it. */
+    private static long readVarint(ByteBuffer data) {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data.get() & 0xff;
+            result |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
+    /** Writes the full payload of the object at position [pos] to OUT. Objects stored
+     * whole are copied from the mapped pack a buffer at a time. */
+    private void copy(int pos, OutputStream out) throws IOException {
+        if (isDelta(pos)) {
+            out.write(load(pos));
+            return;
+        }
+        long offset = idx.getLong(offsetsOffset + 8L * pos);
+        long length = storedLength(pos);
+        if (offset + length > pack.size()) {
+            throw Utils.error("Truncated pack %s.", packFile.getName());
+        }
+        byte[] buffer = new byte[(int) Math.min(length, LooseObject.BUFFER_SIZE)];
+        for (long done = 0; done < length; done += buffer.length) {
+            int n = (int) Math.min(buffer.length, length - done);
+            pack.slice(offset + done, n).get(buffer, 0, n);
+            out.write(buffer, 0, n);
+        }
+    }
+
+    /** Returns the pack directory of the repository that keeps loose objects in
+     * [objectDir] (its blobs or commits directory). */
+    static File dirFor(File objectDir) {
+        return Utils.join(objectDir.getParentFile(), "packs");
+    }
+
+    /** Returns the packs inside the given directory, loading their indexes if needed. */
+    static synchronized List<Pack> packsIn(File packDir) {
+        List<Pack> packs = LOADED.get(packDir);
+        if (packs == null) {
+            packs = new ArrayList<>();
+            StatCache.Entry stat = StatCache.stat(packDir);
+            if (stat != null && Server.settled(stat)) {
+                LOADED_STATS.put(packDir, stat);
+            }
+            List<String> names = Utils.plainFilenamesIn(packDir);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        String base = name.substring(0, name.length() - 4);
+                        File packFile = Utils.join(packDir, base + ".pack");
+                        if (packFile.isFile()) {
+                            packs.add(new Pack(packFile, Utils.join(packDir, name)));
+                        }
+                    }
+                }
+            }
+            LOADED.put(packDir, packs);
+        }
+        return packs;
+    }
+
+    /** Returns the payload of the object with the given SHA1 from the packs inside
+     * [packDir], or null if no pack holds it. */
+    static byte[] find(File packDir, String sha) {
+        if (sha.length() != Utils.UID_LENGTH) {
+            return null;
+        }
+        byte[] id = Utils.fromHex(sha);
+        for (Pack pack : packsIn(packDir)) {
+            int pos = pack.indexOf(id);
+            if (pos >= 0) {
+                return pack.load(pos);
+            }
+        }
+        return null;
+    }
+
+    /** Returns the payload of the object with the given SHA1 of the repository that keeps
+     * loose objects of its type in [objectDir], whether it is packed or loose.
+     * Returns null if there is no such object. */
+    static byte[] readObject(File objectDir, String sha) {
+        byte[] packed = find(dirFor(objectDir), sha);
+        if (packed != null) {
+            return packed;
+        }
+        File loose = LooseObject.fileFor(objectDir, sha);
+        return loose.isFile() ? LooseObject.readAll(loose) : null;
+    }
+
+    /** Returns the length of the payload of the object with the given SHA1 of the
+     * repository that keeps loose objects of its type in [objectDir], whether it is packed
+     * or loose, without reading the payload. */
+    static long sizeOf(File objectDir, String sha) {
+        byte[] id = Utils.fromHex(sha);
+        for (Pack pack : packsIn(dirFor(objectDir))) {
+            int pos = pack.indexOf(id);
+            if (pos >= 0) {
+                return pack.sizeAt(pos);
+            }
+        }
+        return LooseObject.sizeOf(LooseObject.fileFor(objectDir, sha));
+    }
+
+    /** Writes the payload of the object with the given SHA1 of the repository that keeps
+     * loose objects of its type in [objectDir] to OUT, whether it is packed or loose.
+     * Unless it is packed as a delta, it is streamed, never held in memory whole. */
+    static void copyObject(File objectDir, String sha, OutputStream out) throws IOException {
+        byte[] id = Utils.fromHex(sha);
+        for (Pack pack : packsIn(dirFor(objectDir))) {
+            int pos = pack.indexOf(id);
+            if (pos >= 0) {
+                pack.copy(pos, out);
+                return;
+            }
+        }
+        try (InputStream in = LooseObject.open(LooseObject.fileFor(objectDir, sha))) {
+            in.transferTo(out);
+        }
+    }
+
+    /** Returns the type of the object with the given SHA1 of the repository that keeps
+     * loose objects of its kind in [objectDir], whether it is packed or loose.
+     * Returns -1 if there is no such object. */
+    static byte readType(File objectDir, String sha) {
+        if (sha.length() == Utils.UID_LENGTH) {
+            byte[] id = Utils.fromHex(sha);
+            for (Pack pack : packsIn(dirFor(objectDir))) {
+                int pos = pack.indexOf(id);
+                if (pos >= 0) {
+                    return pack.typeAt(pos);
+                }
+            }
+        }
+        File loose = LooseObject.fileFor(objectDir, sha);
+        return loose.isFile() ? LooseObject.typeOf(loose) : -1;
+    }
+
+    /** Returns the payload of the object with the given SHA1 from the packs inside
+     * [packDir], or null if no pack holds it. Objects stored whole are returned as a
+     * read-only view of the mapped pack. */
+    static ByteBuffer findBuffer(File packDir, String sha) {
+        if (sha.length() != Utils.UID_LENGTH) {
+            return null;
+        }
+        byte[] id = Utils.fromHex(sha);
+        for (Pack pack : packsIn(packDir)) {
+            int pos = pack.indexOf(id);
+            if (pos >= 0) {
+                return pack.buffer(pos);
+            }
+        }
+        return null;
+    }
+
+    /** Returns true if some pack inside [packDir] holds the object with the given SHA1. */
+    static boolean contains(File packDir, String sha) {
+        if (sha.length() != Utils.UID_LENGTH) {
+            return false;
+        }
+        byte[] id = Utils.fromHex(sha);
+        for (Pack pack : packsIn(packDir)) {
+            if (pack.indexOf(id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the SHA1s of all objects of the given type inside the packs in [packDir]. */
+    static List<String> list(File packDir, byte type) {
+        List<String> result = new ArrayList<>();
+        for (Pack pack : packsIn(packDir)) {
+            for (int i = 0; i < pack.size(); i++) {
+                if (pack.typeAt(i) == type) {
+                    result.add(pack.idAt(i));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the SHA1s of objects of the given type inside the packs in [packDir] that
+     * start with the given abbreviated SHA1. Each pack is searched by a binary search for
+     * the first SHA1 not less than the prefix. */
+    static List<String> withPrefix(File packDir, byte type, String prefix) {
+        List<String> result = new ArrayList<>();
+        byte[] low = IdIndex.lowestId(prefix);
+        if (low == null) {
+            return result;
+        }
+        for (Pack pack : packsIn(packDir)) {
+            int first = 0;
+            int last = pack.size();
+            while (first < last) {
+                int mid = (first + last) >>> 1;
+                if (pack.compareId(mid, low) < 0) {
+                    first = mid + 1;
+                } else {
+                    last = mid;
+                }
+            }
+            for (int i = first; i < pack.size(); i++) {
+                String sha = pack.idAt(i);
+                if (!sha.startsWith(prefix)) {
+                    break;
+                }
+                if (pack.typeAt(i) == type) {
+                    result.add(sha);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** An object about to be written into a pack. Only its metadata is kept: its payload
+     * is read from where it is stored when needed, and streamed into the pack. */
+    static class Entry {
+        /** SHA1 of the object. */
+        final String sha;
+        /** Type of the object. */
+        final byte type;
+        /** Directory the object is read from: the loose objects of its type of some
+         * repository, whose packs are searched first (see readObject). */
+        final File source;
+        /** Length of the full payload of the object. */
+        final long size;
+        /** Path the object was found at in some commit, used to pick delta bases. */
+        String path = "";
+        /** The delta base, or null if stored whole. */
+        Entry base;
+        /** Delta against the base, or null if stored whole or if it did not fit in
+         * DELTA_CACHE_BYTES, in which case it is computed again when written. */
+        byte[] delta;
+        /** Number of deltas applied to read this object. */
+        int depth;
+
+        /** An entry for the object with the given SHA1 and type, read from [source]. */
+        Entry(String sha, byte type, File source) {
+            this.sha = sha;
+            this.type = type;
+            this.source = source;
+            this.size = sizeOf(source, sha);
+        }
+
+        /** Returns the full payload of the object. */
+        byte[] payload() {
+            byte[] payload = readObject(source, sha);
+            if (payload == null) {
+                throw Utils.error("Missing object %s.", sha);
+            }
+            return payload;
+        }
+
+        /** Returns the delta against the base, computing it again if it was dropped. */
+        byte[] delta() {
+            return delta != null ? delta : Delta.create(base.payload(), payload());
+        }
+    }
+
+    /** Chooses delta bases for the Blobs and Trees among ENTRIES. They are sorted by type,
+     * path and decreasing size, so that versions of the same file or directory are next to
+     * each other and newer, usually larger versions are stored whole. Each one is compared
+     * against the DELTA_WINDOW entries before it, and the smallest delta is kept if it is
+     * less than half the entry's size. Only the payloads of the window are in memory at a
+     * time, and objects of BIG_OBJECT bytes or more are left out. Returns the number of
+     * entries stored as deltas. */
+    static int deltify(List<Entry> entries) {
+        List<Entry> blobs = new ArrayList<>();
+        for (Entry entry : entries) {
+            if ((entry.type == BLOB || entry.type == TREE) && entry.size < BIG_OBJECT) {
+                blobs.add(entry);
+            }
+        }
+        blobs.sort(Comparator.comparing((Entry e) -> e.type).thenComparing(e -> e.path)
+                .thenComparing(e -> -e.size));
+        // The payloads of the last DELTA_WINDOW + 1 entries, entry [i] at [i % length].
+        byte[][] window = new byte[DELTA_WINDOW + 1][];
+        long cached = 0;
+        int deltas = 0;
+        for (int i = 0; i < blobs.size(); i++) {
+            Entry target = blobs.get(i);
+            byte[] payload = target.payload();
+            window[i % window.length] = payload;
+            for (int j = Math.max(0, i - DELTA_WINDOW); j < i; j++) {
+                Entry base = blobs.get(j);
+                if (base.type != target.type || base.depth >= MAX_DELTA_DEPTH
+                        || base.size < target.size / 2) {
+                    continue;
+                }
+                byte[] delta = Delta.create(window[j % window.length], payload);
+                int best = target.delta == null ? payload.length / 2 : target.delta.length;
+                if (delta.length < best) {
+                    target.delta = delta;
+                    target.base = base;
+                    target.depth = base.depth + 1;
+                }
+            }
+            if (target.delta != null) {
+                deltas += 1;
+                if (cached + target.delta.length > DELTA_CACHE_BYTES) {
+                    target.delta = null;
+                } else {
+                    cached += target.delta.length;
+                }
+            }
+        }
+        return deltas;
+    }
+
+    /** Records, for each Blob and Tree among ENTRIES, a path it is found at in the
+     * snapshot of some commit of [commits], stored in [commDir]. Each Tree is only visited
+     * once, however many snapshots share it. */
+    static void addPaths(List<Entry> entries, List<String> commits, File commDir) {
+        HashMap<String, Entry> bySha = new HashMap<>();
+        for (Entry entry : entries) {
+            bySha.put(entry.sha, entry);
+        }
+        File blobDir = Utils.join(commDir.getParentFile(), "blobs");
+        Set<String> visited = new HashSet<>();
+        Tree.Visitor visitor = new Tree.Visitor() {
+            @Override
+            public boolean tree(String sha, String path) {
+                setPath(sha, path);
+                return visited.add(sha);
+            }
+
+            @Override
+            public void file(String sha, String path) {
+                setPath(sha, path);
+            }
+
+            private void setPath(String sha, String path) {
+                Entry entry = bySha.get(sha);
+                if (entry != null && entry.path.isEmpty()) {
+                    entry.path = path;
+                }
+            }
+        };
+        for (String commitSha : commits) {
+            String root = Commit.getFromSHA(commitSha, commDir).getTreeSHA();
+            if (visited.add(root)) {
+                Tree.visit(root, "", blobDir, visitor);
+            }
+        }
+    }
+
+    /** Writes a new pack (and its index) inside [packDir] holding the given entries,
+     * streaming each payload from its source. Returns the new pack's file. */
+    static File write(File packDir, List<Entry> entries) {
+        packDir.mkdirs();
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparing((Entry e) -> e.sha));
+        int count = sorted.size();
+        StringBuilder allShas = new StringBuilder();
+        for (Entry entry : sorted) {
+            allShas.append(entry.sha);
+        }
+        String name = "pack-" + Utils.sha1(allShas.toString());
+        File packFile = Utils.join(packDir, name + ".pack");
+        File idxFile = Utils.join(packDir, name + ".idx");
+        File packTemp = Utils.join(packDir, name + ".pack.tmp");
+        File idxTemp = Utils.join(packDir, name + ".idx.tmp");
+
+        long[] payloadOffsets = new long[count];
+        long[] payloadLengths = new long[count];
+        byte[] packDigest;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            DigestOutputStream digestOut = new DigestOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(packTemp.toPath())), md);
+            try (DataOutputStream out = new DataOutputStream(digestOut)) {
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                // DataOutputStream.size() stops counting at 2 GB.
+                long offset = 12;
+                ByteArrayOutputStream header = new ByteArrayOutputStream(16);
+                for (int i = 0; i < count; i++) {
+                    Entry entry = sorted.get(i);
+                    byte[] delta = entry.base == null ? null : entry.delta();
+                    long length = delta == null ? entry.size : ID_LENGTH + delta.length;
+                    header.reset();
+                    header.write(storedType(entry));
+                    Utils.writeVarint(header, length);
+                    header.writeTo(out);
+                    offset += header.size();
+                    payloadOffsets[i] = offset;
+                    payloadLengths[i] = length;
+                    if (delta == null) {
+                        copyObject(entry.source, entry.sha, out);
+                    } else {
+                        out.write(Utils.fromHex(entry.base.sha));
+                        out.write(delta);
+                    }
+                    offset += length;
+                }
+                digestOut.on(false);
+                packDigest = md.digest();
+                out.write(packDigest);
+            }
+
+            int[] counts = new int[256];
+            for (Entry entry : sorted) {
+                counts[Integer.parseInt(entry.sha.substring(0, 2), 16)] += 1;
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(idxTemp.toPath())))) {
+                out.writeInt(IDX_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                int total = 0;
+                for (int c : counts) {
+                    total += c;
+                    out.writeInt(total);
+                }
+                for (Entry entry : sorted) {
+                    out.write(Utils.fromHex(entry.sha));
+                }
+                for (Entry entry : sorted) {
+                    out.writeByte(storedType(entry));
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(payloadOffsets[i]);
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(payloadLengths[i]);
+                }
+                out.write(packDigest);
+            }
+            // The index is moved last, so readers never find an index without its pack.
+            Files.move(packTemp.toPath(), packFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Files.move(idxTemp.toPath(), idxFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        forget(packDir);
+        return packFile;
+    }
+
+    /** Writes the given entries into a new pack inside [packDir], storing Blobs as deltas
+     * where that saves space. Does nothing if there are no entries. */
+    static void writeWithDeltas(File packDir, List<Entry> entries) {
+        if (!entries.isEmpty()) {
+            deltify(entries);
+            write(packDir, entries);
+        }
+    }
+
+    /** Returns the type byte stored for the given entry. */
+    private static byte storedType(Entry entry) {
+        return entry.base == null ? entry.type : (byte) (entry.type | DELTA_FLAG);
+    }
+
+    /** Drops the cached packs of [packDir], so they are reloaded on next use. */
+    static synchronized void forget(File packDir) {
+        LOADED_STATS.remove(packDir);
+        List<Pack> packs = LOADED.remove(packDir);
+        if (packs != null) {
+            for (Pack pack : packs) {
+                pack.close();
+            }
+        }
+    }
+
+    /** Drops the cached packs of every directory that may have changed since they were
+     * listed, as another process adds and deletes packs (see Server). Returns true if any
+     * were dropped. */
+    static synchronized boolean forgetChanged() {
+        boolean dropped = false;
+        for (File packDir : new ArrayList<>(LOADED.keySet())) {
+            StatCache.Entry known = LOADED_STATS.get(packDir);
+            StatCache.Entry stat = StatCache.stat(packDir);
+            if (known == null || stat == null || !known.sameStat(stat)) {
+                forget(packDir);
+                dropped = true;
+            }
+        }
+        return dropped;
+    }
+
+    /** Releases the mappings of this pack. */
+    private void close() {
+        pack.release();
+        idx.release();
+    }
+
+    /** Moves the loose Blobs and Commits of the repository at [gitletDir] into a new pack,
+     * storing Blobs as deltas against similar Blobs where that saves space, then deletes
+     * the loose copies. If [all] is true, the objects of the existing packs are moved into
+     * the new pack as well, the old packs are deleted, and reachability bitmaps are
+     * written for the new pack (see BitmapIndex).
+     * Returns the number of objects packed and the number stored as deltas. */
+    static int[] repack(File gitletDir, boolean all) {
+        return repack(gitletDir, all, null);
+    }
+
+    /** Repacks the repository at [gitletDir] as above, but only moves the objects in
+     * [keep] into the new pack, unless it is null. Loose objects not in [keep] stay loose,
+     * and packed ones are dropped with their packs. */
+    static int[] repack(File gitletDir, boolean all, Set<String> keep) {
+        File blobDir = Utils.join(gitletDir, "blobs");
+        File commDir = Utils.join(gitletDir, "commits");
+        File packDir = Utils.join(gitletDir, "packs");
+        LinkedHashMap<String, Entry> collected = new LinkedHashMap<>();
+        List<File> obsolete = new ArrayList<>();
+        collectLoose(blobDir, packDir, keep, collected, obsolete);
+        collectLoose(commDir, packDir, keep, collected, obsolete);
+        if (all) {
+            for (Pack pack : packsIn(packDir)) {
+                for (int i = 0; i < pack.size(); i++) {
+                    String sha = pack.idAt(i);
+                    if (keep == null || keep.contains(sha)) {
+                        collected.putIfAbsent(sha, new Entry(sha, pack.typeAt(i), blobDir));
+                    }
+                }
+                obsolete.add(pack.packFile);
+                obsolete.add(Utils.join(packDir, pack.packFile.getName()
+                        .replace(".pack", ".idx")));
+                obsolete.add(Utils.join(packDir, pack.packFile.getName()
+                        .replace(".pack", ".bitmap")));
+            }
+        }
+        List<Entry> entries = new ArrayList<>(collected.values());
+        if (entries.isEmpty()) {
+            return new int[] {0, 0};
+        }
+        addPaths(entries, Commit.listAll(commDir), commDir);
+        int deltas = deltify(entries);
+        File packFile = write(packDir, entries);
+        for (File file : obsolete) {
+            if (!file.equals(packFile) && !file.getName().equals(
+                    packFile.getName().replace(".pack", ".idx"))) {
+                file.delete();
+                // Drops the shard directory of a loose object once it is empty.
+                file.getParentFile().delete();
+            }
+        }
+        forget(packDir);
+        if (all) {
+            BitmapIndex.write(gitletDir, packFile);
+        }
+        IdIndex.rebuild(commDir);
+        return new int[] {entries.size(), deltas};
+    }
+
+    /** Adds the loose objects in [dir] that are not already packed to ENTRIES, and adds
+     * their files to OBSOLETE. Only objects in [keep] are collected, unless it is null. */
+    private static void collectLoose(File dir, File packDir, Set<String> keep,
+                                     Map<String, Entry> entries, List<File> obsolete) {
+        for (String sha : LooseObject.list(dir)) {
+            if (keep != null && !keep.contains(sha)) {
+                continue;
+            }
+            File file = LooseObject.fileFor(dir, sha);
+            obsolete.add(file);
+            if (!contains(packDir, sha)) {
+                entries.put(sha, new Entry(sha, LooseObject.typeOf(file), dir));
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Changed-path filters: for each commit, a Bloom filter of the paths of the files it
+ * changed from its main parent, so that log -- [file] rejects most commits without
+ * reading their Trees or their parent's.
+ *
+ * A Bloom filter sets HASHES bits per path, picked by hashing the path, in a bitmap of
+ * BITS_PER_PATH bits per path. A path whose bits are not all set was certainly not
+ * changed; a path whose bits are all set may have been, and the Trees tell. Both come
+ * from the setting pathFilter.falsePositiveRate (0.01 by default): the share of unchanged
+ * paths that the filters let through. Commits that changed more than pathFilter.maxPaths
+ * paths (512 by default) get no bitmap, and always let every path through.
+ *
+ * File layout (.gitlet/path-filters, all integers big-endian):
+ *      a header of HEADER_SIZE bytes: "GPFL", the format version, the number of bits per
+ *      path and the number of hashes of every filter of the file;
+ *      one record per commit: its 20-byte SHA1, the length of its bitmap in bytes (-1 if
+ *      it has none), and the bitmap.
+ * Records are only ever appended, holding a lock on the file: commit, merge and fetch
+ * append the filters of the commits they add, and path-filters computes those of the
+ * rest of the history, in batches, in a background process. A partial record left by an
+ * interrupted append is ignored, and overwritten by the next one. The filters are read
+ * once per process; a Server only reads the records appended since.
+ */
+class PathFilters {
+
+    /** File that holds the filters. */
+    private static final File FILE = Paths.PATH_FILTERS;
+
+    /** Directory of the commits filtered. */
+    private static final File COMM_DIR = Paths.COMM_DIR;
+
+    /** Directory of the Trees of those commits. */
+    private static final File BLOB_DIR = Paths.BLOB_DIR;
+
+    /** First int of the file: "GPFL". */
+    private static final int MAGIC = 0x4750464c;
+
+    /** Version of the layout above. */
+    private static final int VERSION = 1;
+
+    /** Size of the header. */
+    private static final int HEADER_SIZE = 16;
+
+    /** Length of a binary SHA1. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** Number of commits whose filters path-filters appends at once. */
+    private static final int BATCH_SIZE = 1000;
+
+    /** Filter of the commits that changed too many paths to have a bitmap. */
+    private static final byte[] ALWAYS = new byte[0];
+
+    /** The filters of the current repository, once read by this process. */
+    private static PathFilters current;
+
+    /** Number of bits per path and of hashes of the filters read, or 0 if none were. */
+    private int bitsPerPath;
+    private int hashes;
+
+    /** The bitmaps read, by commit SHA1. */
+    private final HashMap<String, byte[]> filters = new HashMap<>();
+
+    /** Inode of the file read, or -1 if none was. */
+    private long inode = -1;
+
+    /** Length of the file up to the end of the records read, or 0 if none were. */
+    private long end;
+
+    /** Returns the filters of the current repository, with the records appended to the
+     * file since it was last read. */
+    static synchronized PathFilters load() {
+        if (current == null) {
+            current = new PathFilters();
+        }
+        current.refresh();
+        return current;
+    }
+
+    /** Reads the records appended to the file since it was last read, or all of them if it
+     * is not the file read before. */
+    private void refresh() {
+        StatCache.Entry stat = StatCache.stat(FILE);
+        if (stat == null || stat.inode != inode || stat.size < end) {
+            clear();
+        }
+        if (stat == null) {
+            return;
+        }
+        inode = stat.inode;
+        if (stat.size > end) {
+            try (FileChannel channel = FileChannel.open(FILE.toPath(), StandardOpenOption.READ)) {
+                catchUp(channel, false);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Forgets every filter read. */
+    private void clear() {
+        filters.clear();
+        bitsPerPath = 0;
+        hashes = 0;
+        end = 0;
+    }
+
+    /** Reads the complete records that [channel] holds past those read. A file whose
+     * header is not that of filters holds none. If [repair] is true, a partial record or
+     * unknown file is truncated, so that new records can be appended. */
+    private void catchUp(FileChannel channel, boolean repair) throws IOException {
+        long size = channel.size();
+        if (size < end) {
+            clear();
+        }
+        if (end == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if (header.position() < HEADER_SIZE || header.getInt(0) != MAGIC
+                    || header.getInt(4) != VERSION) {
+                if (repair) {
+                    channel.truncate(0);
+                }
+                return;
+            }
+            bitsPerPath = header.getInt(8);
+            hashes = header.getInt(12);
+            end = HEADER_SIZE;
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) (size - end));
+        while (data.hasRemaining()) {
+            if (channel.read(data, end + data.position()) < 0) {
+                throw new IOException("path-filters shrank while being read");
+            }
+        }
+        data.flip();
+        while (data.remaining() >= ID_LENGTH + 4) {
+            int start = data.position();
+            String sha = Utils.toHex(data.array(), start, ID_LENGTH);
+            int length = data.getInt(start + ID_LENGTH);
+            int next = start + ID_LENGTH + 4 + Math.max(length, 0);
+            if (next > data.limit()) {
+                break;
+            }
+            filters.put(sha, length < 0 ? ALWAYS
+                    : Arrays.copyOfRange(data.array(), start + ID_LENGTH + 4, next));
+            data.position(next);
+            end += next - start;
+        }
+        if (repair && size > end) {
+            channel.truncate(end);
+        }
+    }
+
+    /** Returns true if the commit with the given SHA1 has a filter. */
+    boolean has(String sha) {
+        return filters.containsKey(sha);
+    }
+
+    /** Returns false if the commit with the given SHA1 certainly did not change the file
+     * at [path] from its main parent, and true if it may have, or has no filter. */
+    boolean mayChange(String sha, String path) {
+        byte[] filter = filters.get(sha);
+        if (filter == null || filter == ALWAYS) {
+            return true;
+        }
+        long bits = 8L * filter.length;
+        long hash = hash(path);
+        for (int i = 0; i < hashes; i++) {
+            int bit = (int) Math.floorMod((int) hash + (long) i * ((int) (hash >>> 32) | 1), bits);
+            if ((filter[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the 64-bit FNV-1a hash of [path]. */
+    private static long hash(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** Computes the filters of the commits with the given SHA1s that have none, and appends
+     * them to the file. A new file takes the numbers of bits per path and of hashes from
+     * the settings. */
+    synchronized void add(Collection<String> shas) {
+        try (FileChannel channel = FileChannel.open(FILE.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Released when the channel is closed.
+            channel.lock();
+            // Another command may have appended records since the filters were read.
+            catchUp(channel, true);
+            List<byte[]> records = new ArrayList<>();
+            if (end == 0) {
+                double rate = Config.getDouble("pathFilter.falsePositiveRate", 0.01);
+                bitsPerPath = bitsPerPath(rate);
+                hashes = Math.max(1, (int) Math.round(bitsPerPath * Math.log(2)));
+                records.add(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION)
+                        .putInt(bitsPerPath).putInt(hashes).array());
+            }
+            long maxPaths = Config.getLong("pathFilter.maxPaths", 512);
+            for (String sha : shas) {
+                if (filters.containsKey(sha)) {
+                    continue;
+                }
+                byte[] filter = compute(sha, maxPaths);
+                filters.put(sha, filter);
+                ByteBuffer record = ByteBuffer.allocate(ID_LENGTH + 4 + filter.length);
+                record.put(Utils.fromHex(sha)).putInt(filter == ALWAYS ? -1 : filter.length)
+                        .put(filter);
+                records.add(record.array());
+            }
+            for (byte[] record : records) {
+                ByteBuffer data = ByteBuffer.wrap(record);
+                while (data.hasRemaining()) {
+                    end += channel.write(data, end);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        StatCache.Entry stat = StatCache.stat(FILE);
+        inode = stat == null ? -1 : stat.inode;
+    }
+
+    /** Returns the number of bits per path that lets through about [rate] of the unchanged
+     * paths. */
+    private static int bitsPerPath(double rate) {
+        if (!(rate > 0 && rate < 1)) {
+            Utils.printAndExit("Invalid value for pathFilter.falsePositiveRate in config.");
+        }
+        return Math.max(1, (int) Math.ceil(-Math.log(rate) / (Math.log(2) * Math.log(2))));
+    }
+
+    /** Returns the filter of the paths that the commit with the given SHA1 changed from its
+     * main parent, or ALWAYS if it changed more than [maxPaths]. */
+    private byte[] compute(String sha, long maxPaths) {
+        Commit commit = Commit.getFromSHA(sha, COMM_DIR);
+        Commit parent = commit.getMainParent();
+        Map<String, String[]> changes = new HashMap<>();
+        Tree.diff(parent == null ? Tree.EMPTY : parent.getTreeSHA(), commit.getTreeSHA(),
+                BLOB_DIR, changes);
+        if (changes.size() > maxPaths) {
+            return ALWAYS;
+        }
+        byte[] filter = new byte[Math.max(1, (changes.size() * bitsPerPath + 7) / 8)];
+        long bits = 8L * filter.length;
+        for (String path : changes.keySet()) {
+            long hash = hash(path);
+            for (int i = 0; i < hashes; i++) {
+                int bit = (int) Math.floorMod((int) hash + (long) i * ((int) (hash >>> 32) | 1),
+                        bits);
+                filter[bit >>> 3] |= (byte) (1 << (bit & 7));
+            }
+        }
+        return filter;
+    }
+
+    /** Computes the filters of every commit stored that has none, BATCH_SIZE commits at a
+     * time, so that commands running meanwhile only wait for one batch. If the settings ask
+     * for other filters than those of the file, the file is started over. Returns the
+     * number of filters computed. */
+    static int writeAll() {
+        PathFilters filters = load();
+        double rate = Config.getDouble("pathFilter.falsePositiveRate", 0.01);
+        if (filters.end > 0 && filters.bitsPerPath != bitsPerPath(rate)) {
+            FILE.delete();
+            filters = load();
+        }
+        int written = 0;
+        List<String> batch = new ArrayList<>();
+        for (String sha : Commit.listAll(COMM_DIR)) {
+            if (!filters.has(sha)) {
+                batch.add(sha);
+            }
+            if (batch.size() == BATCH_SIZE) {
+                filters.add(batch);
+                written += batch.size();
+                batch.clear();
+            }
+        }
+        filters.add(batch);
+        return written + batch.size();
+    }
+
+    /** Starts computing the filters of every commit in a background process (see
+     * writeAll). */
+    static void writeAllInBackground() {
+        Utils.runInBackground(Paths.CWD, "path-filters", "--run");
+    }
+}
@@ -16,6 +16,9 @@ public final class Paths {
     /** Directory inside .gitlet for storing blobs. */
     public static final File BLOB_DIR = Utils.join(GITLET_DIR, "blobs");
 
+    /** Directory inside .gitlet for storing packs of blobs and commits. */
+    public static final File PACK_DIR = Utils.join(GITLET_DIR, "packs");
+
     /** Directory inside .gitlet for storing pointers to branches. */
     public static final File BRANCH_DIR = Utils.join(GITLET_DIR, "heads");
 
@@ -25,11 +28,22 @@ public final class Paths {
     /** File that tracks the current HEAD branch. */
     public static final File HEAD = Utils.join(GITLET_DIR, "head");
 
-    /** File that tracks items added to the staging area. Maps file names to Blob SHA1s. */
+    /** File that tracks items staged for addition or removal, and the stat data of
+     * working files (see Index). */
     public static final File INDEX = Utils.join(GITLET_DIR, "index");
 
-    /** File that tracks items staged for removal. */
-    public static final File REMOVED = Utils.join(GITLET_DIR, "removed");
+    /** File that lists the ancestry of all commits (see CommitGraph). */
+    public static final File COMMIT_GRAPH = Utils.join(GITLET_DIR, "commit-graph");
+
+    /** File that holds the changed-path filters of commits (see PathFilters). */
+    public static final File PATH_FILTERS = Utils.join(GITLET_DIR, "path-filters");
+
+    /** File that holds the settings of the repository (see Config). */
+    public static final File CONFIG = Utils.join(GITLET_DIR, "config");
+
+    /** Directory inside .gitlet for the files of the working directory monitor (see
+     * Monitor). */
+    public static final File MONITOR_DIR = Utils.join(GITLET_DIR, "monitor");
 
     /** File that tracks remotes. */
     public static final File REMOTE = Utils.join(GITLET_DIR, "remotes");
@@ -0,0 +1,90 @@
+package gitlet;
+
+import java.io.File;
+import java.util.HashMap;
+
+/** What the code of one Gitlet command shares about the repository: the objects decoded
+ * so far (see ObjectCache), and the branch heads resolved so far.
+ *
+ * Each command run by Main gets a new context (see begin), so that HEAD and the branch
+ * files are read once per command, and then only written through Branch, which keeps
+ * the context up to date. Objects never change, so the cache of objects is shared by
+ * every context of the process: a Server keeps it warm from one command to the next,
+ * until the packs are rewritten (see forgetObjects).
+ *
+ * With the setting cache.stats set to true, each command prints the hits, misses and
+ * evictions of the cache to standard error when it ends. The setting cache.bytes bounds
+ * the memory the cache may take (64 MB by default).
+ */
+public class RepoContext {
+
+    /** Default of the setting cache.bytes, in bytes. */
+    private static final long CACHE_BYTES = 64L << 20;
+
+    /** The objects decoded by this process. */
+    private static final ObjectCache OBJECTS = new ObjectCache(CACHE_BYTES);
+
+    /** The context of the running command, or null if none was needed yet. */
+    private static volatile RepoContext current;
+
+    /** Contents of the HEAD and branch files read or written by this command. */
+    private final HashMap<File, String> refs = new HashMap<>();
+
+    /** Returns the context of the running command. */
+    static RepoContext current() {
+        RepoContext context = current;
+        if (context != null) {
+            return context;
+        }
+        synchronized (RepoContext.class) {
+            if (current == null) {
+                current = new RepoContext();
+            }
+            return current;
+        }
+    }
+
+    /** Starts a new context for the command about to run, bounding the cache by the
+     * setting cache.bytes as it is now. */
+    static synchronized void begin() {
+        current = new RepoContext();
+        OBJECTS.resetCounts();
+        OBJECTS.setCapacity(Config.getLong("cache.bytes", CACHE_BYTES));
+    }
+
+    /** Ends the context of the command that ran, printing the stats of the cache if the
+     * setting cache.stats is true. Does nothing if it already ended. */
+    static void end() {
+        synchronized (RepoContext.class) {
+            if (current == null) {
+                return;
+            }
+            current = null;
+        }
+        if (Paths.GITLET_DIR.isDirectory()
+                && Boolean.parseBoolean(Config.get("cache.stats", "false"))) {
+            System.err.println(OBJECTS.stats());
+        }
+    }
+
+    /** Drops the cached objects of the process, which another process may have deleted. */
+    static void forgetObjects() {
+        OBJECTS.clear();
+    }
+
+    /** Returns the cache of the objects decoded by this process. */
+    ObjectCache objects() {
+        return OBJECTS;
+    }
+
+    /** Returns the contents of the HEAD or branch file [file] as this command last read or
+     * wrote them, or null if it did neither. */
+    synchronized String ref(File file) {
+        return refs.get(file);
+    }
+
+    /** Records that the HEAD or branch file [file] holds [contents]. */
+    synchronized void setRef(File file, String contents) {
+        refs.put(file, contents);
+    }
+}
@@ -1,7 +1,11 @@
 package gitlet;
 
 import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.util.*;
+import java.util.function.Predicate;
 
 
 /** Represents a gitlet repository. */
@@ -19,6 +23,9 @@ public class Repository {
     /** Directory inside .gitlet for storing blobs. */
     public static final File BLOB_DIR = Paths.BLOB_DIR;
 
+    /** Directory inside .gitlet for storing packs of blobs and commits. */
+    public static final File PACK_DIR = Paths.PACK_DIR;
+
     /** Directory inside .gitlet for storing pointers to branches. */
     public static final File BRANCH_DIR = Paths.BRANCH_DIR;
 
@@ -43,13 +50,15 @@ public class Repository {
         }
         COMM_DIR.mkdirs();
         BLOB_DIR.mkdirs();
+        PACK_DIR.mkdirs();
         BRANCH_DIR.mkdirs();
         STAGE_DIR.mkdirs();
+        Upgrade.writeFormat(GITLET_DIR);
         // create initial commit
         Commit initial = new Commit();
         initial.saveCommit();
         // create and set head file
-        Utils.writeContents(HEAD, "master");
+        Branch.write(HEAD, "master");
         // create master branch
         Branch.addBranch("master", initial);
         // add files to track staged and removed files
@@ -58,26 +67,93 @@ public class Repository {
         Utils.writeObject(REMOTE, new HashMap<String, File>());
     }
 
-    /** Adds a copy of the file as it currently exists to the staging area.
-     * If file is already staged, it is overwritten.
+    /** Adds a copy of the files matched by PATHSPECS, as they currently exist, to the
+     * staging area. If a file is already staged, it is overwritten.
      *
-     * If the current working version of the file is identical to the version
+     * If the current working version of a file is identical to the version
      * in the current commit, it won't be staged, and will be removed from the
      * staging area if it is already there.
      *
-     * The file will no longer be staged for removal, if it was at the time of the command. */
-    public static void addFile(String fileName) {
+     * The files will no longer be staged for removal, if they were at the time of the
+     * command.
+     *
+     * A pathspec is a file name, a directory, which matches every file under it, or a
+     * glob pattern (see java.nio.file.FileSystem.getPathMatcher), which matches the paths
+     * of files relative to the working directory. Tracked or staged files that a
+     * directory or a pattern matches, but that are missing from the working directory,
+     * are staged for removal. If [all] is true, every file of the working directory is
+     * matched. If a pathspec matches no file, prints an error message and stages nothing.
+     *
+     * The head commit and the index are read once, the files are hashed and compressed
+     * concurrently (see Staging.stageFiles), and the index is saved once. If [verbose]
+     * is true, also prints how many files were staged per second. */
+    public static void addFiles(List<String> pathspecs, boolean all, boolean verbose) {
         checkInitialized();
-        TreeSet<String> removed = Staging.getRemoved();
-        if (removed.contains(fileName)) {
-            Commit head = Branch.getHeadCommit();
-            String sha = head.getFileSHA(fileName);
-            Blob.getFromSHA(sha).writeContentsToFile(CWD, fileName);
+        long start = System.nanoTime();
+        StatCache cache = StatCache.load();
+        cache.catchUp();
+        Commit head = Branch.getHeadCommit();
+        TreeSet<String> files = new TreeSet<>();
+        TreeSet<String> missing = new TreeSet<>();
+        boolean scanned = all;
+        List<String> working = null;
+        Set<String> known = null;
+        for (String pathspec : all ? List.of("") : pathspecs) {
+            File file = Utils.join(CWD, pathspec);
+            boolean isPattern = !file.exists() && pathspec.matches(".*[*?\\[{].*");
+            if (!isPattern && !file.isDirectory()) {
+                // A file staged for removal is restored from the current commit.
+                if (Index.load().removed().contains(pathspec)) {
+                    String sha = head.getFileSHA(pathspec);
+                    Blob.getFromSHA(sha).writeContentsToFile(CWD, pathspec);
+                    cache.refresh(pathspec, sha);
+                }
+                if (!file.isFile()) {
+                    Utils.printAndExit("File does not exist.");
+                }
+                files.add(pathspec);
+                continue;
+            }
+            if (working == null) {
+                working = cache.workingFiles();
+                known = new TreeSet<>(head.getSnapshot().keySet());
+                known.addAll(Staging.getStagedIndex().keySet());
+            }
+            scanned = true;
+            Predicate<String> matches;
+            if (isPattern) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pathspec);
+                matches = fileName -> matcher.matches(Path.of(fileName));
+            } else {
+                String prefix = pathspec.isEmpty() ? "" : pathspec + "/";
+                matches = fileName -> fileName.startsWith(prefix);
+            }
+            boolean matched = false;
+            for (String fileName : working) {
+                if (matches.test(fileName)) {
+                    files.add(fileName);
+                    matched = true;
+                }
+            }
+            for (String fileName : known) {
+                if (matches.test(fileName) && !cache.exists(fileName)) {
+                    missing.add(fileName);
+                    matched = true;
+                }
+            }
+            if (!matched && !all) {
+                Utils.printAndExit("File does not exist.");
+            }
         }
-        if (!Utils.join(CWD, fileName).isFile()) {
-            Utils.printAndExit("File does not exist.");
+        Staging.stageFiles(head, files, missing, scanned, cache);
+        // The stat data and the staging area are saved together, in the index.
+        cache.save();
+        if (verbose) {
+            double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+            System.out.printf("Added %d files in %d ms: %.0f files/s.%n",
+                    files.size() + missing.size(), Math.round(seconds * 1000),
+                    (files.size() + missing.size()) / seconds);
         }
-        Staging.stageFile(fileName);
     }
 
     /** Saves a snapshot of tracked files in the current commit and staging area,
@@ -103,14 +179,22 @@ public class Repository {
         Commit currentCommit = Branch.getHeadCommit();
         TreeMap<String, String> stagedFiles = Staging.getStagedIndex();
         TreeSet<String> removedFiles = Staging.getRemoved();
-        Commit newCommit = Commit.addStaged(currentCommit, message, stagedFiles, removedFiles);
+        // Staged blobs are renamed into the blobs directory, unless it already has them. This
+        // happens before the Trees are written, so a stored Tree never lacks its Blobs.
         for (String stagedFileSHA: stagedFiles.values()) {
-            Blob addedFile = Utils.readObject(Utils.join(STAGE_DIR, stagedFileSHA), Blob.class);
-            addedFile.saveBlob();
+            Blob.getFromSHA(stagedFileSHA, STAGE_DIR).promote(BLOB_DIR);
         }
+        Commit newCommit = Commit.addStaged(currentCommit, message, stagedFiles, removedFiles);
         newCommit.saveCommit();
+        CommitGraph.load().add(newCommit.getSHA1());
+        PathFilters.load().add(List.of(newCommit.getSHA1()));
         Branch.moveBranchHead(newCommit);
+        StatCache cache = StatCache.load();
+        for (String fileName: removedFiles) {
+            cache.remove(fileName);
+        }
         Staging.resetStaging();
+        cache.save();
     }
 
     /** Unstages the file if it is currently staged for addition.
@@ -120,46 +204,75 @@ public class Repository {
     public static void removeFile(String fileName) {
         checkInitialized();
         Staging.removeFile(fileName);
+        Index.load().save();
     }
 
     /** Starting at the current head commit, display information about each commit backwards along
      * the commit tree until the initial commit, following the first parent commit links, ignoring
-     * any second parents found in merge commits. */
-    public static void log() {
+     * any second parents found in merge commits. Only the commits PRINTER prints are read. */
+    public static void log(LogPrinter printer) {
         checkInitialized();
         Commit head = Branch.getHeadCommit();
-        head.printLog();
+        printer.print(head.history(), true);
     }
 
     /** Like log, except displays information about all commits ever made.
-     * Commits are not listed in a particular order. */
-    public static void logAll() {
+     * Commits are not listed in a particular order, and are read ahead in parallel (see
+     * CommitScanner). */
+    public static void logAll(LogPrinter printer) {
         checkInitialized();
-        List<String> commits = Utils.plainFilenamesIn(COMM_DIR);
-        if (commits != null) {
-            for (String sha: commits) {
-                System.out.println(Commit.getFromSHA(sha));
-            }
-        }
+        printer.print(CommitScanner.scan(COMM_DIR), false);
     }
 
-    /** Prints out the ids of all commits that have the given commit message, one per line. */
-    public static void find(String message) {
+    /** Prints the changes between the two commits given to PRINTER, or between the one
+     * given (the head commit if none is) and the working files. Files whose Blobs have the
+     * same SHA1 on both sides are skipped without being read, and so are the working
+     * files whose stat data is unchanged since they were last hashed (see StatCache). The
+     * working files compared are those tracked by the commit or staged for addition. */
+    public static void diff(DiffPrinter printer) {
         checkInitialized();
-        List<String> commits = Utils.plainFilenamesIn(COMM_DIR);
-        boolean found = false;
-        if (commits != null) {
-            for (String sha: commits) {
-                Commit comm = (Commit.getFromSHA(sha));
-                if (comm.hasMessage(message)) {
-                    System.out.println(sha);
-                    found = true;
-                }
+        List<String> ids = printer.commitIds();
+        Commit from = ids.isEmpty() ? Branch.getHeadCommit() : Commit.getFromSHA(ids.get(0));
+        if (ids.size() == 2) {
+            printer.print(Commit.changes(from, Commit.getFromSHA(ids.get(1))), false);
+            return;
+        }
+        HashMap<String, String> tracked = from.getSnapshot();
+        TreeSet<String> fileNames = new TreeSet<>(tracked.keySet());
+        fileNames.addAll(Staging.getStagedIndex().keySet());
+        StatCache cache = StatCache.load();
+        List<String> present = new ArrayList<>();
+        for (String fileName : fileNames) {
+            if (printer.includes(fileName) && cache.exists(fileName)) {
+                present.add(fileName);
             }
         }
-        if (!found) {
+        TreeMap<String, String> shas = cache.shas(present);
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        for (String fileName : fileNames) {
+            String old = tracked.get(fileName);
+            String current = shas.get(fileName);
+            if (printer.includes(fileName) && !Objects.equals(old, current)) {
+                changes.put(fileName, new String[] {old, current});
+            }
+        }
+        printer.print(changes, true);
+        cache.saveIfUnlocked();
+    }
+
+    /** Prints out the ids of all commits that have the given commit message, one per line.
+     * If [words] is true, prints those whose message holds every word of [message]
+     * instead. Commits are looked up in the index of messages (see MessageIndex). */
+    public static void find(String message, boolean words) {
+        checkInitialized();
+        List<String> found = words ? MessageIndex.withWords(COMM_DIR, message)
+                : MessageIndex.withMessage(COMM_DIR, message);
+        if (found.isEmpty()) {
             Utils.printAndExit("Found no commit with that message.");
         }
+        for (String sha : found) {
+            System.out.println(sha);
+        }
     }
 
     /** Takes the version of the file as it exists in the head commit and puts it in the working
@@ -184,6 +297,9 @@ public class Repository {
         }
         Blob fileBlob = Blob.getFromSHA(fileSHA);
         fileBlob.writeContentsToFile(CWD, fileName);
+        StatCache cache = StatCache.load();
+        cache.refresh(fileName, fileSHA);
+        cache.save();
     }
 
     /** Checks out all files tracked by the head commit of the given branch.
@@ -204,18 +320,30 @@ public class Repository {
         }
         Commit branchHead = Commit.getFromSHA(Utils.readContentsAsString(branch));
         checkoutCopyFiles(branchHead, currentHead);
-        Utils.writeContents(HEAD, branchName);
+        Branch.write(HEAD, branchName);
     }
 
 
     /** Displays what branches currently exist, and marks the current branch with a *.
      * Also displays what files have been staged for addition or removal, as well as
-     * modified and untracked files. */
-    public static void status() {
+     * modified and untracked files.
+     * Working files are only hashed if their stat data changed (see StatCache), and are
+     * not even listed while a monitor runs (see Monitor). If
+     * [verbose] is true, also prints how many files had to be hashed. */
+    public static void status(boolean verbose) {
         checkInitialized();
         printBranches();
         printStaged();
-        printModifiedAndUntracked();
+        StatCache cache = StatCache.load();
+        printModifiedAndUntracked(cache);
+        cache.saveIfUnlocked();
+        if (verbose) {
+            System.out.println("Re-hashed " + cache.rehashed() + " of " + cache.lookups()
+                    + " files.");
+            if (cache.usedMonitor()) {
+                System.out.println("Learned the changed files from the monitor.");
+            }
+        }
     }
 
     /** Prints what branches currently exist, and marks the current branch with a "*". */
@@ -253,12 +381,22 @@ public class Repository {
 
     /** Prints what files in the current directory differ from the current commit or are
      * not tracked by it. */
-    private static void printModifiedAndUntracked() {
+    private static void printModifiedAndUntracked(StatCache cache) {
         HashMap<String, String> tracked = Branch.getHeadCommit().getSnapshot();
-        HashSet<String> modified = new HashSet<>();
+        TreeSet<String> modified = new TreeSet<>();
         TreeMap<String, String> added = Staging.getStagedIndex();
         TreeSet<String> removed = Staging.getRemoved();
-        List<String> files = Utils.plainFilenamesIn(CWD);
+        List<String> files = cache.workingFiles();
+        HashSet<String> present = new HashSet<>(files);
+        cache.retainAll(present);
+        // Hashes the tracked and staged files whose stat data changed, all at once.
+        List<String> candidates = new ArrayList<>();
+        for (String fileName: files) {
+            if (tracked.containsKey(fileName) || added.containsKey(fileName)) {
+                candidates.add(fileName);
+            }
+        }
+        TreeMap<String, String> shas = cache.shas(candidates);
 
         System.out.println("=== Modifications Not Staged For Commit ===");
         // A file in the working directory is modified but not staged if it is:
@@ -268,28 +406,31 @@ public class Repository {
         //      (4) Not staged for removal, but tracked in the current commit and deleted from the
         //      working directory.
         for (String fileName: files) {
+            if (!tracked.containsKey(fileName) && !added.containsKey(fileName)) {
+                continue;
+            }
             // compare file contents
-            Blob thisFile = new Blob(fileName);
+            String sha = shas.get(fileName);
             if (tracked.containsKey(fileName)
-                    && !thisFile.getSHA1().equals(tracked.get(fileName))
+                    && !sha.equals(tracked.get(fileName))
                     && !added.containsKey(fileName)) {
                 // case 1
                 modified.add(fileName + " (modified)");
             } else if (added.containsKey(fileName)
-                    && !thisFile.getSHA1().equals(added.get(fileName))) {
+                    && !sha.equals(added.get(fileName))) {
                 // case 2
                 modified.add(fileName + " (modified)");
             }
         }
         // case 3
         for (String fileName: added.keySet()) {
-            if (!files.contains(fileName)) {
+            if (!present.contains(fileName)) {
                 modified.add(fileName + " (deleted)");
             }
         }
         // case 4
         for (String fileName: tracked.keySet()) {
-            if (!files.contains(fileName)
+            if (!present.contains(fileName)
                     && !removed.contains(fileName)) {
                 modified.add(fileName + " (deleted)");
             }
@@ -312,12 +453,13 @@ public class Repository {
         System.out.println();
     }
 
-    /** Checks if working directory is an initialized Gitlet directory.
-     * Prints error message if it is not. */
+    /** Checks if working directory is an initialized Gitlet directory, in the format of
+     * this version (see Upgrade). Prints error message if it is not. */
     private static void checkInitialized() {
         if (!GITLET_DIR.exists()) {
             Utils.printAndExit("Not in an initialized Gitlet directory.");
         }
+        Upgrade.checkFormat(GITLET_DIR, false);
     }
 
     /** Creates a new branch with the given name, and points it at the current head commit. */
@@ -351,28 +493,54 @@ public class Repository {
         Commit head = Branch.getHeadCommit();
         checkoutCopyFiles(target, head);
         // Move current branch's head
-        Utils.writeContents(Utils.join(BRANCH_DIR, Branch.getCurrentBranchName()), commitID);
+        Branch.write(Utils.join(BRANCH_DIR, Branch.getCurrentBranchName()), target.getSHA1());
     }
 
     /** Method that copies and deletes files for checkoutBranch and reset, and clears staging.
-     * Does not change the current branch or branch heads. */
+     * Does not change the current branch or branch heads.
+     * Only the files that differ between the two commits are deleted or written, found by
+     * comparing their Trees. The other tracked files are only written again if they were
+     * changed in the working directory (see StatCache). */
     private static void checkoutCopyFiles(Commit targetCommit, Commit currentCommit) {
-        Set<String> trackedFiles = currentCommit.getContents();
-        checkUntrackedConflicts(targetCommit, currentCommit);
-        for (String name: trackedFiles) {
-            File file = Utils.join(CWD, name);
-            Utils.restrictedDelete(file);
+        TreeMap<String, String[]> changes = Commit.changes(currentCommit, targetCommit);
+        StatCache cache = StatCache.load();
+        cache.catchUp();
+        checkUntrackedConflicts(changes, cache);
+        // Files are deleted first, so that a directory can take the place of a file.
+        for (Map.Entry<String, String[]> change: changes.entrySet()) {
+            if (change.getValue()[1] == null) {
+                Utils.restrictedDelete(CWD, change.getKey());
+                cache.remove(change.getKey());
+            }
+        }
+        HashMap<String, String> target = targetCommit.getSnapshot();
+        List<String> kept = new ArrayList<>();
+        for (String fileName: target.keySet()) {
+            if (!changes.containsKey(fileName) && cache.exists(fileName)) {
+                kept.add(fileName);
+            }
+        }
+        TreeMap<String, String> working = cache.shas(kept);
+        for (Map.Entry<String, String> file: target.entrySet()) {
+            String name = file.getKey();
+            String sha = file.getValue();
+            if (!sha.equals(working.get(name))) {
+                Blob.getFromSHA(sha).writeContentsToFile(CWD, name);
+                cache.refresh(name, sha);
+            }
         }
-        targetCommit.copyToCWD();
         Staging.resetStaging();
+        cache.save();
     }
 
     /** Checks if a working file is untracked in the current branch and would be overwritten
-     * by a checkout. If so, prints an error message. */
-    private static void checkUntrackedConflicts(Commit targetCommit, Commit currentCommit) {
-        Set<String> trackedFiles = currentCommit.getContents();
-        for (String fileName: targetCommit.getContents()) {
-            if (Utils.join(CWD, fileName).isFile() && !trackedFiles.contains(fileName)) {
+     * by a checkout, that is, if CHANGES between the current commit and the checked out
+     * commit add it while it exists in the working directory (as CACHE, caught up with the
+     * monitor, tells). If so, prints an error message. */
+    private static void checkUntrackedConflicts(TreeMap<String, String[]> changes,
+                                                StatCache cache) {
+        for (Map.Entry<String, String[]> change: changes.entrySet()) {
+            if (change.getValue()[0] == null && cache.exists(change.getKey())) {
                 Utils.printAndExit("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
             }
@@ -406,48 +574,87 @@ public class Repository {
             System.out.println("Current branch fast-forwarded.");
             return;
         }
-        checkUntrackedConflicts(given, current);
+        StatCache cache = StatCache.load();
+        cache.catchUp();
+        checkUntrackedConflicts(Commit.changes(current, given), cache);
 
         // If there are no uncommitted changes, begin merging.
+        // Only the files changed since the split point in either branch can need merging:
+        // every other file is the same in all three commits. They are found by comparing
+        // Trees, and their versions in the three commits are kept in HashMaps.
+        TreeMap<String, String[]> currentChanges = Commit.changes(split, current);
+        TreeMap<String, String[]> givenChanges = Commit.changes(split, given);
+        HashMap<String, String> splitVersions = new HashMap<>();
+        HashMap<String, String> currentVersions = new HashMap<>();
+        HashMap<String, String> givenVersions = new HashMap<>();
+        TreeSet<String> changed = new TreeSet<>(currentChanges.keySet());
+        changed.addAll(givenChanges.keySet());
+        for (String fileName: changed) {
+            String[] inCurrent = currentChanges.get(fileName);
+            String[] inGiven = givenChanges.get(fileName);
+            String atSplit = inCurrent != null ? inCurrent[0] : inGiven[0];
+            putIfPresent(splitVersions, fileName, atSplit);
+            putIfPresent(currentVersions, fileName, inCurrent != null ? inCurrent[1] : atSplit);
+            putIfPresent(givenVersions, fileName, inGiven != null ? inGiven[1] : atSplit);
+        }
         // Use sets to keep track of files in the three referenced commits.
         // Use a HashMap to build the snapshot of the merged commit, starting from the snapshot of
         // the split point.
-        HashSet<String> givenFiles = new HashSet<>(given.getContents());
-        HashSet<String> currentFiles = new HashSet<>(current.getContents());
-        HashSet<String> splitFiles = new HashSet<>(split.getContents());
-        HashMap<String, String> mergeMap = new HashMap<>(split.getSnapshot());
-
-        mergeFromCurrent(currentFiles, givenFiles, splitFiles, current, mergeMap);
-        mergeSameInBoth(currentFiles, givenFiles, splitFiles, current, given, split, mergeMap);
-        mergeFromGiven(currentFiles, givenFiles, splitFiles, current, given, split, mergeMap);
+        HashSet<String> givenFiles = new HashSet<>(givenVersions.keySet());
+        HashSet<String> currentFiles = new HashSet<>(currentVersions.keySet());
+        HashSet<String> splitFiles = new HashSet<>(splitVersions.keySet());
+        HashMap<String, String> mergeMap = new HashMap<>(splitVersions);
+
+        mergeFromCurrent(currentFiles, givenFiles, splitFiles, currentVersions, mergeMap);
+        mergeSameInBoth(currentFiles, givenFiles, splitFiles,
+                currentVersions, givenVersions, splitVersions, mergeMap);
+        mergeFromGiven(currentFiles, givenFiles, splitFiles, cache,
+                currentVersions, givenVersions, splitVersions, mergeMap);
         mergeOnlyPresentInOne(currentFiles, givenFiles, splitFiles,
-                current, given, split, mergeMap);
+                currentVersions, givenVersions, splitVersions, mergeMap);
 
         boolean hasConflicts = mergeConflicts(currentFiles, givenFiles, splitFiles,
-                current, given, split, mergeMap);
+                currentVersions, givenVersions, splitVersions, mergeMap);
 
-        Commit mergedCommit = new Commit(branchName, current.getSHA1(), given.getSHA1(), mergeMap);
+        // The merged snapshot is the current one, with the merged versions of the changed files.
+        TreeMap<String, String> mergeChanges = new TreeMap<>();
+        for (String fileName: changed) {
+            mergeChanges.put(fileName, mergeMap.get(fileName));
+        }
+        String tree = Tree.update(current.getTreeSHA(), mergeChanges, BLOB_DIR);
+        Commit mergedCommit = new Commit(branchName, current.getSHA1(), given.getSHA1(), tree);
         mergedCommit.saveCommit();
+        CommitGraph.load().add(mergedCommit.getSHA1());
+        PathFilters.load().add(List.of(mergedCommit.getSHA1()));
         Branch.moveBranchHead(mergedCommit);
         Staging.resetStaging();
+        cache.save();
         if (hasConflicts) {
             System.out.println("Encountered a merge conflict.");
         }
     }
 
+    /** Puts [sha] in VERSIONS under [fileName], unless it is null. */
+    private static void putIfPresent(HashMap<String, String> versions, String fileName,
+                                     String sha) {
+        if (sha != null) {
+            versions.put(fileName, sha);
+        }
+    }
+
     /** Any files that were not present at the split point and are present only in the current
      * branch should remain as they are. Adds them to the merged commit's snapshot.*/
     private static void mergeFromCurrent(HashSet<String> currentFiles,
                                          HashSet<String> givenFiles,
                                          HashSet<String> splitFiles,
-                                         Commit current,
+                                         HashMap<String, String> current,
                                          HashMap<String, String> mergeMap) {
 
         HashSet<String> filesInCurrent = new HashSet<>(currentFiles);
         filesInCurrent.removeAll(splitFiles);
         filesInCurrent.removeAll(givenFiles);
         for (String fileName : filesInCurrent) {
-            mergeMap.put(fileName, current.getFileSHA(fileName));
+            mergeMap.put(fileName, current.get(fileName));
         }
     }
 
@@ -457,16 +664,18 @@ public class Repository {
     private static void mergeSameInBoth(HashSet<String> currentFiles,
                                         HashSet<String> givenFiles,
                                         HashSet<String> splitFiles,
-                                        Commit current, Commit given, Commit split,
+                                        HashMap<String, String> current,
+                                        HashMap<String, String> given,
+                                        HashMap<String, String> split,
                                         HashMap<String, String> mergeMap) {
 
         HashSet<String> filesInCurrAndGiven = new HashSet<>(currentFiles);
         filesInCurrAndGiven.retainAll(givenFiles);
         // Same file in current and given, different or absent at split point
         for (String fileName: filesInCurrAndGiven) {
-            if (current.getFileSHA(fileName).equals(given.getFileSHA(fileName))) {
-                if (!current.getFileSHA(fileName).equals(split.getFileSHA(fileName))) {
-                    mergeMap.put(fileName, current.getFileSHA(fileName));
+            if (current.get(fileName).equals(given.get(fileName))) {
+                if (!current.get(fileName).equals(split.get(fileName))) {
+                    mergeMap.put(fileName, current.get(fileName));
                 }
             }
         }
@@ -481,53 +690,63 @@ public class Repository {
     /** Stages non-conflicting files from the given branch. */
     private static void mergeFromGiven(HashSet<String> currentFiles,
                                        HashSet<String> givenFiles,
-                                       HashSet<String> splitFiles,
-                                       Commit current, Commit given, Commit split,
+                                       HashSet<String> splitFiles, StatCache cache,
+                                       HashMap<String, String> current,
+                                       HashMap<String, String> given,
+                                       HashMap<String, String> split,
                                        HashMap<String, String> mergeMap) {
 
         for (String fileName: givenFiles) {
-            String sha = given.getFileSHA(fileName);
+            String sha = given.get(fileName);
             // Files present in current commit and at split point:
             if (currentFiles.contains(fileName) && splitFiles.contains(fileName)) {
-                String shaAtCurrent = current.getFileSHA(fileName);
-                String shaAtSplit = split.getFileSHA(fileName);
+                String shaAtCurrent = current.get(fileName);
+                String shaAtSplit = split.get(fileName);
                 // Files that were modified in the given branch since the split point but are the
                 // same in the current branch as at the split are checked out from the given commit
                 // and staged.
                 if (!sha.equals(shaAtSplit) && shaAtCurrent.equals(shaAtSplit)) {
                     mergeMap.put(fileName, sha);
-                    checkoutFromCommit(given.getSHA1(), fileName);
-                    addFile(fileName);
+                    checkoutAndStage(fileName, sha, cache);
                 }
             }
             // Files that were not present at the split point and are present only in the given
             // branch are checked out from the given commit and staged.
             if (!splitFiles.contains(fileName) && !currentFiles.contains(fileName)) {
                 mergeMap.put(fileName, sha);
-                checkoutFromCommit(given.getSHA1(), fileName);
-                addFile(fileName);
+                checkoutAndStage(fileName, sha, cache);
             }
         }
     }
 
+    /** Writes the Blob with the given SHA1 to the working file [fileName] and stages it, as
+     * checkout and add would, but without saving the index: merge saves it once done. */
+    private static void checkoutAndStage(String fileName, String sha, StatCache cache) {
+        Blob.getFromSHA(sha).writeContentsToFile(CWD, fileName);
+        cache.refresh(fileName, sha);
+        Staging.stageFile(fileName, cache);
+    }
+
     /** Handles files present at split point, unchanged in one branch and removed in the other. */
     private static void mergeOnlyPresentInOne(HashSet<String> currentFiles,
                                               HashSet<String> givenFiles,
                                               HashSet<String> splitFiles,
-                                              Commit current, Commit given, Commit split,
+                                              HashMap<String, String> current,
+                                              HashMap<String, String> given,
+                                              HashMap<String, String> split,
                                               HashMap<String, String> mergeMap) {
         for (String fileName: splitFiles) {
             // Any files present at the split point, unmodified in the current branch,
             // and absent in the given branch are removed (and untracked).
             if (!givenFiles.contains(fileName)
-                    && split.getFileSHA(fileName).equals(current.getFileSHA(fileName))) {
+                    && split.get(fileName).equals(current.get(fileName))) {
                 mergeMap.remove(fileName);
-                removeFile(fileName);
+                Staging.removeFile(fileName);
             }
             // Any files present at the split point, unmodified in the given branch,
             // and absent in the current branch should remain absent.
             if (!currentFiles.contains(fileName)
-                    && split.getFileSHA(fileName).equals(given.getFileSHA(fileName))) {
+                    && split.get(fileName).equals(given.get(fileName))) {
                 mergeMap.remove(fileName);
             }
         }
@@ -543,15 +762,17 @@ public class Repository {
     private static boolean mergeConflicts(HashSet<String> currentFiles,
                                           HashSet<String>  givenFiles,
                                           HashSet<String> splitFiles,
-                                          Commit current, Commit given, Commit split,
+                                          HashMap<String, String> current,
+                                          HashMap<String, String> given,
+                                          HashMap<String, String> split,
                                           HashMap<String, String> mergeMap) {
 
         boolean foundConflict = false;
         // For files present at the split point:
         for (String fileName: splitFiles) {
-            String curr = current.getFileSHA(fileName);
-            String givn = given.getFileSHA(fileName);
-            String splt = split.getFileSHA(fileName);
+            String curr = current.get(fileName);
+            String givn = given.get(fileName);
+            String splt = split.get(fileName);
             if (currentFiles.contains(fileName) && givenFiles.contains(fileName)
                     && (!curr.equals(givn) && !curr.equals(splt) && !givn.equals(splt))) {
                 // case (1)
@@ -564,8 +785,7 @@ public class Repository {
                 continue;
             }
             foundConflict = true;
-            Blob conflicted = new Blob(fileName);
-            conflicted.saveBlob();
+            Blob conflicted = Blob.saveFromFile(fileName, BLOB_DIR);
             mergeMap.put(fileName, conflicted.getSHA1());
         }
         // case (3)
@@ -576,13 +796,12 @@ public class Repository {
         notSplit.removeAll(splitFiles);
         notSplit.retainAll(givenFiles);
         for (String fileName: notSplit) {
-            String curr = current.getFileSHA(fileName);
-            String givn = given.getFileSHA(fileName);
+            String curr = current.get(fileName);
+            String givn = given.get(fileName);
             if (!curr.equals(givn)) {
                 foundConflict = true;
                 Blob.writeConflict(CWD, fileName, curr, givn);
-                Blob conflicted = new Blob(fileName);
-                conflicted.saveBlob();
+                Blob conflicted = Blob.saveFromFile(fileName, BLOB_DIR);
                 mergeMap.put(fileName, conflicted.getSHA1());
             }
         }
@@ -632,19 +851,21 @@ public class Repository {
      * If the Gitlet system on the remote machine exists but does not have the input branch,
      * then simply adds the branch to the remote Gitlet.*/
     public static void push(String remoteName, String branchName) {
+        checkInitialized();
         HashMap<String, File> remotes = getRemotes();
         File remoteDir = remotes.get(remoteName);
         File branch = Utils.join(remoteDir, "heads", branchName);
         if (!remotes.containsKey(remoteName) || !remoteDir.isDirectory()) {
             Utils.printAndExit("Remote directory not found.");
         }
+        Upgrade.checkFormat(remoteDir, true);
         Commit given = getRemoteBranch(remoteDir, branchName);
         Commit current = Branch.getHeadCommit();
         if (given == null) {
             // create named branch if it doesn't exist, and set it to the initial commit
             given = new Commit();
             Utils.writeContents(branch, given.getSHA1());
-            Utils.writeObject(Utils.join(remoteDir, "commits"), given);
+            given.saveCommit(Utils.join(remoteDir, "commits"));
 
         }
         if (!Commit.isAncestor(given, current, false)) {
@@ -656,25 +877,123 @@ public class Repository {
 
     }
 
-    /** Append commits to remote branch. */
+    /** Append commits to remote branch. The commits, and the blobs the remote is missing,
+     * are sent as one pack in which blobs may be stored as deltas. */
     private static void pushToRemote(File remoteDir, Commit given, Commit current) {
-        // Copy commits
-        Commit pointer = current;
-        File blobDir = Utils.join(remoteDir, "blobs");
-        File commDir = Utils.join(remoteDir, "commits");
-        while (!given.equals(pointer)) {
-            pointer.saveCommit(commDir);
-            HashMap<String, String> snapshot = pointer.getSnapshot();
-            // Copy blobs not present in remote branch
-            for (String fileName: snapshot.keySet()) {
-                String sha = snapshot.get(fileName);
-                File blobFile = Utils.join(blobDir, sha);
-                if (!blobFile.isFile()) {
-                    Blob b = Blob.getFromSHA(sha);
-                    b.saveBlob(blobDir);
-                }
+        List<Pack.Entry> entries = missingEntries(GITLET_DIR, remoteDir, current);
+        Pack.writeWithDeltas(Utils.join(remoteDir, "packs"), entries);
+        MessageIndex.add(Utils.join(remoteDir, "commits"), commitSHAs(entries));
+    }
+
+    /** Returns the SHA1s of the commits among ENTRIES. */
+    private static List<String> commitSHAs(List<Pack.Entry> entries) {
+        List<String> result = new ArrayList<>();
+        for (Pack.Entry entry : entries) {
+            if (entry.type == Pack.COMMIT) {
+                result.add(entry.sha);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the commits of [head]'s history, with their Trees and blobs, that the
+     * repository at [toDir] is missing, read from the repository at [fromDir], as pack
+     * entries. If [fromDir] has reachability bitmaps (see BitmapIndex), the objects missing
+     * are those reachable from [head] but from none of the branch heads of [toDir], found
+     * without looking up any object in [toDir]. Otherwise, each object is looked up in
+     * [toDir]. Either way, the commits and Trees that [toDir] has are not opened. */
+    private static List<Pack.Entry> missingEntries(File fromDir, File toDir, Commit head) {
+        File fromCommDir = Utils.join(fromDir, "commits");
+        File fromBlobDir = Utils.join(fromDir, "blobs");
+        File toCommDir = Utils.join(toDir, "commits");
+        File toBlobDir = Utils.join(toDir, "blobs");
+        List<String> haves = new ArrayList<>();
+        for (String sha : Branch.headSHAsIn(Utils.join(toDir, "heads"))) {
+            if (Commit.exists(sha, fromCommDir)) {
+                haves.add(sha);
+            }
+        }
+        Set<String> missing = BitmapIndex.missing(fromDir, List.of(head.getSHA1()), haves);
+        Predicate<String> commitMissing = missing != null ? missing::contains
+                : sha -> !Commit.exists(sha, toCommDir);
+        Predicate<String> blobMissing = missing != null ? missing::contains
+                : sha -> !Blob.exists(sha, toBlobDir);
+        List<Pack.Entry> entries = new ArrayList<>();
+        HashSet<String> sent = new HashSet<>();
+        for (Commit pointer : missingCommits(head, fromCommDir, commitMissing)) {
+            entries.add(new Pack.Entry(pointer.getSHA1(), Pack.COMMIT, fromCommDir));
+            addMissingTree(pointer.getTreeSHA(), "", fromBlobDir, blobMissing, entries, sent);
+        }
+        return entries;
+    }
+
+    /** Returns the commits that [head] and its ancestors, read from [fromDir], include and
+     * that are MISSING, following both parents of merge commits. The walk stops at the
+     * commits that are not missing, since their ancestors are not missing either. */
+    private static List<Commit> missingCommits(Commit head, File fromDir,
+                                               Predicate<String> missing) {
+        List<Commit> result = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        ArrayDeque<String> pending = new ArrayDeque<>();
+        pending.push(head.getSHA1());
+        while (!pending.isEmpty()) {
+            String sha = pending.pop();
+            if (!seen.add(sha) || !missing.test(sha)) {
+                continue;
+            }
+            Commit commit = Commit.getFromSHA(sha, fromDir);
+            result.add(commit);
+            for (String parent : commit.getParentSHAs()) {
+                pending.push(parent);
+            }
+        }
+        return result;
+    }
+
+    /** Adds the Tree with the given SHA1, found at [path], from [fromDir] to ENTRIES, along
+     * with the Trees and blobs it holds, unless it is not MISSING or it was already added
+     * to SENT. A Tree is only stored once everything it holds is, so the Trees that are
+     * not missing are not read at all. */
+    private static void addMissingTree(String sha, String path, File fromDir,
+                                       Predicate<String> missing, List<Pack.Entry> entries,
+                                       HashSet<String> sent) {
+        if (sha.equals(Tree.EMPTY) || !missing.test(sha) || !sent.add(sha)) {
+            return;
+        }
+        Pack.Entry tree = new Pack.Entry(sha, Pack.TREE, fromDir);
+        tree.path = path;
+        entries.add(tree);
+        String prefix = path.isEmpty() ? "" : path + "/";
+        for (Map.Entry<String, Tree.Entry> entry
+                : Tree.decode(tree.payload()).entries().entrySet()) {
+            Tree.Entry child = entry.getValue();
+            if (child.isTree) {
+                addMissingTree(child.sha, prefix + entry.getKey(), fromDir, missing, entries,
+                        sent);
+            } else {
+                addMissingBlob(child.sha, prefix + entry.getKey(), fromDir, missing, entries,
+                        sent);
+            }
+        }
+    }
+
+    /** Adds the blob with the given SHA1, tracked at [path], from [fromDir] to ENTRIES,
+     * unless it is not MISSING or it was already added to SENT. For chunked blobs, only
+     * the missing chunks are added along with the chunk list. */
+    private static void addMissingBlob(String sha, String path, File fromDir,
+                                       Predicate<String> missing, List<Pack.Entry> entries,
+                                       HashSet<String> sent) {
+        if (!missing.test(sha) || !sent.add(sha)) {
+            return;
+        }
+        byte type = Pack.readType(fromDir, sha);
+        Pack.Entry blob = new Pack.Entry(sha, type, fromDir);
+        blob.path = path;
+        entries.add(blob);
+        if (type == Pack.CHUNK_LIST) {
+            for (Blob.Chunk chunk : Blob.decodeChunks(blob.payload())) {
+                addMissingBlob(chunk.sha, path, fromDir, missing, entries, sent);
             }
-            pointer = pointer.getMainParent(commDir);
         }
     }
 
@@ -691,11 +1010,13 @@ public class Repository {
 
     /** Brings down commits from the remote Gitlet repository into the local Gitlet repository. */
     public static void fetch(String remoteName, String branchName) {
+        checkInitialized();
         HashMap<String, File> remotes = getRemotes();
         File remoteDir = remotes.get(remoteName);
         if (!remotes.containsKey(remoteName) || !remoteDir.isDirectory()) {
             Utils.printAndExit("Remote directory not found.");
         }
+        Upgrade.checkFormat(remoteDir, true);
         Commit given = getRemoteBranch(remoteDir, branchName);
         if (given == null) {
             Utils.printAndExit("That remote does not have that branch.");
@@ -705,30 +1026,16 @@ public class Repository {
 
     /** Copies all commits and blobs from the given branch in the remote repository (that are not
      * already in the current repository) into a branch named [remote name]/[remote branch name].
+     * The copied objects are stored as one pack in which blobs may be stored as deltas.
      */
     private static void fetchRemote(File remoteDir, Commit given,
                                     String remoteName, String branchName) {
-        // Copy commits
-        Commit pointer = given;
-        File commDir = Utils.join(remoteDir, "commits");
-        File blobDir = Utils.join(remoteDir, "blobs");
-        while (pointer.getMainParent(commDir) != null) {
-            File destination = Utils.join(COMM_DIR, pointer.getSHA1());
-            if (!destination.isFile()) {
-                Utils.writeObject(destination, pointer);
-                HashMap<String, String> snapshot = pointer.getSnapshot();
-                // Copy blobs not present in the current branch
-                for (String fileName: snapshot.keySet()) {
-                    String sha = snapshot.get(fileName);
-                    File blob = Utils.join(BLOB_DIR, sha);
-                    if (!blob.isFile()) {
-                        Blob b = Blob.getFromSHA(sha, blobDir);
-                        b.saveBlob();
-                    }
-                }
-            }
-            pointer = pointer.getMainParent(commDir);
-        }
+        List<Pack.Entry> entries = missingEntries(remoteDir, GITLET_DIR, given);
+        Pack.writeWithDeltas(PACK_DIR, entries);
+        CommitGraph.load().add(given.getSHA1());
+        List<String> fetched = commitSHAs(entries);
+        MessageIndex.add(COMM_DIR, fetched);
+        PathFilters.load().add(fetched);
         // Set [remote name]/[remote branch name] to point to the fetched branch's head
         Utils.join(BRANCH_DIR, remoteName).mkdir();
         File fetchedBranch = Utils.join(BRANCH_DIR, remoteName, branchName);
@@ -741,4 +1048,160 @@ public class Repository {
         fetch(remoteName, branchName);
         merge(remoteName + File.separator + branchName);
     }
+
+    /** Moves all loose blobs and commits into a new pack, so that each later lookup costs
+     * a binary search in the pack's index and one read, instead of opening one file per
+     * object. Blobs are stored as deltas against similar blobs where that saves space.
+     * If [all] is true, the existing packs are merged into the new one as well. */
+    public static void repack(boolean all) {
+        checkInitialized();
+        int[] packed = Pack.repack(GITLET_DIR, all);
+        System.out.println("Packed " + packed[0] + " objects (" + packed[1] + " as deltas).");
+    }
+
+    /** Converts the repository from the format of the first version of Gitlet, keeping the
+     * old one in .gitlet/old (see Upgrade). */
+    public static void upgrade() {
+        int converted = Upgrade.upgrade();
+        System.out.println("Upgraded " + converted + " commits; the old repository is kept "
+                + "in .gitlet/old.");
+    }
+
+    /** Prints how well chunked blobs deduplicate: how many bytes their contents take in
+     * total, how many bytes their distinct chunks take, and how chunk lengths are spread
+     * over power-of-two buckets. Used to tune chunk.threshold and chunk.averageSize. */
+    public static void chunkStats() {
+        checkInitialized();
+        TreeSet<String> lists = new TreeSet<>(Pack.list(PACK_DIR, Pack.CHUNK_LIST));
+        for (String sha : LooseObject.list(BLOB_DIR)) {
+            if (LooseObject.typeOf(LooseObject.fileFor(BLOB_DIR, sha)) == Pack.CHUNK_LIST) {
+                lists.add(sha);
+            }
+        }
+        long totalBytes = 0;
+        long chunkCount = 0;
+        HashMap<String, Integer> unique = new HashMap<>();
+        for (String sha : lists) {
+            for (Blob.Chunk chunk : Blob.decodeChunks(Pack.readObject(BLOB_DIR, sha))) {
+                totalBytes += chunk.length;
+                chunkCount += 1;
+                unique.put(chunk.sha, chunk.length);
+            }
+        }
+        long uniqueBytes = 0;
+        TreeMap<Integer, Integer> buckets = new TreeMap<>();
+        for (int length : unique.values()) {
+            uniqueBytes += length;
+            buckets.merge(31 - Integer.numberOfLeadingZeros(Math.max(length, 1)), 1,
+                    Integer::sum);
+        }
+        System.out.println("Chunked blobs: " + lists.size() + " (" + totalBytes + " bytes)");
+        System.out.println("Chunks: " + chunkCount + " referenced, " + unique.size()
+                + " distinct (" + uniqueBytes + " bytes)");
+        System.out.printf("Dedup ratio: %.2f%n",
+                uniqueBytes == 0 ? 1.0 : (double) totalBytes / uniqueBytes);
+        System.out.println("Chunk sizes:");
+        for (Map.Entry<Integer, Integer> bucket : buckets.entrySet()) {
+            System.out.printf("  %d-%d bytes: %d%n", 1L << bucket.getKey(),
+                    (1L << (bucket.getKey() + 1)) - 1, bucket.getValue());
+        }
+    }
+
+    /** Prints the value of the given setting, or sets it if [value] is not null. */
+    public static void config(String key, String value) {
+        checkInitialized();
+        if (value == null) {
+            System.out.println(Config.get(key, ""));
+        } else {
+            Config.set(key, value);
+        }
+    }
+
+    /** Deletes the blobs and commits that no branch can reach and that are older than the
+     * grace period (gc.graceSeconds, two weeks by default, or none if [now] is true), then
+     * repacks the rest. Prints what was reclaimed and how long each phase took. */
+    public static void gc(boolean now) {
+        checkInitialized();
+        long grace = now ? 0 : 1000 * Config.getLong("gc.graceSeconds", 14 * 24 * 3600);
+        GarbageCollector.Result result = GarbageCollector.collect(grace);
+        System.out.println("Marked " + result.reachable + " reachable objects in "
+                + result.markMillis + " ms.");
+        System.out.println("Swept " + result.reclaimedObjects + " objects in "
+                + result.sweepMillis + " ms.");
+        System.out.println("Packed " + result.packed + " objects (" + result.deltas
+                + " as deltas) in " + result.repackMillis + " ms.");
+        System.out.println("Reclaimed " + result.reclaimedObjects + " objects ("
+                + result.reclaimedBytes + " bytes).");
+    }
+
+    /** Verifies that every stored object still hashes to its SHA1 and that every object
+     * referred to by a commit, a chunk list or a branch is stored. Prints the corrupt,
+     * missing and dangling objects, then the throughput of the check. */
+    public static void fsck() {
+        checkInitialized();
+        Fsck.Result result = Fsck.check();
+        for (String object : result.corrupt) {
+            System.out.println("corrupt " + object);
+        }
+        for (String object : result.missing) {
+            System.out.println("missing " + object);
+        }
+        for (String object : result.dangling) {
+            System.out.println("dangling " + object);
+        }
+        double seconds = Math.max(result.millis, 1) / 1000.0;
+        System.out.printf("Checked %d objects (%.1f MB) in %d ms: %.1f MB/s, %.0f objects/s.%n",
+                result.objects, result.bytes / 1e6, result.millis,
+                result.bytes / 1e6 / seconds, result.objects / seconds);
+    }
+
+    /** Starts a background monitor of the working directory, or stops it if [stop] is
+     * true. While it runs, status, add and checkout learn which working files changed
+     * from it instead of scanning the working directory (see Monitor). */
+    public static void monitor(boolean stop) {
+        checkInitialized();
+        if (stop) {
+            Monitor.stop();
+        } else {
+            Monitor.start();
+        }
+    }
+
+    /** Runs the monitor of the working directory in this process, until it is stopped. */
+    public static void runMonitor() {
+        checkInitialized();
+        Monitor.run();
+    }
+
+    /** Computes the changed-path filters of every commit that has none, which log -- [file]
+     * uses to skip commits (see PathFilters), in a background process, or in this one if
+     * [run] is true. */
+    public static void pathFilters(boolean run) {
+        checkInitialized();
+        if (run) {
+            System.out.println("Computed the changed-path filters of "
+                    + PathFilters.writeAll() + " commits.");
+        } else {
+            PathFilters.writeAllInBackground();
+            System.out.println("Computing changed-path filters in the background.");
+        }
+    }
+
+    /** Starts a background server for this repository, or stops it if [stop] is true.
+     * While it runs, gitlet.Client runs commands in it, without starting a new Java
+     * virtual machine for each (see Server). */
+    public static void server(boolean stop) {
+        checkInitialized();
+        if (stop) {
+            Server.stop();
+        } else {
+            Server.start();
+        }
+    }
+
+    /** Runs the server of this repository in this process, until it is stopped. */
+    public static void runServer() {
+        checkInitialized();
+        Server.run();
+    }
 }
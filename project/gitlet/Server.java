@@ -0,0 +1,319 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/** A long-running process that runs the Gitlet commands of one repository, so that each
+ * command saves the start-up of a Java virtual machine, and finds the commits, refs,
+ * settings and index it read for earlier commands still in memory.
+ *
+ * The server listens on a Unix domain socket (.gitlet/server.sock), and runs one
+ * command at a time. A Client sends it a request:
+ *      the number of arguments, as an int, followed by the arguments;
+ *      the client's working directory;
+ * each string written with DataOutputStream.writeUTF. The server answers with frames,
+ * each made of a kind byte and an int:
+ *      STDOUT or STDERR, followed by that many bytes of output;
+ *      EXIT, whose int is the status the command exited with, and which ends the answer;
+ *      REFUSED, which ends the answer to a command the client must run itself: one from
+ *      another working directory, one that runs until stopped (those with "--run"), or
+ *      another server command.
+ * The request ["server", "--stop"] stops the server once it is answered.
+ *
+ * Other processes may change .gitlet between two commands, so before each command the
+ * server drops what it cannot trust any more:
+ *      the index, unless its trailing SHA1 is still that of the index file (see Index);
+ *      the packs of each pack directory whose stat data changed since they were listed,
+ *      along with the cached objects, since packing and gc delete objects (see Pack and
+ *      RepoContext);
+ *      the settings, if the stat data of the config file changed (see Config).
+ * The HEAD and branch files are checked by stat data each time they are read (see
+ * Branch). Stat data is only trusted for a file that was modified at least RACY_NANOS
+ * before it was read: a change made within the same tick of the file system's clock
+ * would not show in it.
+ */
+public class Server {
+
+    /** The current working directory. */
+    private static final File CWD = Paths.CWD;
+
+    /** The socket the server listens on. */
+    static final File SOCKET = Utils.join(Paths.GITLET_DIR, "server.sock");
+
+    /** Kind of frames holding standard output. */
+    static final byte STDOUT = 1;
+
+    /** Kind of frames holding standard error. */
+    static final byte STDERR = 2;
+
+    /** Kind of the frame holding the exit status. */
+    static final byte EXIT = 3;
+
+    /** Kind of the frame refusing a command. */
+    static final byte REFUSED = 4;
+
+    /** How long a change must be past before stat data is trusted to show the next one,
+     * in nanoseconds. */
+    private static final long RACY_NANOS = 2_000_000_000L;
+
+    /** How long start waits for the server to listen, in milliseconds. */
+    private static final long START_TIMEOUT = 5000;
+
+    /** True while this process runs commands for clients. */
+    private static volatile boolean serving;
+
+    /** True once the server was asked to stop. */
+    private static boolean stopped;
+
+    /** Thrown instead of exiting the process while a command runs in the server, so that
+     * only the command stops (see Utils.exit). */
+    static class Exit extends RuntimeException {
+        /** Version of the serialized form. */
+        private static final long serialVersionUID = 1L;
+
+        /** The exit status of the command. */
+        final int status;
+
+        Exit(int status) {
+            super(null, null, false, false);
+            this.status = status;
+        }
+    }
+
+    /** Output stream that sends what is written to it as frames of the given kind. */
+    private static class FrameStream extends OutputStream {
+        /** Stream to the client. */
+        private final DataOutputStream out;
+        /** Kind of the frames. */
+        private final byte kind;
+
+        FrameStream(DataOutputStream out, byte kind) {
+            this.out = out;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (out) {
+                out.writeByte(kind);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /** Returns true if this process is running commands for clients. */
+    static boolean isServing() {
+        return serving;
+    }
+
+    /** Returns true if stat data [stat], taken when a file was read, shows a modification
+     * old enough that any later one changes it. */
+    static boolean settled(StatCache.Entry stat) {
+        return stat.mtime < System.currentTimeMillis() * 1_000_000L - RACY_NANOS;
+    }
+
+    /** Starts a server for the current repository in the background, unless one is
+     * already running. */
+    static void start() {
+        if (isRunning()) {
+            Utils.printAndExit("A server is already running.");
+        }
+        Utils.runInBackground(CWD, "server", "--run");
+        try {
+            long deadline = System.currentTimeMillis() + START_TIMEOUT;
+            while (!isRunning()) {
+                if (System.currentTimeMillis() > deadline) {
+                    Utils.printAndExit("The server did not start.");
+                }
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Stops the running server of the current repository, once it finished its current
+     * command. */
+    static void stop() {
+        try (SocketChannel channel = connect()) {
+            if (channel == null) {
+                Utils.printAndExit("No server is running.");
+            }
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            Client.writeRequest(out, new String[] {"server", "--stop"}, CWD.getPath());
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            while (in.readByte() != EXIT) {
+                in.skipNBytes(in.readInt());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true if a server is listening for the current repository. */
+    static boolean isRunning() {
+        try (SocketChannel channel = connect()) {
+            return channel != null;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns a channel connected to the server of the current repository, or null if
+     * none is listening. */
+    private static SocketChannel connect() {
+        if (!SOCKET.exists()) {
+            return null;
+        }
+        try {
+            return SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Runs the commands of clients until the server is stopped, or the repository is
+     * deleted. */
+    static void run() {
+        if (isRunning()) {
+            Utils.printAndExit("A server is already running.");
+        }
+        // A socket file left by a server that died is in the way of binding.
+        SOCKET.delete();
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            serving = true;
+            // Accepting never notices that the repository was deleted: this thread closes
+            // the socket then, which ends the loop below.
+            Thread watcher = new Thread(() -> closeWhenDeleted(server));
+            watcher.setDaemon(true);
+            watcher.start();
+            while (!stopped && Paths.GITLET_DIR.isDirectory()) {
+                try (SocketChannel channel = server.accept()) {
+                    serve(channel);
+                } catch (IOException excp) {
+                    // The client went away; the next one is served all the same.
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            serving = false;
+            SOCKET.delete();
+        }
+    }
+
+    /** Closes [server] once the .gitlet directory is deleted, checking every second. */
+    private static void closeWhenDeleted(ServerSocketChannel server) {
+        try {
+            while (Paths.GITLET_DIR.isDirectory()) {
+                Thread.sleep(1000);
+            }
+            server.close();
+        } catch (IOException | InterruptedException excp) {
+            // The server is stopped some other way.
+        }
+    }
+
+    /** Reads a request from [channel], runs its command and sends back its output and
+     * exit status. */
+    private static void serve(SocketChannel channel) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+        String cwd = in.readUTF();
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        if (args.length == 2 && args[0].equals("server") && args[1].equals("--stop")) {
+            stopped = true;
+            out.writeByte(EXIT);
+            out.writeInt(0);
+            out.flush();
+            return;
+        }
+        if (!served(args, cwd)) {
+            out.writeByte(REFUSED);
+            out.writeInt(0);
+            out.flush();
+            return;
+        }
+        refresh();
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream clientOut = new PrintStream(new FrameStream(out, STDOUT));
+        PrintStream clientErr = new PrintStream(new FrameStream(out, STDERR));
+        System.setOut(clientOut);
+        System.setErr(clientErr);
+        int status = 0;
+        try {
+            Main.main(args);
+        } catch (Exit exit) {
+            status = exit.status;
+        } catch (RuntimeException | Error excp) {
+            System.err.print("Exception in thread \"main\" ");
+            excp.printStackTrace();
+            status = 1;
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        clientOut.flush();
+        clientErr.flush();
+        synchronized (out) {
+            out.writeByte(EXIT);
+            out.writeInt(status);
+            out.flush();
+        }
+    }
+
+    /** Returns true if the command [args], run from [cwd], may run in this server. */
+    private static boolean served(String[] args, String cwd) {
+        for (String arg : args) {
+            if (arg.equals("--run")) {
+                return false;
+            }
+        }
+        if (args.length > 0 && args[0].equals("server")) {
+            return false;
+        }
+        try {
+            return Path.of(cwd).toRealPath().equals(CWD.toPath().toRealPath());
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Drops what was read for earlier commands and may have been changed since by other
+     * processes. */
+    private static void refresh() {
+        Index.forgetIfStale();
+        Config.forgetIfChanged();
+        if (Pack.forgetChanged()) {
+            RepoContext.forgetObjects();
+        }
+    }
+}
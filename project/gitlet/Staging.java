@@ -1,10 +1,17 @@
 package gitlet;
 
 import java.io.File;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
-/** Handles most interactions with staged files or the Staging Area. */
+/** Handles most interactions with staged files or the Staging Area, which is kept in the
+ * Index. */
 public class Staging {
 
     /** Current working directory. */
@@ -13,13 +20,6 @@ public class Staging {
     /** Directory of files staged for addition. */
     public static final File STAGE_DIR = Paths.STAGE_DIR;
 
-    /** File that tracks items added to the staging area. Maps file names to Blob SHA1s. */
-    public static final File INDEX = Paths.INDEX;
-
-    /** File that tracks items staged for removal. */
-    public static final File REMOVED = Paths.REMOVED;
-
-
     /** Adds a copy of the file as it currently exists to the staging area.
      * If the file is already staged, it is overwritten.
      *
@@ -27,50 +27,154 @@ public class Staging {
      * in the current commit, it won't be staged, and will be removed from the
      * staging area if it is already there.
      *
-     * The file will no longer be staged for removal, if it was at the time of the command. */
-    public static void stageFile(String fileName) {
-        Blob addedFile = new Blob(fileName);
-        TreeMap<String, String> stagedFiles = getStagedIndex();
-        File destination = Utils.join(STAGE_DIR, addedFile.getSHA1());
-
-        /* If file was staged for removal, it will be unstaged. */
-        TreeSet<String> removedFiles = getRemoved();
-        if (removedFiles.remove(fileName)) {
-            Utils.writeObject(REMOVED, removedFiles);
+     * The file will no longer be staged for removal, if it was at the time of the command.
+     *
+     * CACHE must have caught up with the monitor (see StatCache.catchUp). The index is
+     * not saved, so that a command staging many files only saves it once. */
+    public static void stageFile(String fileName, StatCache cache) {
+        stageFiles(Branch.getHeadCommit(), List.of(fileName), List.of(), false, cache);
+    }
+
+    /** Stages each of the working files FILENAMES as stageFile does, and stops tracking
+     * each of the files MISSING from the working directory: they are unstaged, and
+     * staged for removal if HEAD, the current commit, tracks them. The index is not
+     * saved.
+     *
+     * A file whose contents are known from CACHE is not read at all, unless they are not
+     * saved yet. If [hashTracked] is true, the other files that the current commit tracks
+     * are hashed first, all at once (see StatCache.shas), since most of them usually did
+     * not change and hashing is much cheaper than compressing. The remaining files are
+     * hashed and compressed into the staging area in a single pass, concurrently, each
+     * distinct contents once. */
+    public static void stageFiles(Commit head, Collection<String> fileNames,
+                                  Collection<String> missing, boolean hashTracked,
+                                  StatCache cache) {
+        Index index = Index.load();
+        Map<String, String> tracked = fileNames.size() + missing.size() > 1
+                ? head.getSnapshot() : null;
+        TreeMap<String, String> shas = new TreeMap<>();
+        List<String> unknown = new ArrayList<>();
+        for (String fileName : fileNames) {
+            String sha = cache.cachedSha(fileName);
+            if (sha != null) {
+                shas.put(fileName, sha);
+            } else {
+                unknown.add(fileName);
+            }
+        }
+        if (hashTracked) {
+            List<String> toHash = new ArrayList<>();
+            for (String fileName : unknown) {
+                if (headSHA(head, tracked, fileName) != null) {
+                    toHash.add(fileName);
+                }
+            }
+            unknown.removeAll(toHash);
+            shas.putAll(cache.shas(toHash));
+        }
+        // Known contents the commit or the store already hold need not be read again.
+        HashMap<String, String> toSave = new HashMap<>();
+        for (Map.Entry<String, String> file : shas.entrySet()) {
+            String sha = file.getValue();
+            if (!sha.equals(headSHA(head, tracked, file.getKey()))
+                    && !Blob.exists(sha, Paths.BLOB_DIR) && !Blob.exists(sha, STAGE_DIR)) {
+                toSave.putIfAbsent(sha, file.getKey());
+            }
+        }
+        List<String> toStore = new ArrayList<>(unknown);
+        toStore.addAll(toSave.values());
+        for (Map.Entry<String, StatCache.Entry> file : store(toStore).entrySet()) {
+            StatCache.Entry stat = file.getValue();
+            String known = shas.put(file.getKey(), stat.sha);
+            // A file whose contents were unknown, or that changed since it was hashed, is
+            // recorded again.
+            if (known == null || !known.equals(stat.sha)) {
+                cache.record(file.getKey(), stat, stat.sha);
+            }
+            // Contents the store already holds need no staged copy: commit will find them
+            // there.
+            if (Blob.exists(stat.sha, Paths.BLOB_DIR)) {
+                LooseObject.fileFor(STAGE_DIR, stat.sha).delete();
+            }
         }
 
-        /* Check if a version of the file is already staged. If so, it will get deleted.
-        The new version will be staged, unless it is reverting to the current commit. */
-        String stagedSHA = stagedFiles.get(fileName);
-        if (stagedSHA != null) {
-            Utils.join(STAGE_DIR, stagedSHA).delete();
+        // Staged Blobs that lost their last reference are deleted once every file is
+        // staged, since another file may be staged with the same contents.
+        List<String> replaced = new ArrayList<>();
+        for (Map.Entry<String, String> file : shas.entrySet()) {
+            String fileName = file.getKey();
+            String addedSHA = file.getValue();
+            String currentSHA = headSHA(head, tracked, fileName);
+
+            /* If file was staged for removal, it will be unstaged. */
+            index.unstageRemoval(fileName);
+
+            /* Check if a version of the file is already staged. If so, it will get deleted.
+            The new version will be staged, unless it is reverting to the current commit. */
+            String stagedSHA = index.unstage(fileName);
+            if (stagedSHA != null && !stagedSHA.equals(addedSHA)) {
+                replaced.add(stagedSHA);
+            }
+
+            /* Check if the new version is the same as the one in the current commit.
+            In that case, this version of the file isn't kept and its reference in
+            the index is removed.
+            Otherwise, the file is kept in the staging area and added to the index. */
+            if (addedSHA.equals(currentSHA)) {
+                replaced.add(addedSHA);
+            } else {
+                index.stage(fileName, addedSHA);
+            }
+        }
+        for (String fileName : missing) {
+            String stagedSHA = index.unstage(fileName);
+            if (stagedSHA != null) {
+                replaced.add(stagedSHA);
+            }
+            if (headSHA(head, tracked, fileName) != null) {
+                index.stageRemoval(fileName);
+            }
+            cache.remove(fileName);
+        }
+        for (String sha : replaced) {
+            deleteUnreferenced(sha, index);
         }
+    }
+
+    /** Returns the SHA1 of [fileName] in the commit HEAD, whose snapshot is TRACKED if it
+     * was read already, or null. */
+    private static String headSHA(Commit head, Map<String, String> tracked, String fileName) {
+        return tracked != null ? tracked.get(fileName) : head.getFileSHA(fileName);
+    }
+
+    /** Compresses the working files FILENAMES into the staging area, concurrently, and
+     * returns their stat data from before they were read, along with their SHA1s. */
+    private static Map<String, StatCache.Entry> store(List<String> fileNames) {
+        ConcurrentHashMap<String, StatCache.Entry> result = new ConcurrentHashMap<>();
+        fileNames.parallelStream().forEach(fileName -> {
+            StatCache.Entry stat = StatCache.stat(Utils.join(CWD, fileName));
+            String sha = Blob.saveFromFile(fileName, STAGE_DIR).getSHA1();
+            if (stat != null) {
+                stat.sha = sha;
+                result.put(fileName, stat);
+            }
+        });
+        return result;
+    }
 
-        /* Check if the new version is the same as the one in the current commit.
-        In that case, this version of the file isn't saved and its reference in
-        the index is removed.
-        Otherwise, the file is added to the staging area and to the index. */
-        String currentSHA = Branch.getHeadCommit().getFileSHA(fileName);
-        if (addedFile.getSHA1().equals(currentSHA)) {
-            stagedFiles.remove(fileName);
-            Utils.writeObject(INDEX, stagedFiles);
-        } else {
-            // Add file to Staging area.
-            Utils.writeObject(destination, addedFile);
-
-            // Add file name and SHA1 to index.
-            stagedFiles.put(fileName, addedFile.getSHA1());
-            Utils.writeObject(INDEX, stagedFiles);
+    /** Deletes the staged Blob with the given SHA1, unless another staged file has the
+     * same contents. */
+    private static void deleteUnreferenced(String sha, Index index) {
+        if (!index.isStagedBlob(sha)) {
+            LooseObject.fileFor(STAGE_DIR, sha).delete();
         }
     }
 
     /** Unstages the file if it is currently staged for addition.
      * Returns true if the file was unstaged, false otherwise. */
     private static boolean unstage(String fileName) {
-        TreeMap<String, String> stagedFiles = getStagedIndex();
-        if (stagedFiles.containsKey(fileName)) {
-            stagedFiles.remove(fileName);
-            Utils.writeObject(INDEX, stagedFiles);
+        Index index = Index.load();
+        if (index.unstage(fileName) != null) {
             return true;
         }
         return false;
@@ -82,11 +186,9 @@ public class Staging {
     private static boolean stageForRemoval(String fileName) {
         String fileInCurrentCommit = Branch.getHeadCommit().getFileSHA(fileName);
         if (fileInCurrentCommit != null) {
-            TreeSet<String> removed = getRemoved();
-            if (removed.add(fileName)) {
-                Utils.writeObject(REMOVED, removed);
-                File fileToDelete = Utils.join(CWD, fileName);
-                Utils.restrictedDelete(fileToDelete);
+            Index index = Index.load();
+            if (index.stageRemoval(fileName)) {
+                Utils.restrictedDelete(CWD, fileName);
                 return true;
             }
         }
@@ -97,49 +199,43 @@ public class Staging {
      * If the file is tracked in the current commit, stages it for removal and removes the file
      * from the working directory if the user has not already done so.
      *
-     * If the file is neither staged nor tracked by the head commit, prints an error message. */
+     * If the file is neither staged nor tracked by the head commit, prints an error message.
+     * The index is not saved. */
     public static void removeFile(String fileName) {
         if (!unstage(fileName) && !stageForRemoval(fileName)) {
             Utils.printAndExit("No reason to remove the file.");
         }
     }
 
-    /** Clears the Staging directory.
-     * Creates an empty [index] file to track files staged for addition.
-     * Also creates an empty [removed] file to track files staged for removal.
-     * If these files exist, they are reset. */
+    /** Clears the Staging directory and the staging area of the index, then saves the
+     * index. */
     public static void resetStaging() {
         clearStaging();
-        Utils.writeObject(INDEX, new TreeMap<String, String>());
-        Utils.writeObject(REMOVED, new TreeSet<String>());
+        Index index = Index.load();
+        index.clearStaging();
+        index.save();
     }
 
 
     /** Deletes all files in the Staging directory. Used after a commit. */
     private static void clearStaging() {
-        File[] stagedContents = STAGE_DIR.listFiles();
-        if (stagedContents != null) {
-            for (File stagedFile: stagedContents) {
-                stagedFile.delete();
-            }
-        }
+        LooseObject.deleteAll(STAGE_DIR);
     }
 
     /** Returns true if any files have been staged for addition or removal. False otherwise. */
     public static boolean checkStaged() {
-        return !(getStagedIndex().size() == 0 && getRemoved().size() == 0);
+        Index index = Index.load();
+        return !(index.added().isEmpty() && index.removed().isEmpty());
     }
 
     /** Returns a map of the staged file names and their respective SHA1s. */
-    @SuppressWarnings("unchecked")
     public static TreeMap<String, String> getStagedIndex() {
-        return Utils.readObject(INDEX, TreeMap.class);
+        return new TreeMap<>(Index.load().added());
     }
 
     /** Returns a set of files staged to be removed. */
-    @SuppressWarnings("unchecked")
     public static TreeSet<String> getRemoved() {
-        return Utils.readObject(REMOVED, TreeSet.class);
+        return new TreeSet<>(Index.load().removed());
     }
 
 }
@@ -0,0 +1,369 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/** Remembers the SHA1 of working files along with their stat data (size, modification
+ * time, inode and status change time), so that a file whose stat data did not change
+ * does not have to be read and hashed again. The entries are kept in the Index.
+ *
+ * A file modified in the same clock tick as the index was last saved could keep the
+ * same stat data, so entries whose modification time is not older than the index file
+ * are considered "racy" and always hashed again.
+ *
+ * While a Monitor runs, the index also remembers the names of all working files, and
+ * the position of the monitor's log up to which the cache is known to be accurate. A
+ * command then only reads the file names logged since, forgets their entries, and
+ * trusts the other entries without even stat-ing their files (see workingFiles). The
+ * position is saved in a small file of its own, after the index, so that a command that
+ * found no change does not rewrite the whole index.
+ */
+public class StatCache {
+
+    /** The current working directory. */
+    private static final File CWD = Paths.CWD;
+
+    /** File that holds the session and the position of the monitor's log up to which the
+     * cache is accurate. */
+    private static final File POSITION = Utils.join(Paths.MONITOR_DIR, "position");
+
+    /** The index, which holds the entries and the names of the working files. */
+    private final Index index;
+
+    /** Entries of the cache, by file name. */
+    private final HashMap<String, Entry> entries;
+
+    /** The monitor's session, or null if the cache does not follow a monitor, and the
+     * position of its log up to which the cache is accurate. */
+    private String monitorSession;
+    private long monitorOffset;
+
+    /** True if the position changed since the cache was loaded. */
+    private boolean moved;
+
+    /** True if the last call to catchUp learned the changes from the monitor, in which
+     * case the remaining entries can be trusted without stat-ing their files. */
+    private boolean caughtUp;
+
+    /** Modification time of the index file when it was loaded, in nanoseconds. */
+    private final long loadedAt;
+
+    /** Number of lookups, and how many of them had to hash the file. */
+    private int lookups;
+    private int rehashed;
+
+    /** Stat data of a working file, and the SHA1 of its contents. */
+    static class Entry {
+        /** Length of the file. */
+        final long size;
+        /** Modification time, in nanoseconds. */
+        final long mtime;
+        /** Inode number, or a substitute where the file system has none. */
+        final long inode;
+        /** Status change time, in nanoseconds. */
+        final long ctime;
+        /** SHA1 of the contents of the file. */
+        String sha;
+
+        Entry(long size, long mtime, long inode, long ctime) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.ctime = ctime;
+        }
+
+        /** Returns true if [other] has the same stat data. */
+        boolean sameStat(Entry other) {
+            return size == other.size && mtime == other.mtime && inode == other.inode
+                    && ctime == other.ctime;
+        }
+    }
+
+    /** A cache of the entries in [index]. */
+    private StatCache(Index index) {
+        this.index = index;
+        entries = index.stats();
+        loadedAt = index.loadedAt();
+    }
+
+    /** Returns the cache saved in the index. */
+    static StatCache load() {
+        StatCache cache = new StatCache(Index.load());
+        if (POSITION.isFile()) {
+            String[] position = Utils.readContentsAsString(POSITION).split(" ");
+            cache.monitorSession = position[0];
+            cache.monitorOffset = Long.parseLong(position[1]);
+        }
+        return cache;
+    }
+
+    /** Saves the index, if it changed, then the position of this cache in the monitor's
+     * log. */
+    void save() {
+        index.save();
+        savePosition();
+    }
+
+    /** Saves the cache like save, unless another command holds the lock of the index or
+     * saved it since it was read, in which case nothing is saved: the cache only spares
+     * hashing files again. For commands that do not change the staging area. */
+    void saveIfUnlocked() {
+        if (index.saveIfUnlocked()) {
+            savePosition();
+        }
+    }
+
+    /** Saves the position of this cache in the monitor's log, if it moved. */
+    private void savePosition() {
+        if (moved) {
+            if (monitorSession == null) {
+                POSITION.delete();
+            } else {
+                Utils.writeContents(POSITION, monitorSession + " " + monitorOffset);
+            }
+            moved = false;
+        }
+    }
+
+    /** Returns the stat data of [file], or null if it cannot be read. */
+    static Entry stat(File file) {
+        Path path = file.toPath();
+        try {
+            try {
+                Map<String, Object> attrs = Files.readAttributes(path,
+                        "unix:size,lastModifiedTime,ino,ctime", LinkOption.NOFOLLOW_LINKS);
+                return new Entry((Long) attrs.get("size"),
+                        nanos((FileTime) attrs.get("lastModifiedTime")),
+                        (Long) attrs.get("ino"), nanos((FileTime) attrs.get("ctime")));
+            } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+                BasicFileAttributes attrs = Files.readAttributes(path,
+                        BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                Object key = attrs.fileKey();
+                return new Entry(attrs.size(), nanos(attrs.lastModifiedTime()),
+                        key == null ? 0 : key.hashCode(), nanos(attrs.creationTime()));
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns [time] in nanoseconds. */
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    /** Returns the sorted names of the working files, learned from the monitor if
+     * possible (see catchUp). */
+    List<String> workingFiles() {
+        catchUp();
+        TreeSet<String> workingFiles = index.workingFiles();
+        return workingFiles == null ? Utils.plainFilePathsUnder(CWD)
+                : new ArrayList<>(workingFiles);
+    }
+
+    /** Applies the changes the monitor logged since the cache was last brought up to date
+     * with it: the changed files are added to or removed from the working files, and
+     * their entries are forgotten. Returns true if that was possible, which is when a
+     * monitor is running, the cache follows its current session, and no event was lost.
+     * Otherwise, if a monitor is running, the working directory is scanned and only the
+     * entries whose stat data still matches are kept, so that later commands can trust
+     * the monitor for them. */
+    boolean catchUp() {
+        Monitor.Changes changes = Monitor.changesSince(monitorSession, monitorOffset);
+        caughtUp = changes != null && changes.complete && index.workingFiles() != null;
+        if (caughtUp) {
+            for (String path : changes.paths) {
+                applyChange(path);
+            }
+        } else if (changes != null) {
+            index.setWorkingFiles(new TreeSet<>(Utils.plainFilePathsUnder(CWD)));
+            entries.entrySet().removeIf(entry -> !trustworthy(entry.getKey(), entry.getValue()));
+        } else if (index.workingFiles() != null) {
+            index.setWorkingFiles(null);
+        }
+        String session = changes == null ? null : changes.session;
+        long offset = changes == null ? 0 : changes.offset;
+        moved = moved || !Objects.equals(session, monitorSession) || offset != monitorOffset;
+        monitorSession = session;
+        monitorOffset = offset;
+        return caughtUp;
+    }
+
+    /** Updates the working files and forgets the entries under [path], which the monitor
+     * reported as changed. The path may be a file, or a directory that was created, moved
+     * or deleted as a whole, in which case every file under it changed too. */
+    private void applyChange(String path) {
+        File file = Utils.join(CWD, path);
+        TreeSet<String> workingFiles = index.workingFiles();
+        List<String> gone = new ArrayList<>(workingFiles.subSet(path + "/", path + "0"));
+        gone.add(path);
+        for (String fileName : gone) {
+            if (workingFiles.remove(fileName)) {
+                index.touch();
+            }
+            remove(fileName);
+        }
+        if (file.isFile()) {
+            workingFiles.add(path);
+            index.touch();
+        } else if (file.isDirectory()) {
+            for (String fileName : Utils.plainFilePathsUnder(file)) {
+                workingFiles.add(path + "/" + fileName);
+                remove(path + "/" + fileName);
+            }
+            index.touch();
+        }
+    }
+
+    /** Returns true if the working file [fileName] exists, as the monitor reported if the
+     * last call to catchUp learned the changes from it. */
+    boolean exists(String fileName) {
+        if (caughtUp) {
+            return index.workingFiles().contains(fileName);
+        }
+        return Utils.join(CWD, fileName).isFile();
+    }
+
+    /** Returns true if the entry of [fileName] matches its current stat data, and is not
+     * racy. */
+    private boolean trustworthy(String fileName, Entry cached) {
+        Entry current = stat(Utils.join(CWD, fileName));
+        return current != null && cached.sameStat(current) && cached.mtime < loadedAt;
+    }
+
+    /** Returns true if the last call to catchUp learned the changes from the monitor. */
+    boolean usedMonitor() {
+        return caughtUp;
+    }
+
+    /** Returns the SHA1 of the working file [fileName] if the last call to catchUp
+     * learned from the monitor that it did not change since its entry was recorded, or
+     * null otherwise. */
+    String trustedSha(String fileName) {
+        Entry cached = entries.get(fileName);
+        if (!caughtUp || cached == null || cached.mtime >= loadedAt) {
+            return null;
+        }
+        return cached.sha;
+    }
+
+    /** Returns the SHA1 of the contents of the working file [fileName], hashing the file
+     * only if its stat data changed since it was last recorded, or if its entry is racy. */
+    String sha(String fileName) {
+        return shas(List.of(fileName)).get(fileName);
+    }
+
+    /** Returns the SHA1 of the contents of the working file [fileName] if it is known
+     * without reading the file: if it is trusted (see trustedSha), or if its stat data did
+     * not change since it was recorded and its entry is not racy. Returns null otherwise. */
+    String cachedSha(String fileName) {
+        lookups += 1;
+        String trusted = trustedSha(fileName);
+        if (trusted != null) {
+            return trusted;
+        }
+        Entry current = stat(Utils.join(CWD, fileName));
+        Entry cached = entries.get(fileName);
+        if (current != null && cached != null && cached.sameStat(current)
+                && cached.mtime < loadedAt) {
+            return cached.sha;
+        }
+        return null;
+    }
+
+    /** Returns the SHA1s of the contents of the given working files, by file name in
+     * sorted order. Only the files whose stat data changed, or whose entries are racy, are
+     * hashed, all at once (see Hasher). */
+    TreeMap<String, String> shas(Collection<String> fileNames) {
+        TreeMap<String, String> result = new TreeMap<>();
+        HashMap<String, Entry> changedStats = new HashMap<>();
+        for (String fileName : fileNames) {
+            String trusted = trustedSha(fileName);
+            if (trusted != null) {
+                lookups += 1;
+                result.put(fileName, trusted);
+                continue;
+            }
+            Entry current = stat(Utils.join(CWD, fileName));
+            Entry cached = entries.get(fileName);
+            lookups += 1;
+            if (current != null && cached != null && cached.sameStat(current)
+                    && cached.mtime < loadedAt) {
+                result.put(fileName, cached.sha);
+            } else {
+                changedStats.put(fileName, current);
+            }
+        }
+        if (changedStats.isEmpty()) {
+            return result;
+        }
+        rehashed += changedStats.size();
+        TreeMap<String, String> hashed = Hasher.hashAll(CWD, changedStats.keySet());
+        for (Map.Entry<String, String> file : hashed.entrySet()) {
+            Entry stat = changedStats.get(file.getKey());
+            if (stat != null) {
+                record(file.getKey(), stat, file.getValue());
+            }
+        }
+        result.putAll(hashed);
+        return result;
+    }
+
+    /** Records that the working file [fileName], whose stat data was [stat] before it was
+     * read, has the given SHA1. */
+    void record(String fileName, Entry stat, String sha) {
+        stat.sha = sha;
+        entries.put(fileName, stat);
+        index.touch();
+    }
+
+    /** Records that the working file [fileName] was just written with the contents of
+     * the Blob with the given SHA1. */
+    void refresh(String fileName, String sha) {
+        Entry stat = stat(Utils.join(CWD, fileName));
+        if (stat != null) {
+            record(fileName, stat, sha);
+        } else {
+            remove(fileName);
+        }
+    }
+
+    /** Forgets the working file [fileName]. */
+    void remove(String fileName) {
+        if (entries.remove(fileName) != null) {
+            index.touch();
+        }
+    }
+
+    /** Forgets every file not in [fileNames]. */
+    void retainAll(Set<String> fileNames) {
+        if (entries.keySet().retainAll(fileNames)) {
+            index.touch();
+        }
+    }
+
+    /** Returns the number of lookups made since this cache was loaded. */
+    int lookups() {
+        return lookups;
+    }
+
+    /** Returns the number of lookups that had to hash their file. */
+    int rehashed() {
+        return rehashed;
+    }
+}
@@ -0,0 +1,270 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Represents a directory of a commit's snapshot: the names of the files and
+ * subdirectories it holds, with the SHA1s of their Blobs and Trees.
+ *
+ * A Tree is stored as an object of its own, named by the SHA1 of its binary form (see
+ * encode), in the same directory as Blobs. A commit only refers to its root Tree, so two
+ * snapshots share every subdirectory that did not change between them: a commit that
+ * changes one file only writes the Trees on that file's path (see update), and
+ * comparing two snapshots skips every subdirectory whose SHA1 is the same in both (see
+ * diff).
+ *
+ * Paths inside a snapshot are relative to the working directory, with "/" between their
+ * parts. The empty Tree is never stored: its SHA1 is recognized instead (see EMPTY).
+ */
+public class Tree {
+
+    /** Kind of entries naming a file. */
+    private static final byte FILE = 0;
+
+    /** Kind of entries naming a subdirectory. */
+    private static final byte DIRECTORY = 1;
+
+    /** Length of a binary SHA1. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** The SHA1 of the empty Tree. */
+    static final String EMPTY = Utils.sha1(new Tree().encode());
+
+    /** An entry of a Tree: a file and the SHA1 of its Blob, or a subdirectory and the
+     * SHA1 of its Tree. */
+    static class Entry {
+        /** True if the entry is a subdirectory. */
+        final boolean isTree;
+        /** SHA1 of the entry's Blob or Tree. */
+        final String sha;
+
+        Entry(boolean isTree, String sha) {
+            this.isTree = isTree;
+            this.sha = sha;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) obj;
+            return isTree == other.isTree && sha.equals(other.sha);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(isTree, sha);
+        }
+    }
+
+    /** Called by visit for each entry of a snapshot. */
+    interface Visitor {
+        /** Called for the subdirectory at [path] whose Tree has the given SHA1. Returns
+         * false if its entries should not be visited. */
+        boolean tree(String sha, String path);
+
+        /** Called for the file at [path] whose Blob has the given SHA1. */
+        void file(String sha, String path);
+    }
+
+    /** The entries of this Tree, by name. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    /** Returns the entries of this Tree, by name. */
+    SortedMap<String, Entry> entries() {
+        return entries;
+    }
+
+    /** Returns the binary form of this Tree, which is what gets hashed and stored:
+     *      the number of entries (as a varint), followed by, for each entry in sorted
+     *      order, its kind (file or subdirectory), the length of its UTF-8 name (as a
+     *      varint), its name and its 20-byte SHA1.
+     */
+    byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + 32 * entries.size());
+        Utils.writeVarint(out, entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            out.write(entry.getValue().isTree ? DIRECTORY : FILE);
+            byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            Utils.writeVarint(out, name.length);
+            out.writeBytes(name);
+            out.writeBytes(Utils.fromHex(entry.getValue().sha));
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the Tree whose binary form is [data]. */
+    static Tree decode(byte[] data) {
+        Tree tree = new Tree();
+        int[] pos = {0};
+        int count = Utils.readVarint(data, pos);
+        for (int i = 0; i < count; i++) {
+            boolean isTree = data[pos[0]++] == DIRECTORY;
+            int length = Utils.readVarint(data, pos);
+            String name = new String(data, pos[0], length, StandardCharsets.UTF_8);
+            pos[0] += length;
+            tree.entries.put(name, new Entry(isTree, Utils.toHex(data, pos[0], ID_LENGTH)));
+            pos[0] += ID_LENGTH;
+        }
+        return tree;
+    }
+
+    /** Returns the Tree with the given SHA1, saved in [objectDir] or in its packs. The
+     * Tree is shared with other callers (see ObjectCache), so it must not be modified. */
+    static Tree load(String sha, File objectDir) {
+        if (sha.equals(EMPTY)) {
+            return new Tree();
+        }
+        ObjectCache objects = RepoContext.current().objects();
+        Tree tree = (Tree) objects.get(ObjectCache.TREE, objectDir, sha);
+        if (tree != null) {
+            return tree;
+        }
+        byte[] data = Pack.readObject(objectDir, sha);
+        if (data == null) {
+            throw Utils.error("Missing tree %s.", sha);
+        }
+        tree = decode(data);
+        // Decoded names take about twice their UTF-8 length, and SHA1s four times.
+        objects.put(ObjectCache.TREE, objectDir, sha, tree, 64 + 4L * data.length
+                + 64L * tree.entries.size());
+        return tree;
+    }
+
+    /** Saves this Tree in [objectDir], unless it is already there, and returns its SHA1. */
+    String save(File objectDir) {
+        byte[] data = encode();
+        String sha = Utils.sha1(data);
+        if (!sha.equals(EMPTY) && !Pack.contains(Pack.dirFor(objectDir), sha)) {
+            File file = LooseObject.fileFor(objectDir, sha);
+            if (!file.isFile()) {
+                LooseObject.write(file, Pack.TREE, data);
+            }
+        }
+        return sha;
+    }
+
+    /** Applies CHANGES to the snapshot whose root Tree has the SHA1 [root], and returns the
+     * SHA1 of the resulting root Tree. CHANGES maps paths to the SHA1s of their new Blobs,
+     * or to null for files to remove. Only the Trees of the directories on the changed
+     * paths are written, in [objectDir]; directories left empty are dropped. */
+    static String update(String root, SortedMap<String, String> changes, File objectDir) {
+        Tree tree = new Tree();
+        tree.entries.putAll(load(root, objectDir).entries);
+        TreeMap<String, TreeMap<String, String>> nested = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                nested.computeIfAbsent(path.substring(0, slash), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                tree.entries.remove(path);
+            } else {
+                tree.entries.put(path, new Entry(false, change.getValue()));
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> dir : nested.entrySet()) {
+            Entry old = tree.entries.get(dir.getKey());
+            String subtree = update(old != null && old.isTree ? old.sha : EMPTY,
+                    dir.getValue(), objectDir);
+            if (!subtree.equals(EMPTY)) {
+                tree.entries.put(dir.getKey(), new Entry(true, subtree));
+            } else if (old != null && old.isTree) {
+                tree.entries.remove(dir.getKey());
+            }
+        }
+        return tree.save(objectDir);
+    }
+
+    /** Returns the SHA1 of the Blob at [path] in the snapshot whose root Tree has the SHA1
+     * [root], or null if there is no such file. */
+    static String lookup(String root, String path, File objectDir) {
+        String sha = root;
+        String[] parts = path.split("/");
+        for (int i = 0; i < parts.length; i++) {
+            Entry entry = load(sha, objectDir).entries.get(parts[i]);
+            if (entry == null || entry.isTree != (i < parts.length - 1)) {
+                return null;
+            }
+            sha = entry.sha;
+        }
+        return sha;
+    }
+
+    /** Adds every file of the snapshot whose root Tree has the SHA1 [root] to FILES, by
+     * path. */
+    static void flatten(String root, File objectDir, Map<String, String> files) {
+        visit(root, "", objectDir, new Visitor() {
+            @Override
+            public boolean tree(String sha, String path) {
+                return true;
+            }
+
+            @Override
+            public void file(String sha, String path) {
+                files.put(path, sha);
+            }
+        });
+    }
+
+    /** Calls VISITOR for each entry of the Tree with the given SHA1, found at [path] ("" for
+     * the root), then for the entries of its subdirectories, unless VISITOR skips them. */
+    static void visit(String sha, String path, File objectDir, Visitor visitor) {
+        String prefix = path.isEmpty() ? "" : path + "/";
+        for (Map.Entry<String, Entry> entry : load(sha, objectDir).entries.entrySet()) {
+            String entryPath = prefix + entry.getKey();
+            Entry value = entry.getValue();
+            if (!value.isTree) {
+                visitor.file(value.sha, entryPath);
+            } else if (visitor.tree(value.sha, entryPath)) {
+                visit(value.sha, entryPath, objectDir, visitor);
+            }
+        }
+    }
+
+    /** Adds to CHANGES every file that differs between the snapshots whose root Trees have
+     * the SHA1s [from] and [to], by path, mapped to its Blob SHA1 in each snapshot (null
+     * where it is absent). Subdirectories with the same SHA1 in both are skipped. */
+    static void diff(String from, String to, File objectDir, Map<String, String[]> changes) {
+        diff(from, to, "", objectDir, changes);
+    }
+
+    /** Adds the differences between the Trees [from] and [to] (either may be null) found
+     * at [prefix] to CHANGES, as above. */
+    private static void diff(String from, String to, String prefix, File objectDir,
+                             Map<String, String[]> changes) {
+        if (Objects.equals(from, to)) {
+            return;
+        }
+        Tree a = from == null ? new Tree() : load(from, objectDir);
+        Tree b = to == null ? new Tree() : load(to, objectDir);
+        TreeSet<String> names = new TreeSet<>(a.entries.keySet());
+        names.addAll(b.entries.keySet());
+        for (String name : names) {
+            Entry x = a.entries.get(name);
+            Entry y = b.entries.get(name);
+            if (Objects.equals(x, y)) {
+                continue;
+            }
+            String path = prefix + name;
+            String xTree = x != null && x.isTree ? x.sha : null;
+            String yTree = y != null && y.isTree ? y.sha : null;
+            if (xTree != null || yTree != null) {
+                diff(xTree, yTree, path + "/", objectDir, changes);
+            }
+            String xFile = x != null && !x.isTree ? x.sha : null;
+            String yFile = y != null && !y.isTree ? y.sha : null;
+            if (!Objects.equals(xFile, yFile)) {
+                changes.put(path, new String[] {xFile, yFile});
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Checks the format of repositories, and converts those of the first version of Gitlet.
+ *
+ * A repository records its format in .gitlet/format, a number: FORMAT for this version.
+ * Repositories of the first version have no such file. They hold Java-serialized Commits
+ * and Blobs, named by their SHA1s, where this version stores loose objects, packs and
+ * Trees (see LooseObject, Pack, Tree), and keep the files staged for removal in
+ * .gitlet/removed, which tells them apart. Commands refuse them, and refuse repositories
+ * of a later format, instead of failing on their first object.
+ *
+ * The upgrade command converts a repository of the first version in place: the old
+ * .gitlet directory is renamed to .gitlet-old, a new one is made from it, and the old one
+ * is then kept in the new one, as .gitlet/old, out of the way of status and add.
+ * Every commit of the old one is converted, parents first, whether a branch reaches it
+ * or not, and so is the staging area. Blobs keep their SHA1s, the SHA1s of their
+ * contents. Commits get new SHA1s, since they are the SHA1s of their new binary form,
+ * and the branches are pointed at those.
+ */
+class Upgrade {
+
+    /** Format of the repositories of this version. The first version is format 1. */
+    static final int FORMAT = 2;
+
+    /** Name of the directory the old .gitlet directory is moved to while it is
+     * converted. */
+    private static final String OLD_DIR_NAME = ".gitlet-old";
+
+    /** Name of the directory inside the new .gitlet directory that the old one is kept
+     * in once converted. */
+    private static final String KEPT_DIR_NAME = "old";
+
+    /** A commit as the first version of Gitlet serialized it. */
+    private static class OldCommit implements Serializable {
+        /** Computed by the first version, which did not declare it. */
+        private static final long serialVersionUID = -4157919593674056457L;
+
+        private String sha1;
+        private String message;
+        private Date timestamp;
+        private HashMap<String, String> snapshot;
+        private String mainParent;
+        private String secondParent;
+        private boolean isMerged;
+    }
+
+    /** A Blob as the first version of Gitlet serialized it. */
+    private static class OldBlob implements Serializable {
+        /** Computed by the first version, which did not declare it. */
+        private static final long serialVersionUID = -6921486273559148872L;
+
+        private String sha1;
+        private byte[] contents;
+    }
+
+    /** Reads the Commits and Blobs serialized by the first version as OldCommits and
+     * OldBlobs, whose fields are the same. */
+    private static class OldObjectInputStream extends ObjectInputStream {
+        OldObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+                throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            Class<?> old = desc.getName().equals("gitlet.Commit") ? OldCommit.class
+                    : desc.getName().equals("gitlet.Blob") ? OldBlob.class : null;
+            if (old == null) {
+                return desc;
+            }
+            ObjectStreamClass local = ObjectStreamClass.lookup(old);
+            if (desc.getSerialVersionUID() != local.getSerialVersionUID()) {
+                throw new InvalidClassException(desc.getName(),
+                        "not written by a known version of Gitlet");
+            }
+            return local;
+        }
+    }
+
+    /** Directory of the Blobs of the repository being made. */
+    private final File blobDir = Paths.BLOB_DIR;
+
+    /** The old .gitlet directory. */
+    private final File oldDir = Utils.join(Paths.CWD, OLD_DIR_NAME);
+
+    /** File the contents of Blobs are written to before being stored. */
+    private final File scratch = Utils.join(Paths.GITLET_DIR, "upgrade.tmp");
+
+    /** The SHA1s of the commits converted, by their old SHA1s. */
+    private final HashMap<String, String> converted = new HashMap<>();
+
+    /** Writes the format of this version into the repository at [gitletDir]. */
+    static void writeFormat(File gitletDir) {
+        Utils.writeContents(Utils.join(gitletDir, "format"), FORMAT + "\n");
+    }
+
+    /** Prints an error message and exits unless the repository at [gitletDir], the
+     * current one unless [remote] is true, has the format of this version. Repositories
+     * that record no format, and are not of the first version, were made by a version
+     * of this one before it did. */
+    static void checkFormat(File gitletDir, boolean remote) {
+        int format = format(gitletDir);
+        if (format == FORMAT) {
+            return;
+        }
+        if (remote) {
+            Utils.printAndExit("The remote repository uses an unsupported format.");
+        } else if (format == 1) {
+            Utils.printAndExit("This repository uses the format of an older Gitlet; run "
+                    + "'java gitlet.Main upgrade' to convert it.");
+        } else {
+            Utils.printAndExit(format < 0 ? "Unsupported repository format."
+                    : "Unsupported repository format " + format + ".");
+        }
+    }
+
+    /** Returns the format of the repository at [gitletDir], or -1 if it is not a
+     * number. */
+    private static int format(File gitletDir) {
+        File file = Utils.join(gitletDir, "format");
+        if (!file.isFile()) {
+            return Utils.join(gitletDir, "removed").isFile() ? 1 : FORMAT;
+        }
+        try {
+            return Integer.parseInt(Utils.readContentsAsString(file).trim());
+        } catch (NumberFormatException excp) {
+            return -1;
+        }
+    }
+
+    /** Converts the current repository from the format of the first version, and returns
+     * the number of commits converted. Prints an error message if it has another format,
+     * or if the directory its .gitlet directory would be renamed to exists. */
+    static int upgrade() {
+        if (!Paths.GITLET_DIR.isDirectory()) {
+            Utils.printAndExit("Not in an initialized Gitlet directory.");
+        }
+        int format = format(Paths.GITLET_DIR);
+        if (format == FORMAT) {
+            Utils.printAndExit("This repository does not need upgrading.");
+        } else if (format != 1) {
+            checkFormat(Paths.GITLET_DIR, false);
+        }
+        Upgrade upgrade = new Upgrade();
+        if (upgrade.oldDir.exists()) {
+            Utils.printAndExit("A " + OLD_DIR_NAME + " directory already exists in the "
+                    + "current directory.");
+        }
+        if (!Paths.GITLET_DIR.renameTo(upgrade.oldDir)) {
+            Utils.printAndExit("Could not rename .gitlet to " + OLD_DIR_NAME + ".");
+        }
+        Repository.setup();
+        try {
+            upgrade.run();
+        } finally {
+            upgrade.scratch.delete();
+        }
+        if (!upgrade.oldDir.renameTo(Utils.join(Paths.GITLET_DIR, KEPT_DIR_NAME))) {
+            Utils.printAndExit("Could not move " + OLD_DIR_NAME + " into .gitlet.");
+        }
+        return upgrade.converted.size();
+    }
+
+    /** Converts the old repository into the new one, which was just set up. */
+    private void run() {
+        File[] commits = Utils.join(oldDir, "commits").listFiles();
+        List<String> shas = new ArrayList<>();
+        for (File file : commits == null ? new File[0] : commits) {
+            if (file.isFile()) {
+                shas.add(convertCommit(file.getName()));
+            }
+        }
+        PathFilters.load().add(shas);
+        File oldBranchDir = Utils.join(oldDir, "heads");
+        convertBranches(oldBranchDir, Paths.BRANCH_DIR);
+        Branch.write(Paths.HEAD, Utils.readContentsAsString(Utils.join(oldDir, "head")));
+        File remotes = Utils.join(oldDir, "remotes");
+        if (remotes.isFile()) {
+            Utils.writeContents(Paths.REMOTE, Utils.readContents(remotes));
+        }
+        convertStaging();
+    }
+
+    /** Converts the commit with the old SHA1 [sha] and its ancestors that are not
+     * converted yet, parents first, and returns its new SHA1. */
+    private String convertCommit(String sha) {
+        ArrayDeque<String> pending = new ArrayDeque<>();
+        pending.push(sha);
+        while (!pending.isEmpty()) {
+            String next = pending.peek();
+            if (converted.containsKey(next)) {
+                pending.pop();
+                continue;
+            }
+            OldCommit old = read(Utils.join(oldDir, "commits", next), OldCommit.class);
+            boolean ready = true;
+            for (String parent : new String[] {old.mainParent, old.secondParent}) {
+                if (parent != null && !converted.containsKey(parent)) {
+                    pending.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                pending.pop();
+                converted.put(next, save(old));
+            }
+        }
+        return converted.get(sha);
+    }
+
+    /** Saves [old], whose parents are converted, as a commit of this version, along with
+     * its Tree and Blobs. Returns its SHA1. */
+    private String save(OldCommit old) {
+        File oldBlobDir = Utils.join(oldDir, "blobs");
+        TreeMap<String, String> files = new TreeMap<>();
+        for (String fileName : old.snapshot.keySet()) {
+            files.put(fileName, storeBlob(oldBlobDir, old.snapshot.get(fileName), blobDir));
+        }
+        String tree = Tree.update(Tree.EMPTY, files, blobDir);
+        Commit commit = Commit.of(old.message, old.timestamp.getTime(),
+                old.mainParent == null ? null : converted.get(old.mainParent),
+                old.secondParent == null ? null : converted.get(old.secondParent), tree);
+        commit.saveCommit();
+        return commit.getSHA1();
+    }
+
+    /** Stores the old Blob with the given SHA1 from [fromDir] into [toDir], unless it is
+     * there already, and returns its SHA1. */
+    private String storeBlob(File fromDir, String sha, File toDir) {
+        if (Blob.exists(sha, toDir)) {
+            return sha;
+        }
+        OldBlob old = read(Utils.join(fromDir, sha), OldBlob.class);
+        Utils.writeContents(scratch, (Object) old.contents);
+        String stored = Blob.store(scratch, toDir);
+        if (!stored.equals(sha)) {
+            throw new IllegalArgumentException("blob " + sha + " does not match its contents");
+        }
+        return sha;
+    }
+
+    /** Points the branches of [toDir] at the conversions of the heads of those of
+     * [fromDir], including the branches fetched from remotes, in its subdirectories. */
+    private void convertBranches(File fromDir, File toDir) {
+        File[] branches = fromDir.listFiles();
+        for (File branch : branches == null ? new File[0] : branches) {
+            File target = Utils.join(toDir, branch.getName());
+            if (branch.isDirectory()) {
+                target.mkdir();
+                convertBranches(branch, target);
+                continue;
+            }
+            String sha = convertCommit(Utils.readContentsAsString(branch));
+            Branch.write(target, sha);
+            CommitGraph.load().add(sha);
+        }
+    }
+
+    /** Stages the files that the old staging area staged for addition or removal. */
+    private void convertStaging() {
+        TreeMap<?, ?> added = read(Utils.join(oldDir, "index"), TreeMap.class);
+        TreeSet<?> removed = read(Utils.join(oldDir, "removed"), TreeSet.class);
+        Index index = Index.load();
+        for (Object fileName : added.keySet()) {
+            String sha = (String) added.get(fileName);
+            storeBlob(Utils.join(oldDir, "staging"), sha, Paths.STAGE_DIR);
+            index.stage((String) fileName, sha);
+        }
+        for (Object fileName : removed) {
+            index.stageRemoval((String) fileName);
+        }
+        index.save();
+    }
+
+    /** Returns the object of type T serialized by the first version into [file]. */
+    private static <T extends Serializable> T read(File file, Class<T> expectedClass) {
+        try (ObjectInputStream in = new OldObjectInputStream(new FileInputStream(file))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(file + ": " + excp.getMessage());
+        }
+    }
+}
@@ -10,11 +10,14 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Formatter;
 import java.util.List;
 
@@ -80,6 +83,26 @@ class Utils {
         }
     }
 
+    /** Deletes the file at PATH, relative to the directory DIR, if it exists and is not a
+     *  directory, then deletes the directories on PATH that it left empty.
+     *  Returns true if the file was deleted, and false otherwise. Refuses to
+     *  delete it and throws IllegalArgumentException unless DIR contains a
+     *  directory named .gitlet. */
+    static boolean restrictedDelete(File dir, String path) {
+        if (!(new File(dir, ".gitlet")).isDirectory()) {
+            throw new IllegalArgumentException("not .gitlet working directory");
+        }
+        File file = join(dir, path);
+        if (file.isDirectory() || !file.delete()) {
+            return false;
+        }
+        File parent = file.getParentFile();
+        while (!parent.equals(dir) && parent.delete()) {
+            parent = parent.getParentFile();
+        }
+        return true;
+    }
+
     /** Deletes the file named FILE if it exists and is not a directory.
      *  Returns true if FILE was deleted, and false otherwise.  Refuses
      *  to delete FILE and throws IllegalArgumentException unless the
@@ -188,6 +211,50 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /** Returns a list of the paths, relative to DIR and with "/" between
+     *  their parts, of all plain files in the directory DIR and its
+     *  subdirectories, in lexicographic order as Java Strings. Directories
+     *  named .gitlet are skipped. Returns null if DIR does not denote a
+     *  directory. */
+    static List<String> plainFilePathsUnder(File dir) {
+        if (!dir.isDirectory()) {
+            return null;
+        }
+        List<String> paths = new ArrayList<>();
+        addPlainFilePaths(dir, "", paths);
+        Collections.sort(paths);
+        return paths;
+    }
+
+    /** Adds the paths of the plain files under DIR, prefixed with PREFIX,
+     *  to PATHS, as for plainFilePathsUnder. */
+    private static void addPlainFilePaths(File dir, String prefix, List<String> paths) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isFile()) {
+                paths.add(prefix + file.getName());
+            } else if (file.isDirectory() && !file.getName().equals(".gitlet")) {
+                addPlainFilePaths(file, prefix + file.getName() + "/", paths);
+            }
+        }
+    }
+
+    /** Returns PATH, a file name given on the command line, relative to the
+     *  directory DIR, normalized and with "/" between its parts, or null if
+     *  it does not name DIR or a file under it outside of its .gitlet
+     *  directory. DIR itself is named by the empty string. */
+    static String relativePath(File dir, String path) {
+        Path root = dir.toPath().toAbsolutePath().normalize();
+        Path file = root.resolve(path).normalize();
+        if (!file.startsWith(root) || file.startsWith(root.resolve(".gitlet"))) {
+            return null;
+        }
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
     /* OTHER FILE UTILITIES */
 
     /** Return the concatentation of FIRST and OTHERS into a File designator,
@@ -239,9 +306,90 @@ class Utils {
 
     /* A few more helper methods */
 
+    /** Returns the hexadecimal form of LENGTH bytes of BYTES, starting
+     *  at OFFSET. */
+    static String toHex(byte[] bytes, int offset, int length) {
+        char[] result = new char[2 * length];
+        for (int i = 0; i < length; i++) {
+            int b = bytes[offset + i] & 0xff;
+            result[2 * i] = Character.forDigit(b >>> 4, 16);
+            result[2 * i + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        return new String(result);
+    }
+
+    /** Returns the bytes denoted by the hexadecimal numeral HEX.  Throws
+     *  IllegalArgumentException if HEX is not a valid numeral. */
+    static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("odd-length hex numeral");
+        }
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("improper hex numeral");
+            }
+            result[i] = (byte) ((high << 4) | low);
+        }
+        return result;
+    }
+
+    /** Writes the non-negative VALUE to OUT as an unsigned LEB128 varint. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Reads an unsigned LEB128 varint from DATA at POS[0], advancing
+     *  POS[0] past it. */
+    static int readVarint(byte[] data, int[] pos) {
+        int result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[pos[0]++] & 0xff;
+            result |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
     /** Prints message and stops execution. */
     public static void printAndExit(String text) {
         System.out.println(text);
-        System.exit(0);
+        exit(0);
+    }
+
+    /** Stops execution with the given status. Inside a Server, only the current command
+     * stops. */
+    public static void exit(int status) {
+        RepoContext.end();
+        if (Server.isServing()) {
+            throw new Server.Exit(status);
+        }
+        System.exit(status);
+    }
+
+    /** Starts this program again in a background process, in the directory [dir], to run
+     * the command ARGS, with its output discarded. */
+    static void runInBackground(File dir, String... args) {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.addAll(Arrays.asList(args));
+        try {
+            new ProcessBuilder(command).directory(dir)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 }